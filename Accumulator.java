@@ -0,0 +1,76 @@
+package chess;
+
+// Accumulator keeps a Network's first layer, from both sides' views, up to date along the line the
+// search is playing. Each push derives the next ply's rows from the current ones by subtracting the
+// features of the pieces a move lifts and adding those it drops (two rows for a quiet move, three for a
+// capture, four for castling) instead of summing every piece again, and pop returns to the previous ply,
+// so taking a move back costs nothing. The caller pushes before making each move and pops after
+// unmaking it.
+final class Accumulator {
+	final Network net;
+	final Network.Kernel kernel;
+	private final int hidden;
+	// rows[ply] holds white's view in [0, hidden) and black's in [hidden, 2*hidden).
+	private final int[][] rows;
+	private int top;
+
+	// Creates an accumulator for a network that computes with a kernel, for lines of up to MAX_PLY moves.
+	Accumulator(Network net, Network.Kernel kernel) {
+		this.net = net;
+		this.kernel = kernel;
+		hidden = net.hidden;
+		rows = new int[Search.MAX_PLY + 1][2 * hidden];
+	}
+
+	// Computes the rows of a position from scratch and makes it the start of the line.
+	void refresh(Position p) {
+		top = 0;
+		net.fill(p, PlayerColor.white, rows[0], 0, kernel);
+		net.fill(p, PlayerColor.black, rows[0], hidden, kernel);
+	}
+
+	// Returns the number of moves pushed since the last refresh.
+	int depth() {
+		return top;
+	}
+
+	// Computes the rows after a move from those of the position before it, which must be the position
+	// the move is about to be made on.
+	void push(Position p, int m) {
+		int[] src = rows[top], dst = rows[++top];
+		int from = Move.from(m), to = Move.to(m);
+		PlayerColor pc = p.colorAt(from >> 3, from & 7);
+		PieceType moving = p.typeAt(from);
+		PieceType placed = Move.isPromotion(m) ? Move.promotion(m) : moving;
+		int capturedSq = Move.isEnPassant(m) ? (from & ~7) | (to & 7) : to;
+		PieceType captured = p.typeAt(capturedSq);
+		for(int v = 0, off = 0; v < 2; ++v, off += hidden) {
+			PlayerColor view = (v == 0) ? PlayerColor.white : PlayerColor.black;
+			kernel.update(src, off, dst, off, net.featureWeights, row(view, pc, placed, to), row(view, pc, moving, from), hidden);
+			if(captured != PieceType.none)
+				kernel.update(dst, off, dst, off, net.featureWeights, -1, row(view, Position.opponent(pc), captured, capturedSq), hidden);
+			if(Move.isCastle(m)) {
+				int rank = to & ~7;
+				boolean kingside = (to & 7) == 6;
+				kernel.update(dst, off, dst, off, net.featureWeights, row(view, pc, PieceType.rook, rank | (kingside ? 5 : 3)),
+						row(view, pc, PieceType.rook, rank | (kingside ? 7 : 0)), hidden);
+			}
+		}
+	}
+
+	// Returns to the rows before the last move pushed.
+	void pop() {
+		--top;
+	}
+
+	// Scores the current position of the line for the side to move.
+	int evaluate(PlayerColor turn) {
+		int[] r = rows[top];
+		return (turn == PlayerColor.white) ? net.output(r, 0, r, hidden, kernel) : net.output(r, hidden, r, 0, kernel);
+	}
+
+	// Returns the offset of a feature's row in the first layer's weights.
+	private int row(PlayerColor view, PlayerColor pc, PieceType type, int sq) {
+		return Network.feature(view, pc, type, sq) * hidden;
+	}
+}
@@ -0,0 +1,183 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Analyzer searches every position of a FEN or EPD file and writes one EPD line per position, in
+// input order: the position's own fields and operations followed by the move found (sm), its score
+// (ce, or dm for a forced mate), the depth (acd) and the nodes searched (acn). Positions are read as
+// they are needed and searched on a pool of threads, each with its own Search and transposition table.
+// At most a fixed window of positions is in flight: the reader waits when the oldest result has not
+// been written yet, so memory stays the same however long the file is. EPD positions with a bm or am
+// operation are counted as solved when the move found is one of the best moves or none of the avoided ones.
+// A thread's transposition table and move ordering carry over from one position to the next, so scores
+// and moves can vary slightly with the number of threads.
+public class Analyzer {
+	// Positions in flight per thread, so a slow position does not leave the other threads idle.
+	private static final int WINDOW_PER_THREAD = 4;
+
+	private final int threads;
+	private final int maxDepth;
+	private final long millis;
+	private final ThreadLocal<Search> search;
+	private final AtomicInteger solved = new AtomicInteger();
+	private final AtomicInteger tests = new AtomicInteger();
+	private final AtomicInteger errors = new AtomicInteger();
+
+	// Creates an analyzer that searches each position to maxDepth or for millis milliseconds.
+	Analyzer(int threads, int maxDepth, long millis, int hashMegabytes) {
+		this.threads = threads;
+		this.maxDepth = maxDepth;
+		this.millis = millis;
+		search = ThreadLocal.withInitial(() -> new Search(new TranspositionTable(hashMegabytes)));
+	}
+
+	// Analyzes every position of a file into another; returns the number of positions.
+	long run(Path input, Path output) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ExecutorService writing = Executors.newSingleThreadExecutor(r -> new Thread(r, "analyzer-writer"));
+		BlockingQueue<Future<String>> window = new ArrayBlockingQueue<>(threads * WINDOW_PER_THREAD);
+		Future<String> end = CompletableFuture.completedFuture(null);
+		long count = 0;
+		try(BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+				BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			// The writer takes results in submission order, which is input order.
+			Future<?> writer = writing.submit(() -> {
+				for(Future<String> f = window.take(); f != end; f = window.take()) {
+					out.write(f.get());
+					out.newLine();
+				}
+				return null;
+			});
+			for(String line = in.readLine(); line != null; line = in.readLine()) {
+				String text = line.trim();
+				if(text.isEmpty() || text.startsWith("#"))
+					continue;
+				put(window, pool.submit(() -> analyze(text)), writer);
+				++count;
+			}
+			put(window, end, writer);
+			writer.get();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+			writing.shutdownNow();
+		}
+		return count;
+	}
+
+	// Waits for room in the window, giving up if the writer has failed and stopped taking results.
+	private static void put(BlockingQueue<Future<String>> window, Future<String> f, Future<?> writer) throws InterruptedException, ExecutionException {
+		while(!window.offer(f, 100, TimeUnit.MILLISECONDS)) {
+			if(writer.isDone())
+				writer.get();
+		}
+	}
+
+	// Searches one FEN or EPD line and formats its result line.
+	String analyze(String line) {
+		String[] fields = line.split("\\s+");
+		// A FEN line has move counters in fields five and six; an EPD line has operations there instead.
+		boolean fen = fields.length >= 6 && fields[4].matches("\\d+") && fields[5].matches("\\d+");
+		int fenFields = fen ? 6 : 4;
+		String ops = "";
+		if(fields.length > fenFields) {
+			int at = 0;
+			for(int i = 0; i < fenFields; ++i)
+				at = line.indexOf(fields[i], at) + fields[i].length();
+			ops = line.substring(at).trim();
+		}
+		StringBuilder sb = new StringBuilder(line.length() + 64);
+		sb.append(String.join(" ", Arrays.copyOf(fields, Math.min(4, fields.length))));
+		if(!ops.isEmpty())
+			sb.append(' ').append(ops.endsWith(";") ? ops : ops + ";");
+		try {
+			Position p = Position.fromFen(String.join(" ", Arrays.copyOf(fields, Math.min(fenFields, fields.length))));
+			SearchInfo info = search.get().search(p, maxDepth, millis);
+			MoveList buffer = new MoveList();
+			int best = (info != null) ? info.bestMove() : Move.NONE;
+			if(best != Move.NONE)
+				sb.append(" sm ").append(San.toString(p, best, buffer)).append(';');
+			if(info != null) {
+				if(info.isMateScore()) {
+					int plies = Search.MATE - Math.abs(info.score);
+					sb.append(" dm ").append(info.score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2).append(';');
+				}
+				else sb.append(" ce ").append(info.score).append(';');
+				sb.append(" acd ").append(info.depth).append("; acn ").append(info.nodes).append(';');
+			}
+			check(p, ops, best, buffer);
+		} catch(RuntimeException e) {
+			errors.incrementAndGet();
+			sb.append(" c9 \"error: ").append(e.getMessage() != null ? e.getMessage().replace('"', '\'') : e.toString()).append("\";");
+		}
+		return sb.toString();
+	}
+
+	// Counts an EPD test: the move must be one of the bm moves, and none of the am moves.
+	private void check(Position p, String ops, int move, MoveList buffer) {
+		boolean test = false, ok = true;
+		for(String op : ops.split(";")) {
+			String[] words = op.trim().split("\\s+");
+			if(!words[0].equals("bm") && !words[0].equals("am"))
+				continue;
+			test = true;
+			boolean listed = false;
+			for(int i = 1; i < words.length; ++i)
+				listed |= San.parse(p, words[i], buffer) == move;
+			ok &= words[0].equals("bm") == listed;
+		}
+		if(test) {
+			tests.incrementAndGet();
+			if(ok && move != Move.NONE) solved.incrementAndGet();
+		}
+	}
+
+	// Usage: Analyzer <in.epd> <out.epd> [--threads n] [--millis ms] [--depth d] [--hash mb];
+	// analyzes FEN or EPD positions and reports positions per second and test results.
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.out.println("Usage: Analyzer <in.epd> <out.epd> [--threads n] [--millis ms] [--depth d] [--hash mb]");
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors(), depth = Search.MAX_PLY, hash = 16;
+		long millis = -1;
+		for(int i = 2; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+				case "--millis": millis = Long.parseLong(args[i + 1]); break;
+				case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+				case "--hash": hash = Integer.parseInt(args[i + 1]); break;
+				default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		// A depth limit alone means searching without a clock, so results do not depend on machine load.
+		if(millis < 0)
+			millis = (depth != Search.MAX_PLY) ? 0 : 1000;
+		Analyzer analyzer = new Analyzer(threads, depth, millis, hash);
+		long start = System.nanoTime();
+		long n = analyzer.run(Paths.get(args[0]), Paths.get(args[1]));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d positions in %.1f s on %d threads, %.1f positions/s, %d errors%n", n, seconds, threads, n / seconds, analyzer.errors.get());
+		if(analyzer.tests.get() > 0)
+			System.out.printf("solved %d of %d tests%n", analyzer.solved.get(), analyzer.tests.get());
+	}
+}
@@ -0,0 +1,218 @@
+package chess;
+
+import java.util.Random;
+
+// Bitboards holds the precomputed attack tables used by Position.
+// A bitboard is a long with bit x*8+y set for each occupied or attacked square (row x, column y).
+// Sliding pieces use magic bitboards: the blockers on a piece's rays are multiplied by a per-square
+// magic number, and the top bits of the product index a table of ready-made attack sets.
+final class Bitboards {
+	static final long[] KNIGHT_ATTACKS = new long[64];
+	static final long[] KING_ATTACKS = new long[64];
+	// Squares attacked by a pawn of each color, indexed by PlayerColor.ordinal().
+	static final long[][] PAWN_ATTACKS = new long[3][64];
+
+	private static final int[][] ROOK_RAYS = {{0, 1}, {0, -1}, {-1, 0}, {1, 0}};
+	private static final int[][] BISHOP_RAYS = {{-1, 1}, {1, 1}, {-1, -1}, {1, -1}};
+
+	// Magic numbers for this square layout, as printed by main().
+	private static final long[] ROOK_MAGIC = {
+		0x1180081040008020L, 0x014000D000200048L, 0x0280100020008008L, 0x0080100080080005L,
+		0x0480020400080080L, 0x0A00020081080410L, 0x2600040200084081L, 0x020004012180410EL,
+		0x0000800080400020L, 0x0001002040010090L, 0x801A004200108024L, 0x0822800802801000L,
+		0x0002800800810400L, 0x1000800400020080L, 0x0109000401002200L, 0x1981000100004082L,
+		0x8040018000402080L, 0xA00E020041082380L, 0x40A0048010008020L, 0x0210010008210010L,
+		0x8088818004001802L, 0x2A24008080020004L, 0x0000040001100802L, 0x1000020008411084L,
+		0x4000400180087080L, 0x2540004540201002L, 0x0808408200120021L, 0x0000100080080085L,
+		0x0008010100080410L, 0x0023040080800200L, 0x0C01004100440200L, 0x2800004200210084L,
+		0x3004204014800081L, 0x001001400140200AL, 0x8210200101001040L, 0x4424490025001000L,
+		0x0008000400800880L, 0x2C00800200800400L, 0x8090081004000102L, 0x00080C02820020C5L,
+		0x0000800040008020L, 0x8080820021020040L, 0x0020802200120040L, 0x0202002008420010L,
+		0x0004008040080800L, 0x0000020004008080L, 0x1200504102040048L, 0x4C01000040810002L,
+		0x0580002000400040L, 0x2015802000400C80L, 0x8080461082022200L, 0x0002201005000900L,
+		0xC900080100900500L, 0x0002002400807280L, 0x0004021008410400L, 0x0810010080540200L,
+		0x2000208000110041L, 0x300B024002B0A081L, 0x0000090020004293L, 0x0008200408100101L,
+		0x0122000420081002L, 0x0011000400080201L, 0x018008A110120804L, 0x0900040221124082L,
+	};
+	private static final long[] BISHOP_MAGIC = {
+		0x2002102208004480L, 0x0808012124010C01L, 0x0008025042010045L, 0x2202208601038101L,
+		0x4044050405040100L, 0x0102080208020100L, 0x0006210920100020L, 0x0100808048024000L,
+		0x00800A2084040040L, 0x000AA00101410104L, 0x1108082E240CA100L, 0x0010082080202244L,
+		0x1002084840020000L, 0x000842180404001AL, 0x4043008210022000L, 0x100003040A014468L,
+		0x000500084858082CL, 0x0028040310041080L, 0x8008000400240014L, 0x2094002241020001L,
+		0x0182001012100000L, 0x4002030908010C00L, 0x1129180041082024L, 0x000284204410A820L,
+		0x483044814A200421L, 0x00082000081A2484L, 0x800E0442020C0400L, 0x0008080004220060L,
+		0x2801001001004002L, 0x4401010002100080L, 0x03050120C6441000L, 0x01010100014404A1L,
+		0x8101500810D02004L, 0x2002082003048100L, 0x0402010A41040801L, 0x0022020080180080L,
+		0x00440C0400001100L, 0x0000851302060088L, 0x010810C100308800L, 0x0001240020108210L,
+		0x00AC412050020808L, 0xA000820120041100L, 0x0811094402171000L, 0x0010054022089021L,
+		0x6011240810140201L, 0x0010041004101020L, 0x0020084102468500L, 0x00011C0082000090L,
+		0x1254881490040300L, 0x8084804402600C20L, 0x6002010090904000L, 0x0000021084044040L,
+		0x004000445044020AL, 0x0401100250010028L, 0x0020204411006020L, 0x0862447802104005L,
+		0x628282480090080AL, 0x1000008400880400L, 0x0010000D04210440L, 0x0004300480460800L,
+		0x0884430010021210L, 0x1040006072900240L, 0x0000210204080C80L, 0x0108014102020A00L,
+	};
+
+	private static final long[] ROOK_MASK = new long[64];
+	private static final int[] ROOK_SHIFT = new int[64];
+	private static final long[][] ROOK_TABLE = new long[64][];
+	private static final long[] BISHOP_MASK = new long[64];
+	private static final int[] BISHOP_SHIFT = new int[64];
+	private static final long[][] BISHOP_TABLE = new long[64][];
+
+	// Rook and bishop attacks on an empty board, used to find pieces that could pin or x-ray.
+	static final long[] ROOK_PSEUDO = new long[64];
+	static final long[] BISHOP_PSEUDO = new long[64];
+
+	// BETWEEN[a][b] holds the squares strictly between two aligned squares, LINE[a][b] the whole line through them.
+	static final long[][] BETWEEN = new long[64][64];
+	static final long[][] LINE = new long[64][64];
+
+	static {
+		int[][] knightSteps = {{-2, -1}, {-2, 1}, {2, -1}, {2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}};
+		int[][] kingSteps = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+		for(int sq = 0; sq < 64; ++sq) {
+			int x = sq >> 3, y = sq & 7;
+			KNIGHT_ATTACKS[sq] = steps(x, y, knightSteps);
+			KING_ATTACKS[sq] = steps(x, y, kingSteps);
+			PAWN_ATTACKS[PlayerColor.white.ordinal()][sq] = steps(x, y, new int[][] {{-1, -1}, {-1, 1}});
+			PAWN_ATTACKS[PlayerColor.black.ordinal()][sq] = steps(x, y, new int[][] {{1, -1}, {1, 1}});
+			ROOK_PSEUDO[sq] = slide(sq, 0, ROOK_RAYS);
+			BISHOP_PSEUDO[sq] = slide(sq, 0, BISHOP_RAYS);
+		}
+		for(int a = 0; a < 64; ++a) {
+			for(int b = 0; b < 64; ++b) {
+				if(a == b)
+					continue;
+				long ab = (1L << a) | (1L << b);
+				if((ROOK_PSEUDO[a] & (1L << b)) != 0) {
+					BETWEEN[a][b] = slide(a, ab, ROOK_RAYS) & slide(b, ab, ROOK_RAYS);
+					LINE[a][b] = (ROOK_PSEUDO[a] & ROOK_PSEUDO[b]) | ab;
+				}
+				else if((BISHOP_PSEUDO[a] & (1L << b)) != 0) {
+					BETWEEN[a][b] = slide(a, ab, BISHOP_RAYS) & slide(b, ab, BISHOP_RAYS);
+					LINE[a][b] = (BISHOP_PSEUDO[a] & BISHOP_PSEUDO[b]) | ab;
+				}
+			}
+		}
+		for(int sq = 0; sq < 64; ++sq) {
+			initTable(sq, ROOK_RAYS, ROOK_MAGIC[sq], ROOK_MASK, ROOK_SHIFT, ROOK_TABLE);
+			initTable(sq, BISHOP_RAYS, BISHOP_MAGIC[sq], BISHOP_MASK, BISHOP_SHIFT, BISHOP_TABLE);
+		}
+	}
+
+	private Bitboards() {}
+
+	// Returns the squares reached by single steps from (x, y).
+	private static long steps(int x, int y, int[][] offsets) {
+		long set = 0;
+		for(int[] s : offsets) {
+			int i = x + s[0], j = y + s[1];
+			if(Position.onBoard(i, j))
+				set |= 1L << (i * 8 + j);
+		}
+		return set;
+	}
+
+	// Computes slider attacks ray by ray; only used to build the tables.
+	private static long slide(int sq, long occupied, int[][] rays) {
+		long set = 0;
+		for(int[] r : rays) {
+			for(int i = (sq >> 3) + r[0], j = (sq & 7) + r[1]; Position.onBoard(i, j); i += r[0], j += r[1]) {
+				set |= 1L << (i * 8 + j);
+				if((occupied & (1L << (i * 8 + j))) != 0)
+					break;
+			}
+		}
+		return set;
+	}
+
+	// Returns the relevant blocker squares of a slider: its rays without the final edge square.
+	private static long relevantMask(int sq, int[][] rays) {
+		long set = 0;
+		for(int[] r : rays) {
+			for(int i = (sq >> 3) + r[0], j = (sq & 7) + r[1]; Position.onBoard(i + r[0], j + r[1]); i += r[0], j += r[1])
+				set |= 1L << (i * 8 + j);
+		}
+		return set;
+	}
+
+	// Fills the attack table of one square for a known magic number.
+	private static void initTable(int sq, int[][] rays, long magic, long[] masks, int[] shifts, long[][] tables) {
+		long mask = relevantMask(sq, rays);
+		int bits = Long.bitCount(mask);
+		long[] table = new long[1 << bits];
+		long subset = 0;
+		do {
+			table[(int) ((subset * magic) >>> (64 - bits))] = slide(sq, subset, rays);
+			subset = (subset - mask) & mask;
+		} while(subset != 0);
+		masks[sq] = mask;
+		shifts[sq] = 64 - bits;
+		tables[sq] = table;
+	}
+
+	// Searches for a magic number that maps every blocker subset of one square to a slot without a
+	// conflicting attack set; returns the magic, or 0 if none was found within the given attempts.
+	static long findMagic(int sq, int[][] rays, Random random, int attempts) {
+		long mask = relevantMask(sq, rays);
+		int bits = Long.bitCount(mask);
+		int size = 1 << bits;
+		long[] occupancy = new long[size];
+		long[] reference = new long[size];
+		long subset = 0;
+		for(int i = 0; i < size; ++i) {
+			occupancy[i] = subset;
+			reference[i] = slide(sq, subset, rays);
+			subset = (subset - mask) & mask;
+		}
+
+		long[] table = new long[size];
+		int[] epoch = new int[size];
+		for(int attempt = 1; attempt <= attempts; ++attempt) {
+			long magic = random.nextLong() & random.nextLong() & random.nextLong();
+			if(Long.bitCount((mask * magic) >>> 56) < 6)
+				continue;
+			boolean ok = true;
+			for(int i = 0; i < size && ok; ++i) {
+				int index = (int) ((occupancy[i] * magic) >>> (64 - bits));
+				if(epoch[index] != attempt) {
+					epoch[index] = attempt;
+					table[index] = reference[i];
+				}
+				else if(table[index] != reference[i]) ok = false;
+			}
+			if(ok)
+				return magic;
+		}
+		return 0;
+	}
+
+	// Prints fresh magic numbers for ROOK_MAGIC and BISHOP_MAGIC.
+	public static void main(String[] args) {
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 2024);
+		for(int[][] rays : new int[][][] {ROOK_RAYS, BISHOP_RAYS}) {
+			StringBuilder sb = new StringBuilder();
+			for(int sq = 0; sq < 64; ++sq) {
+				long magic = findMagic(sq, rays, random, Integer.MAX_VALUE);
+				sb.append(sq % 4 == 0 ? "\n\t\t" : " ").append(String.format("0x%016XL,", magic));
+			}
+			System.out.println((rays == ROOK_RAYS ? "ROOK_MAGIC" : "BISHOP_MAGIC") + " = {" + sb + "\n\t};");
+		}
+	}
+
+	// Rook attacks from a square given the occupied squares.
+	static long rookAttacks(int sq, long occupied) {
+		return ROOK_TABLE[sq][(int) (((occupied & ROOK_MASK[sq]) * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+	}
+
+	// Bishop attacks from a square given the occupied squares.
+	static long bishopAttacks(int sq, long occupied) {
+		return BISHOP_TABLE[sq][(int) (((occupied & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+	}
+
+	// Queen attacks from a square given the occupied squares.
+	static long queenAttacks(int sq, long occupied) {
+		return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+	}
+}
@@ -0,0 +1,243 @@
+package chess;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.function.IntFunction;
+import javax.swing.JComponent;
+import javax.swing.SwingWorker;
+
+// BoardView paints the squares and pieces of a Position in a single component.
+// The board is drawn into an off-screen buffer once; after that a change redraws just the squares
+// it touched in the buffer and asks Swing to repaint only their rectangles. The board scales to the
+// component's size and the buffer matches the screen's pixel density, so it stays sharp on HiDPI.
+// Piece images come from a SpriteAtlas of the right size in device pixels, loaded on a worker thread;
+// until it arrives the board shows lettered placeholders instead of waiting.
+public class BoardView extends JComponent {
+	// Receives clicks on board squares as (row, column).
+	public interface SquareListener {
+		void squareClicked(int x, int y);
+	}
+
+	private static final long serialVersionUID = 1L;
+	static final int DEFAULT_SQUARE_SIZE = 64;
+	private static final Color LIGHT = Color.WHITE;
+	private static final Color DARK = Color.gray;
+	private static final Color MARK = Color.yellow;
+	private static final String LETTERS = "KQBNRP";
+
+	private final Position position;
+	private SquareListener listener;
+	private IntFunction<SpriteAtlas> atlasSource;
+	private SpriteAtlas atlas;
+	// Size of the atlas being loaded, or -1.
+	private int requestedSize = -1;
+	private long marked;
+	// Called once each: when the board is first painted and when the first pieces are painted.
+	Runnable onFirstPaint, onPiecesShown;
+
+	private BufferedImage buffer;
+	private double bufferScale;
+	private boolean bufferValid;
+	private int squareSize, originX, originY;
+
+	// Creates a view of a position.
+	public BoardView(Position position) {
+		this.position = position;
+		setOpaque(true);
+		setPreferredSize(new Dimension(8 * DEFAULT_SQUARE_SIZE, 8 * DEFAULT_SQUARE_SIZE));
+		setMinimumSize(new Dimension(8 * 16, 8 * 16));
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				int x = Math.floorDiv(e.getY() - originY, Math.max(squareSize, 1));
+				int y = Math.floorDiv(e.getX() - originX, Math.max(squareSize, 1));
+				if(listener != null && Position.onBoard(x, y))
+					listener.squareClicked(x, y);
+			}
+		});
+	}
+
+	// Sets the receiver of square clicks.
+	public void setSquareListener(SquareListener listener) {
+		this.listener = listener;
+	}
+
+	// Sets where piece atlases come from; the function gets a square size in device pixels and is
+	// called on a worker thread.
+	void setAtlasSource(IntFunction<SpriteAtlas> source) {
+		this.atlasSource = source;
+		atlas = null;
+		requestedSize = -1;
+		repaintAll();
+	}
+
+	// Returns the edge length of a square in pixels.
+	public int getSquareSize() {
+		return squareSize;
+	}
+
+	// Redraws one square from the position.
+	public void repaintSquare(int x, int y) {
+		if(bufferValid) {
+			Graphics2D g = buffer.createGraphics();
+			prepare(g);
+			drawSquare(g, x, y);
+			g.dispose();
+		}
+		repaint(squareBounds(x, y));
+	}
+
+	// Redraws the whole board.
+	public void repaintAll() {
+		bufferValid = false;
+		repaint();
+	}
+
+	// Highlights a square or removes its highlight.
+	public void setMarked(int x, int y, boolean mark) {
+		long b = Position.bit(Position.square(x, y));
+		if(((marked & b) != 0) == mark)
+			return;
+		marked ^= b;
+		repaintSquare(x, y);
+	}
+
+	// Returns the on-screen rectangle of a square.
+	Rectangle squareBounds(int x, int y) {
+		return new Rectangle(originX + y * squareSize, originY + x * squareSize, squareSize, squareSize);
+	}
+
+	// Paints the requested part of the component from the buffer, rebuilding the buffer when the size,
+	// the pixel density or the images have changed.
+	@Override
+	protected void paintComponent(Graphics graphics) {
+		long timer = Metrics.start();
+		Graphics2D g = (Graphics2D) graphics;
+		double scale = g.getTransform().getScaleX();
+		int w = getWidth(), h = getHeight();
+		if(!bufferValid || buffer == null || scale != bufferScale
+				|| buffer.getWidth() != (int) Math.ceil(w * scale) || buffer.getHeight() != (int) Math.ceil(h * scale))
+			rebuild(w, h, scale);
+		g.drawImage(buffer, 0, 0, w, h, null);
+		Metrics.PAINT.stop(timer);
+		if(onFirstPaint != null) {
+			onFirstPaint.run();
+			onFirstPaint = null;
+		}
+		if(atlas != null && onPiecesShown != null) {
+			onPiecesShown.run();
+			onPiecesShown = null;
+		}
+	}
+
+	// Lays the board out in the component and draws every square into a fresh buffer.
+	private void rebuild(int w, int h, double scale) {
+		squareSize = Math.max(1, Math.min(w, h) / 8);
+		originX = (w - 8 * squareSize) / 2;
+		originY = (h - 8 * squareSize) / 2;
+		int bw = Math.max(1, (int) Math.ceil(w * scale)), bh = Math.max(1, (int) Math.ceil(h * scale));
+		if(buffer == null || buffer.getWidth() != bw || buffer.getHeight() != bh)
+			buffer = new BufferedImage(bw, bh, BufferedImage.TYPE_INT_RGB);
+		bufferScale = scale;
+		int pieceSize = (int) Math.round(squareSize * scale);
+		if((atlas == null || atlas.getSquareSize() != pieceSize) && requestedSize != pieceSize)
+			requestAtlas(pieceSize);
+
+		Graphics2D g = buffer.createGraphics();
+		prepare(g);
+		g.setColor(getParent() != null ? getParent().getBackground() : getBackground());
+		g.fillRect(0, 0, w, h);
+		for(int x = 0; x < 8; ++x) {
+			for(int y = 0; y < 8; ++y) drawSquare(g, x, y);
+		}
+		g.setColor(Color.BLACK);
+		g.drawRect(originX - 1, originY - 1, 8 * squareSize + 1, 8 * squareSize + 1);
+		g.dispose();
+		bufferValid = true;
+	}
+
+	// Makes a buffer graphics draw in component coordinates.
+	private void prepare(Graphics2D g) {
+		g.scale(bufferScale, bufferScale);
+	}
+
+	// Draws one square and its piece into the buffer.
+	private void drawSquare(Graphics2D g, int x, int y) {
+		Rectangle r = squareBounds(x, y);
+		boolean mark = (marked & Position.bit(Position.square(x, y))) != 0;
+		g.setColor(mark ? MARK : ((x + y) % 2 == 0) ? LIGHT : DARK);
+		g.fillRect(r.x, r.y, r.width, r.height);
+		PlayerColor pc = position.colorAt(x, y);
+		PieceType type = position.typeAt(x, y);
+		if(pc == PlayerColor.none || type == PieceType.none)
+			return;
+		if(atlas != null) {
+			// An atlas of another size only stands in, slightly blurred, until the right one is loaded.
+			g.drawImage(atlas.piece(pc, type), r.x, r.y, r.width, r.height, null);
+			return;
+		}
+		g.setColor(pc == PlayerColor.white ? Color.WHITE : Color.BLACK);
+		g.fillOval(r.x + r.width / 8, r.y + r.height / 8, r.width * 3 / 4, r.height * 3 / 4);
+		g.setColor(pc == PlayerColor.white ? Color.BLACK : Color.WHITE);
+		g.drawOval(r.x + r.width / 8, r.y + r.height / 8, r.width * 3 / 4, r.height * 3 / 4);
+		g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(r.height / 3, 1)));
+		String letter = String.valueOf(LETTERS.charAt(type.ordinal()));
+		int tw = g.getFontMetrics().stringWidth(letter);
+		g.drawString(letter, r.x + (r.width - tw) / 2, r.y + r.height / 2 + g.getFontMetrics().getAscent() / 3);
+	}
+
+	// Loads the atlas for a piece size on a worker thread and redraws the board when it arrives.
+	private void requestAtlas(int size) {
+		if(atlasSource == null)
+			return;
+		requestedSize = size;
+		final IntFunction<SpriteAtlas> source = atlasSource;
+		new SwingWorker<SpriteAtlas, Void>() {
+			@Override
+			protected SpriteAtlas doInBackground() {
+				return source.apply(size);
+			}
+
+			@Override
+			protected void done() {
+				if(size != requestedSize || source != atlasSource)
+					return;
+				requestedSize = -1;
+				try {
+					atlas = get();
+				} catch(Exception e) {
+					return;
+				}
+				repaintAll();
+			}
+		}.execute();
+	}
+
+	// Returns a smooth copy of an image at size x size pixels. Large reductions are done in halving
+	// steps, which looks as good as SCALE_SMOOTH at a fraction of its cost.
+	static BufferedImage scale(Image source, int size) {
+		size = Math.max(size, 1);
+		Image current = source;
+		int w = Math.max(source.getWidth(null), 1);
+		do {
+			w = Math.max(w / 2, size);
+			BufferedImage step = new BufferedImage(w, w, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = step.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(current, 0, 0, w, w, null);
+			g.dispose();
+			current = step;
+		} while(w > size);
+		return (BufferedImage) current;
+	}
+}
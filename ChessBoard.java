@@ -2,83 +2,50 @@ package chess;
 	
 	import java.awt.*;
 	import java.awt.event.*;
-	import java.awt.image.BufferedImage;
+	import java.lang.management.ManagementFactory;
+	import java.util.concurrent.ExecutorService;
+	import java.util.concurrent.Executors;
 	import javax.swing.*;
 	import javax.swing.border.*;
-	import java.util.ArrayList;
-
-	// Enumeration for different types of chess pieces.
-	enum PieceType {king, queen, bishop, knight, rook, pawn, none}
-
-	// Enumeration for player colors.
-	enum PlayerColor {black, white, none}
 
 	// ChessBoard class represents the main structure of the chess game.
 	public class ChessBoard {
 		private final JPanel gui = new JPanel(new BorderLayout(3, 3));
-		private JPanel chessBoard;
-		private JButton[][] chessBoardSquares = new JButton[8][8];
-		private Piece[][] chessBoardStatus = new Piece[8][8];
-		private ImageIcon[] pieceImage_b = new ImageIcon[7];
-		private ImageIcon[] pieceImage_w = new ImageIcon[7];
+		private final Position position = new Position();
+		private final BoardView chessBoard = new BoardView(position);
 		private JLabel message = new JLabel("Click to Start");
+		// Moves played, for taking back and replaying them; the slider shows where in the game the board is.
+		private final GameHistory history = new GameHistory(position);
+		private final JSlider replay = new JSlider(0, 0, 0);
+		private boolean syncingReplay;
+		private final JCheckBox computerBlack = new JCheckBox("Computer plays black");
+		private final ParallelSearch engine = new ParallelSearch(Runtime.getRuntime().availableProcessors());
+		// Opening moves the computer plays without searching, if a book is installed.
+		private final OpeningBook book = OpeningBook.openDefault();
+		// Works out the legal moves and status of each new position, so clicks only look them up.
+		private final ExecutorService rules = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "rules");
+			t.setDaemon(true);
+			return t;
+		});
+		// Snapshot of the current position, or null while it is being computed.
+		private MoveSnapshot legal;
+		// Counts position changes, so a snapshot of a position the board has left is dropped.
+		private int positionVersion;
+		// Time the computer spends on each move, in milliseconds.
+		static final long ENGINE_MILLIS = 1000;
+		// Directory of the piece PNGs.
+		static final String IMAGE_DIR = "./img/";
 
 		// Constructor of the ChessBoard class.
 		ChessBoard() {
 			initPieceImages(); // Initializes images for each chess piece.
-			initBoardStatus(); // Initializes the status of each square on the board.
 			initializeGui(); // Sets up the GUI layout and components.
 		}
 		
-		// Initializes the board status by placing empty pieces on each square.
-		public final void initBoardStatus() {
-			for(int i=0;i<8;i++) {
-				for(int j=0;j<8;j++) chessBoardStatus[j][i] = new Piece();
-			}
-		}
-		
-		// Initializes and scales the images for each type of chess piece.
+		// Hands the board its piece images; they are loaded off the event thread while placeholders show.
 		public final void initPieceImages() {
-			// Black piece images
-			pieceImage_b[0] = new ImageIcon(new ImageIcon("./img/king_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[1] = new ImageIcon(new ImageIcon("./img/queen_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[2] = new ImageIcon(new ImageIcon("./img/bishop_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[3] = new ImageIcon(new ImageIcon("./img/knight_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[4] = new ImageIcon(new ImageIcon("./img/rook_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[5] = new ImageIcon(new ImageIcon("./img/pawn_b.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_b[6] = new ImageIcon(new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB));
-			
-			// White piece images
-			pieceImage_w[0] = new ImageIcon(new ImageIcon("./img/king_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[1] = new ImageIcon(new ImageIcon("./img/queen_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[2] = new ImageIcon(new ImageIcon("./img/bishop_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[3] = new ImageIcon(new ImageIcon("./img/knight_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[4] = new ImageIcon(new ImageIcon("./img/rook_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[5] = new ImageIcon(new ImageIcon("./img/pawn_w.png").getImage().getScaledInstance(64, 64, Image.SCALE_SMOOTH));
-			pieceImage_w[6] = new ImageIcon(new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB));
-		}
-		
-		// Retrieves the image icon for a given chess piece.
-		public ImageIcon getImageIcon(Piece piece) {
-			if(piece.color.equals(PlayerColor.black)) {
-				if(piece.type.equals(PieceType.king)) return pieceImage_b[0];
-				else if(piece.type.equals(PieceType.queen)) return pieceImage_b[1];
-				else if(piece.type.equals(PieceType.bishop)) return pieceImage_b[2];
-				else if(piece.type.equals(PieceType.knight)) return pieceImage_b[3];
-				else if(piece.type.equals(PieceType.rook)) return pieceImage_b[4];
-				else if(piece.type.equals(PieceType.pawn)) return pieceImage_b[5];
-				else return pieceImage_b[6];
-			}
-			else if(piece.color.equals(PlayerColor.white)) {
-				if(piece.type.equals(PieceType.king)) return pieceImage_w[0];
-				else if(piece.type.equals(PieceType.queen)) return pieceImage_w[1];
-				else if(piece.type.equals(PieceType.bishop)) return pieceImage_w[2];
-				else if(piece.type.equals(PieceType.knight)) return pieceImage_w[3];
-				else if(piece.type.equals(PieceType.rook)) return pieceImage_w[4];
-				else if(piece.type.equals(PieceType.pawn)) return pieceImage_w[5];
-				else return pieceImage_w[6];
-			}
-			else return pieceImage_w[6];
+			chessBoard.setAtlasSource(size -> SpriteAtlas.load(IMAGE_DIR, size));
 		}
 
 		// Sets up the main GUI for the chess game.
@@ -94,34 +61,28 @@ package chess;
 				}
 			});
 		    
+		    JButton fenButton = new JButton("FEN");
+			fenButton.addActionListener(e -> editFen());
+		    JButton undoButton = new JButton("Undo");
+			undoButton.addActionListener(e -> takeBack());
+		    JButton redoButton = new JButton("Redo");
+			redoButton.addActionListener(e -> replayMove());
+
 		    tools.add(startButton);
+		    tools.add(fenButton);
+		    tools.add(undoButton);
+		    tools.add(redoButton);
+		    tools.add(computerBlack);
 		    tools.addSeparator();
 		    tools.add(message);
 
-		    chessBoard = new JPanel(new GridLayout(0, 8));
-		    chessBoard.setBorder(new LineBorder(Color.BLACK));
+		    chessBoard.setSquareListener(new BoardListener());
 		    gui.add(chessBoard);
-		    ImageIcon defaultIcon = new ImageIcon(new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB));
-		    Insets buttonMargin = new Insets(0,0,0,0);
-		    for(int i=0; i<chessBoardSquares.length; i++) {
-		        for (int j = 0; j < chessBoardSquares[i].length; j++) {
-		        	JButton b = new JButton();
-		        	b.addActionListener(new ButtonListener(i, j));
-		            b.setMargin(buttonMargin);
-		            b.setIcon(defaultIcon);
-		            if((j % 2 == 1 && i % 2 == 1)|| (j % 2 == 0 && i % 2 == 0)) b.setBackground(Color.WHITE);
-		            else b.setBackground(Color.gray);
-		            b.setOpaque(true);
-		            b.setBorderPainted(false);
-		            chessBoardSquares[j][i] = b;
-		        }
-		    }
-
-		    for (int i=0; i < 8; i++) {
-		        for (int j=0; j < 8; j++) {
-					chessBoard.add(chessBoardSquares[j][i]);
-				}
-		    }
+		    replay.addChangeListener(e -> {
+		    	if(!syncingReplay && replay.getValue() != history.getCursor())
+		    		showMove(replay.getValue());
+		    });
+		    gui.add(replay, BorderLayout.PAGE_END);
 		}
 
 		// Returns the main GUI component.
@@ -129,63 +90,59 @@ package chess;
 		    return gui;
 		}
 		
-		// Main method to run the chess game application.
-		public static void main(String[] args) {
+		// Main method to run the chess game application; with --uci it runs the engine headless instead.
+		public static void main(String[] args) throws java.io.IOException {
+		    if(args.length > 0 && args[0].equals("--uci")) {
+		        Uci.main(args);
+		        return;
+		    }
+		    Metrics.install();
 		    Runnable r = new Runnable() {
 		        @Override
 		        public void run() {
 		        	ChessBoard cb = new ChessBoard();
+		        	cb.reportStartup();
 	                JFrame f = new JFrame("Chess");
 	                f.add(cb.getGui());
 	                f.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 	                f.setLocationByPlatform(true);
-	                f.setResizable(false);
 	                f.pack();
-	                f.setMinimumSize(f.getSize());
+	                f.setMinimumSize(new Dimension(f.getWidth() / 2, f.getHeight() / 2));
 	                f.setVisible(true);
 	            }
 	        };
 	        SwingUtilities.invokeLater(r);
 		}
 			
-		// Inner class representing a chess piece.
-		class Piece {
-			PlayerColor color;
-			PieceType type;
-			
-			// Default constructor sets piece to no color and type.
-			Piece() {
-				color = PlayerColor.none;
-				type = PieceType.none;
-			}
+		// Prints how long after JVM start the first frame and the piece images appeared.
+		void reportStartup() {
+			chessBoard.onFirstPaint = () -> System.out.println("First frame after " + uptimeMillis() + " ms");
+			chessBoard.onPiecesShown = () -> System.out.println("Pieces shown after " + uptimeMillis() + " ms");
+		}
 
-			// Constructor to set a specific color and type to the piece.
-			Piece(PlayerColor color, PieceType type) {
-				this.color = color;
-				this.type = type;
-			}
+		// Returns the milliseconds since the JVM started.
+		static long uptimeMillis() {
+			return ManagementFactory.getRuntimeMXBean().getUptime();
 		}
-		
-		// Sets the icon for a specific square on the chess board.
-		public void setIcon(int x, int y, Piece piece) {
-			chessBoardSquares[y][x].setIcon(getImageIcon(piece));
-			chessBoardStatus[y][x] = piece;
+
+		// Returns the rules model behind the board.
+		public Position getPosition() {
+			return position;
 		}
-		
-		// Gets the icon (piece) of a specific square on the chess board.
-		public Piece getIcon(int x, int y) {
-			return chessBoardStatus[y][x];
+
+		// Redraws a specific square from the current position.
+		public void refresh(int x, int y) {
+			chessBoard.repaintSquare(x, y);
 		}
 		
 		// Highlights a specific square on the chess board.
 		public void markPosition(int x, int y) {
-			chessBoardSquares[y][x].setBackground(Color.yellow);
+			chessBoard.setMarked(x, y, true);
 		}
 		
 		// Removes the highlight from a specific square on the chess board.
 		public void unmarkPosition(int x, int y) {
-			if((y % 2 == 1 && x % 2 == 1)|| (y % 2 == 0 && x % 2 == 0)) chessBoardSquares[y][x].setBackground(Color.WHITE);
-			else chessBoardSquares[y][x].setBackground(Color.gray);
+			chessBoard.setMarked(x, y, false);
 		}
 		
 		// Sets the status message on the GUI.
@@ -195,501 +152,332 @@ package chess;
 		
 		// Initializes the chess board with default piece positions.
 		public void initiateBoard() {
-			for(int i=0;i<8;i++) {
-				for(int j=0;j<8;j++) setIcon(i, j, new Piece());
+			loadPosition(Position.START_FEN);
+		}
+
+		// Starts a new game from a FEN string; an invalid one throws and leaves the board as it was.
+		public void loadPosition(String fen) {
+			Position.fromFen(fen);
+			position.setFen(fen);
+			history.clear();
+			refreshBoard();
+			syncReplay();
+			onInitiateBoard();
+			record.clear();
+			if(!fen.equals(Position.START_FEN)) {
+				record.setTag("SetUp", "1");
+				record.setTag("FEN", fen);
 			}
-			setIcon(0, 0, new Piece(PlayerColor.black, PieceType.rook));
-			setIcon(0, 1, new Piece(PlayerColor.black, PieceType.knight));
-			setIcon(0, 2, new Piece(PlayerColor.black, PieceType.bishop));
-			setIcon(0, 3, new Piece(PlayerColor.black, PieceType.queen));
-			setIcon(0, 4, new Piece(PlayerColor.black, PieceType.king));
-			setIcon(0, 5, new Piece(PlayerColor.black, PieceType.bishop));
-			setIcon(0, 6, new Piece(PlayerColor.black, PieceType.knight));
-			setIcon(0, 7, new Piece(PlayerColor.black, PieceType.rook));
+			analyzePosition(false);
+		}
+
+		// Redraws every square from the current position and clears the highlights.
+		void refreshBoard() {
 			for(int i=0;i<8;i++) {
-				setIcon(1, i, new Piece(PlayerColor.black, PieceType.pawn));
-				setIcon(6, i, new Piece(PlayerColor.white, PieceType.pawn));
+				for(int j=0;j<8;j++) {
+					refresh(i, j);
+					unmarkPosition(i, j);
+				}
 			}
-			setIcon(7, 0, new Piece(PlayerColor.white, PieceType.rook));
-			setIcon(7, 1, new Piece(PlayerColor.white, PieceType.knight));
-			setIcon(7, 2, new Piece(PlayerColor.white, PieceType.bishop));
-			setIcon(7, 3, new Piece(PlayerColor.white, PieceType.queen));
-			setIcon(7, 4, new Piece(PlayerColor.white, PieceType.king));
-			setIcon(7, 5, new Piece(PlayerColor.white, PieceType.bishop));
-			setIcon(7, 6, new Piece(PlayerColor.white, PieceType.knight));
-			setIcon(7, 7, new Piece(PlayerColor.white, PieceType.rook));
-			for(int i=0;i<8;i++) {
-				for(int j=0;j<8;j++) unmarkPosition(i, j);
+		}
+
+		// Shows the board's FEN, ready to copy, and sets up the board from an edited one.
+		void editFen() {
+			String current = position.toFen();
+			Object input = JOptionPane.showInputDialog(gui, "Position (FEN):", "FEN", JOptionPane.PLAIN_MESSAGE, null, null, current);
+			if(input == null || input.toString().trim().equals(current))
+				return;
+			try {
+				loadPosition(input.toString().trim());
+			} catch(RuntimeException e) {
+				JOptionPane.showMessageDialog(gui, "Not a valid FEN: " + e.getMessage(), "FEN", JOptionPane.ERROR_MESSAGE);
 			}
-			onInitiateBoard();
 		}
 
-		private boolean firstClk, end;
-		PlayerColor turn;
-		Piece firstPc;
-		Point firstPt;
-		ArrayList<Point> Moveable;
+		// Redraws every square a move has changed, including the rook of a castle and a pawn taken en passant.
+		void refreshMove(int m) {
+			refresh(Move.fromX(m), Move.fromY(m));
+			refresh(Move.toX(m), Move.toY(m));
+			if(Move.isCastle(m)) {
+				for(int j : new int[] {0, 3, 5, 7}) refresh(Move.toX(m), j);
+			}
+			if(Move.isEnPassant(m)) refresh(Move.fromX(m), Move.toY(m));
+		}
 
-		// Inner class to handle button (square) actions.
-		class ButtonListener implements ActionListener {
-			Point curr;
+		// Asks the player which piece a pawn reaching the last row becomes.
+		PieceType choosePromotion() {
+			PieceType[] options = {PieceType.queen, PieceType.rook, PieceType.bishop, PieceType.knight};
+			int choice = JOptionPane.showOptionDialog(gui, "Promote pawn to:", "Promotion", JOptionPane.DEFAULT_OPTION,
+					JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+			return (choice < 0) ? PieceType.queen : options[choice];
+		}
 
-			ButtonListener(int x, int y) { curr = new Point(x, y); }
+		private boolean firstClk, end, thinking;
+		// Counts games started, so a computer move that arrives after a restart is dropped.
+		private int game;
+		Point firstPt;
+		final MoveList Moveable = new MoveList();
+		// Tags of the game being played, archived with its moves when it ends.
+		private final PgnGame record = new PgnGame();
+
+		// Inner class to handle clicks on the board's squares.
+		class BoardListener implements BoardView.SquareListener {
+			// Handles a click on the square at row x, column y, timing it for Metrics.
+			public void squareClicked(int x, int y) {
+				long timer = Metrics.start();
+				try {
+					select(x, y);
+				} finally {
+					Metrics.CLICK.stop(timer);
+				}
+			}
 
-			// Handles the action performed when a button (square) is clicked.
-			public void actionPerformed(ActionEvent e) {
-				if(end) return;
+			// Selects a piece to move, or moves the selected piece to the square at row x, column y.
+			void select(int x, int y) {
+				Point curr = new Point(x, y);
+				if(end || thinking) return;
 
-				Piece Pc = getIcon(curr.x, curr.y);
+				PlayerColor turn = position.getTurn();
 				boolean chgPc = false;
 
 				if(!firstClk)
-					chgPc = isAlly(curr.x, curr.y, firstPc.color);
+					chgPc = position.colorAt(curr.x, curr.y) == turn;
 
 				if(firstClk || chgPc) {
-					if(Pc.color != turn) return;
+					if(position.colorAt(curr.x, curr.y) != turn) return;
 
 					if(chgPc) {
-						for(Point p : Moveable)
-							unmarkPosition(p.x, p.y);
-						Moveable = new ArrayList<>();
+						for(int i = 0; i < Moveable.size(); i++)
+							unmarkPosition(Move.toX(Moveable.get(i)), Move.toY(Moveable.get(i)));
 					}
 
-					switch (Pc.type) {
-						case pawn:
-							markPawn(curr.x, curr.y, Pc.color);
-							break;
-						case rook:
-							markRook(curr.x, curr.y, Pc.color);
-							break;
-						case knight:
-							markKnight(curr.x, curr.y, Pc.color);
-							break;
-						case bishop:
-							markBishop(curr.x, curr.y, Pc.color);
-							break;
-						case queen:
-							markQueen(curr.x, curr.y, Pc.color);
-							break;
-						case king:
-							markKing(curr.x, curr.y, Pc.color);
-							break;
-						case none:
-							break;
-					}
-
-					for(Point p : Moveable)
-						markPosition(p.x, p.y);
+					movesFrom(curr.x, curr.y);
+					for(int i = 0; i < Moveable.size(); i++)
+						markPosition(Move.toX(Moveable.get(i)), Move.toY(Moveable.get(i)));
 
-					firstPc = Pc;
 					firstPt = curr;
 					firstClk = false;
 				}
 				else {
-					Point secondPt = curr;
-					boolean isValid = false;
-
-					for(Point p : Moveable) {
-						if(p.equals(secondPt)) {
-							isValid = true;
-							setIcon(curr.x, curr.y, firstPc);
-							setIcon(firstPt.x, firstPt.y, new Piece());
-							for(Point p0 : Moveable)
-								unmarkPosition(p0.x, p0.y);
-
-							firstClk = true;
-							Moveable = new ArrayList<>();
-							turn = (turn == PlayerColor.black) ? PlayerColor.white : PlayerColor.black;
-
-							if (findKing(turn) == null) {
-							    end = true;
-							    String winner = (turn == PlayerColor.black) ? "WHITE" : "BLACK";  // Adjust if more players are involved
-							    setStatus(winner + " WON / GAME OVER");
-							    break;
-							}
-
-
-							String s1 = "";
-							String s2 = "";
-
-							if(isCheck(turn, findKing(turn))) {
-								s1 = "/ CHECK";
-								if(isCheckMate(turn)) {
-									s2 = "MATE / GAME OVER";
-									end = true;
-								}
-							}
-
-							setStatus(turn+"'s turn " + s1 + s2);
-							break;
-						}
+					int chosen = Move.NONE;
+					PieceType promotion = null;
+
+					for(int i = 0; i < Moveable.size(); i++) {
+						int m = Moveable.get(i);
+						unmarkPosition(Move.toX(m), Move.toY(m));
+						if(Move.toX(m) != curr.x || Move.toY(m) != curr.y)
+							continue;
+						if(Move.isPromotion(m) && promotion == null)
+							promotion = choosePromotion();
+						if(!Move.isPromotion(m) || Move.promotion(m) == promotion)
+							chosen = m;
 					}
+					firstClk = true;
+					Moveable.clear();
 
-					if(!isValid) {
-						for(Point p : Moveable)
-							unmarkPosition(p.x, p.y);
-						firstClk = true;
-						Moveable = new ArrayList<>();
-					}
+					if(chosen == Move.NONE)
+						return;
+
+					playMove(chosen);
 				}
 			}
 		}
-		
-		// Method to be called upon initiating the board.
-		void onInitiateBoard() {
-			turn = PlayerColor.white;
-			firstClk = true;
-			Moveable = new ArrayList<>();
-			setStatus(turn + "'s turn");
-			end = false;
+
+		// Fills Moveable with the legal moves from a square, from the snapshot unless it is still being computed.
+		void movesFrom(int x, int y) {
+			Moveable.clear();
+			if(legal != null)
+				legal.movesFrom(x * 8 + y, Moveable);
+			else
+				position.legalMovesFrom(x, y, Moveable);
 		}
+		
+		// Plays a move on the board, updates the status line and lets the computer answer if it is its turn.
+		void playMove(int m) {
+			history.play(m);
+			refreshMove(m);
+			syncReplay();
+			PlayerColor turn = position.getTurn();
 
-		// Marks the possible moves for a pawn.
-		void markPawn(int x, int y, PlayerColor pc) {
-			int move = (pc == PlayerColor.black) ? 1 : -1;
-			if((x==7 && pc == PlayerColor.black) || (x == 0 && pc == PlayerColor.white))
-				return;
-			Piece advance = getIcon(x+move, y);
-			if(advance.type == PieceType.none) {
-				Moveable.add(new Point(x+move, y));
-			}
-			if((pc == PlayerColor.black && x == 1) || (pc == PlayerColor.white && x == 6)) {
-				Piece advanceTwo = getIcon(x+2*move, y);
-				if(advance.type == PieceType.none && advanceTwo.type == PieceType.none)
-					Moveable.add(new Point(x+2*move, y));
+			if (position.findKing(turn) < 0) {
+			    end = true;
+			    String winner = (turn == PlayerColor.black) ? "WHITE" : "BLACK";  // Adjust if more players are involved
+			    setStatus(winner + " WON / GAME OVER");
+			    return;
 			}
 
-			switch (y) {
-				case 0:
-					if(isEnemy(x+move, y+1, pc)) {
-						Moveable.add(new Point(x+move, y+1));
-					}
-					break;
-				case 7:
-					if(isEnemy(x+move, y-1, pc)) {
-						Moveable.add(new Point(x+move, y-1));
-					}
-					break;
-				default:
-					if(isEnemy(x+move, y+1, pc)) {
-						Moveable.add(new Point(x+move, y+1));
-					}
-					if(isEnemy(x+move, y-1, pc)) {
-						Moveable.add(new Point(x+move, y-1));
-					}
-					break;
-			}
-
-			if(Moveable.isEmpty())
-				return;
+			analyzePosition(true);
 		}
 
-		// Marks the possible moves for a rook.
-		void markRook(int x, int y, PlayerColor pc) {
-			for(int i=y+1; i<8; ++i) {
-				if(getIcon(x, i).type == PieceType.none)
-					Moveable.add(new Point(x, i));
-				if(isAlly(x, i, pc))
-					break;
-				if(isEnemy(x, i, pc)) {
-					Moveable.add(new Point(x, i));
-					break;
-				}
-			}
-			for(int i=y-1; i>=0; --i) {
-				if(getIcon(x,i).type == PieceType.none)
-					Moveable.add(new Point(x, i));
-				if(isAlly(x, i, pc))
-					break;
-				if(isEnemy(x, i, pc)) {
-					Moveable.add(new Point(x, i));
-					break;
-				}
-			}
-			for(int i=x-1; i>=0; --i) {
-				if(getIcon(i, y).type == PieceType.none)
-					Moveable.add(new Point(i, y));
-				if(isAlly(i, y, pc))
-					break;
-				if(isEnemy(i, y, pc)) {
-					Moveable.add(new Point(i, y));
-					break;
-				}
-			}
-			for(int i=x+1; i<8; ++i) {
-				if(getIcon(i, y).type == PieceType.none)
-					Moveable.add(new Point(i, y));
-				if(isAlly(i, y, pc))
-					break;
-				if(isEnemy(i, y, pc)) {
-					Moveable.add(new Point(i, y));
-					break;
-				}
-			}
-			if(Moveable.isEmpty()) return;
+		// Computes the snapshot of the current position on the rules thread and applies it on the event
+		// thread, unless the board has moved on by then. Until it arrives clicks fall back to generating
+		// the moves of the square clicked, and if the computer is to move the board waits for it.
+		void analyzePosition(boolean played) {
+			final int version = ++positionVersion;
+			final Position copy = new Position(position);
+			legal = null;
+			thinking = computerToMove();
+			rules.execute(() -> {
+				MoveSnapshot s = MoveSnapshot.of(copy);
+				SwingUtilities.invokeLater(() -> {
+					if(version == positionVersion)
+						applySnapshot(s, played);
+				});
+			});
 		}
 
-		// Marks the possible moves for a knight.
-		void markKnight(int x, int y, PlayerColor pc) {
-			for(int i=x-2; i<=x+2; i+=4) {
-				for(int j=y-1; j<=y+1; j+=2) {
-					if((i>=0) && (i<8) && (j>=0) && (j<8)) {
-						if(!isAlly(i, j, pc)) Moveable.add(new Point(i, j));
-					}
-				}
-			}
-
-			for(int i=x-1; i<=x+1; i+=2) {
-				for(int j=y-2; j<=y+2; j+=4) {
-					if((i>=0) && (i<8) && (j>=0) && (j<8)) {
-						if(!isAlly(i, j, pc)) Moveable.add(new Point(i, j));
-					}
-				}
-			}
+		// Shows a snapshot's status; archives the game if a move just ended it, or lets the computer move.
+		void applySnapshot(MoveSnapshot s, boolean played) {
+			legal = s;
+			String result = updateStatus(s);
+			if(result != null) {
+				thinking = false;
+				if(played)
+					saveGame(result);
+			}
+			else if(computerToMove())
+				startComputerMove();
 		}
 
-		// Marks the possible moves for a bishop.
-		void markBishop(int x, int y, PlayerColor pc) {
-			for(int i=x-1, j=y+1; i>=0 && j<8; --i, ++j) {
-				if(getIcon(i, j).type == PieceType.none)
-					Moveable.add(new Point(i, j));
-				if(isAlly(i, j, pc))
-					break;
-				if(isEnemy(i, j, pc)) {
-					Moveable.add(new Point(i, j));
-					break;
-				}
-			}
-			for(int i=x+1, j=y+1; i<8 && j<8; ++i, ++j) {
-				if(getIcon(i, j).type == PieceType.none)
-					Moveable.add(new Point(i, j));
-				if(isAlly(i, j, pc))
-					break;
-				if(isEnemy(i, j, pc)) {
-					Moveable.add(new Point(i, j));
-					break;
-				}
-			}
-			for(int i=x-1, j=y-1; i>=0 && j>=0; --i, --j) {
-				if(getIcon(i, j).type == PieceType.none)
-					Moveable.add(new Point(i, j));
-				if(isAlly(i, j, pc))
-					break;
-				if(isEnemy(i, j, pc)) {
-					Moveable.add(new Point(i, j));
-					break;
-				}
-			}
-			for(int i=x+1, j=y-1; i<8 && j>=0; ++i, --j) {
-				if(getIcon(i, j).type == PieceType.none)
-					Moveable.add(new Point(i, j));
-				if(isAlly(i, j, pc))
-					break;
-				if(isEnemy(i, j,pc)) {
-					Moveable.add(new Point(i, j));
-					break;
-				}
-			}
-			if(Moveable.isEmpty())
-				return;
+		// Returns whether it is the computer's move at the end of the game's history.
+		boolean computerToMove() {
+			return history.getCursor() == history.size() && position.getTurn() == PlayerColor.black && computerBlack.isSelected();
 		}
 
-		// Marks the possible moves for a queen.
-		void markQueen(int x, int y, PlayerColor pc) {
-			markRook(x, y, pc);
-			markBishop(x, y, pc);
+		// Updates the status line from a snapshot of the current position and whether the game is over;
+		// returns the result of a finished game, or null.
+		String updateStatus(MoveSnapshot s) {
+			String s1 = s.check ? "/ CHECK" : "";
+			String s2 = "";
+			if(s.mate)
+				s2 = "MATE / GAME OVER";
+			else if(s.stalemate)
+				s2 = "/ STALEMATE / GAME OVER";
+			else if(s.repetition)
+				s2 = "/ DRAW BY REPETITION / GAME OVER";
+			else if(s.fiftyMoves)
+				s2 = "/ FIFTY-MOVE RULE / GAME OVER";
+			end = s.isOver();
+			setStatus(s.turn+"'s turn " + s1 + s2 + (s.verdict != null ? " / " + s.verdict : ""));
+			return s.result();
 		}
 
-		// Marks the possible moves for a king.
-		void markKing(int x, int y, PlayerColor pc) {
-			for(int i=x-1; i<=x+1; ++i) {
-				for(int j=y-1; j<=y+1; ++j) {
-					if((i>=0) && (i<8) && (j>=0) && (j<8)) {
-						if(!isAlly(i, j, pc))
-							Moveable.add(new Point(i, j));
-					}
-				}
+		// Shows the position after a number of moves of the game, cancelling a computer move in progress.
+		// The computer only moves again when the board is back at the end of the game.
+		void showMove(int n) {
+			if(thinking) {
+				++game;
+				engine.stop();
+				thinking = false;
 			}
+			firstClk = true;
+			Moveable.clear();
+			history.seek(n);
+			refreshBoard();
+			syncReplay();
+			analyzePosition(false);
 		}
 
-		// Determines if a given square is occupied by an ally piece.
-		boolean isAlly(int x, int y, PlayerColor pc) {
-			return getIcon(x, y).color == pc;
+		// Takes back a move; against the computer, back to the player's turn.
+		void takeBack() {
+			showMove(history.getCursor() - 1);
+			if(computerBlack.isSelected() && position.getTurn() == PlayerColor.black && history.getCursor() > 0)
+				showMove(history.getCursor() - 1);
 		}
 
-		// Determines if a given square is occupied by an enemy piece.
-		boolean isEnemy(int x, int y, PlayerColor pc) {
-			return getIcon(x, y).color != pc && getIcon(x, y).color != PlayerColor.none;
+		// Plays a taken-back move again; against the computer, its answer too.
+		void replayMove() {
+			showMove(history.getCursor() + 1);
+			if(computerBlack.isSelected() && position.getTurn() == PlayerColor.black && history.getCursor() < history.size())
+				showMove(history.getCursor() + 1);
 		}
 
-		// Finds the position of the king of a given color.
-		Point findKing(PlayerColor pc) {
-			for(int i=0; i<8; ++i) {
-				for(int j=0; j<8; ++j) {
-					if(isAlly(i, j, pc) && getIcon(i, j).type == PieceType.king)
-						return new Point(i, j);
-				}
-			}
-			return null;
+		// Moves the replay slider to the board's place in the game without acting on the change.
+		void syncReplay() {
+			syncingReplay = true;
+			replay.setMaximum(history.size());
+			replay.setValue(history.getCursor());
+			syncingReplay = false;
 		}
 
-		// Checks if the king of a given color is in check.
-		boolean isCheck(PlayerColor pc, Point king) {
-			Point kingPosition = king;
-
-			for(int i = kingPosition.x-2; i <= kingPosition.x+2; i += 4) {
-				for(int j = kingPosition.y-1; j <= kingPosition.y+1; j += 2) {
-					if((i>=0) && (i<8) && (j>=0) && (j<8)) {
-						if(isEnemy(i, j, pc) && getIcon(i, j).type == PieceType.knight)
-							return true;
-					}
+		// Searches for the computer's move on a worker thread and plays it on the event thread.
+		void startComputerMove() {
+			thinking = true;
+			final int searchedGame = game;
+			final Position snapshot = new Position(position);
+			setStatus(position.getTurn() + " is thinking...");
+			new SwingWorker<SearchInfo, Void>() {
+				@Override
+				protected SearchInfo doInBackground() {
+					int bookMove = (book != null) ? book.pickMove(snapshot) : Move.NONE;
+					if(bookMove != Move.NONE)
+						return new SearchInfo(0, 0, 0, 0, new int[] {bookMove}, 1, 0);
+					return engine.search(snapshot, Search.MAX_PLY, ENGINE_MILLIS);
 				}
-			}
 
-			for(int i = kingPosition.x-1; i <= kingPosition.x+1; i += 2) {
-				for(int j = kingPosition.y-2; j <= kingPosition.y+2; j += 4) {
-					if((i>=0) && (i<8) && (j>=0) && (j<8)) {
-						if(isEnemy(i, j, pc) && getIcon(i, j).type == PieceType.knight)
-							return true;
+				@Override
+				protected void done() {
+					if(searchedGame != game) return;
+					thinking = false;
+					try {
+						SearchInfo info = get();
+						if(info != null && info.bestMove() != Move.NONE)
+							playMove(info.bestMove());
+					} catch (Exception e) {
+						setStatus("Computer failed: " + e.getMessage());
 					}
 				}
-			}
-
-			for(int x = kingPosition.x-1; x >= 0; --x) {
-				if(isAlly(x, kingPosition.y, pc))
-					break;
-				if(isEnemy(x,kingPosition.y, pc) && ((getIcon(x, kingPosition.y).type == PieceType.rook) || (getIcon(x, kingPosition.y).type == PieceType.queen))) {
-					return true;
-				}
-			}
-
-			for(int x = kingPosition.x+1; x<8; ++x) {
-				if(isAlly(x, kingPosition.y, pc))
-					break;
-				if(isEnemy(x, kingPosition.y, pc) && ((getIcon(x, kingPosition.y).type == PieceType.rook) || (getIcon(x, kingPosition.y).type == PieceType.queen))) {
-					return true;
-				}
-			}
-			
-			for(int y = kingPosition.y+1; y<8; ++y) {
-				if(isAlly(kingPosition.x, y, pc))
-					break;
-				if(isEnemy(kingPosition.x, y, pc) && ((getIcon(kingPosition.x, y).type == PieceType.rook) || (getIcon(kingPosition.x, y).type == PieceType.queen))) {
-					return true;
-				}
-			}
-
-			for(int y = kingPosition.y-1; y>=0; --y) {
-				if(isAlly(kingPosition.x, y, pc))
-					break;
-				if(isEnemy(kingPosition.x, y, pc) && ((getIcon(kingPosition.x, y).type == PieceType.rook) || (getIcon(kingPosition.x, y).type == PieceType.queen))) {
-					return true;
-				}
-			}
-
-			for(int x = kingPosition.x-1, y = kingPosition.y-1; x>=0 && y>=0; --x, --y) {
-				if(isAlly(x, y, pc))
-					break;
-				if(pc == PlayerColor.white && x == kingPosition.x-1) {
-					if(isEnemy(x, y, pc) && getIcon(x, y).type == PieceType.pawn)
-						return true;
-				}
-				if((isEnemy(x, y, pc)) && ((getIcon(x, y).type == PieceType.bishop) || getIcon(x, y).type == PieceType.queen)) {
-					return true;
-				}
-			}
-
-			for(int x = kingPosition.x+1, y = kingPosition.y-1; x<8 && y>=0; ++x, --y) {
-				if(isAlly(x, y, pc))
-					break;
-
-				if(pc == PlayerColor.black && x == kingPosition.x+1) {
-					if(isEnemy(x, y, pc) && getIcon(x, y).type == PieceType.pawn)
-						return true;
-				}
-
-				if((isEnemy(x, y, pc)) && ((getIcon(x, y).type == PieceType.bishop) || getIcon(x, y).type == PieceType.queen)) {
-					return true;
-				}
-			}
-
-			for(int x = kingPosition.x-1, y = kingPosition.y+1; x >=0 && y<8; --x, ++y) {
-				if(isAlly(x,y,pc))
-					break;
-
-				if(pc == PlayerColor.white && x == kingPosition.x-1) {
-					if(isEnemy(x, y, pc) && getIcon(x,y).type == PieceType.pawn)
-						return true;
-				}
-
-				if((isEnemy(x, y, pc)) && ((getIcon(x, y).type == PieceType.bishop) || getIcon(x, y).type == PieceType.queen)) {
-					return true;
-				}
-			}
-
-			for(int x = kingPosition.x+1, y = kingPosition.y+1; x<8 && y<8; ++x, ++y) {
-				if(isAlly(x, y, pc))
-					break;
-
-				if(pc == PlayerColor.black && x == kingPosition.x+1) {
-					if(isEnemy(x, y, pc) && getIcon(x, y).type == PieceType.pawn)
-						return true;
-				}
+			}.execute();
+		}
 
-				if((isEnemy(x, y, pc)) && ((getIcon(x, y).type == PieceType.bishop) || getIcon(x, y).type == PieceType.queen)) {
-					return true;
+		// Appends the finished game to the archive and, against the computer, records the result in the
+		// player profiles, on a worker thread; the player's record is then shown on the status line.
+		void saveGame(String result) {
+			final PgnGame game = new PgnGame(record);
+			for(int i = 0; i < history.getCursor(); ++i)
+				game.addMove(history.get(i));
+			game.setTag("Event", "Chess game");
+			game.setTag("Date", GameArchive.today());
+			game.setTag("White", "Player");
+			game.setTag("Black", computerBlack.isSelected() ? "Computer" : "Player");
+			game.setResult(result);
+			final boolean rated = computerBlack.isSelected();
+			new SwingWorker<RatingStore.Profile, Void>() {
+				@Override
+				protected RatingStore.Profile doInBackground() throws java.io.IOException {
+					try(GameArchive archive = new GameArchive(GameArchive.defaultFile())) {
+						archive.append(game);
+					}
+					if(!rated)
+						return null;
+					try(RatingStore ratings = new RatingStore(RatingStore.defaultDir())) {
+						ratings.record(game.getTag("White"), game.getTag("Black"), result);
+						ratings.flush();
+						return ratings.get(game.getTag("White"));
+					}
 				}
-			}
 
-			return false;
-		}
-
-		// Checks if the king of a given color is in checkmate.
-		boolean isCheckMate(PlayerColor pc) {
-			Point kingPosition = findKing(pc);
-			boolean isMate = true;
-
-			for(int i=0; i<8; ++i) {
-				for(int j=0; j<8; ++j) {
-					if(isAlly(i,j,pc)) {
-						switch(getIcon(i, j).type) {
-							case pawn:
-								markPawn(i, j, pc);
-								break;
-							case rook:
-								markRook(i, j, pc);
-								break;
-							case knight:
-								markKnight(i, j, pc);
-								break;
-							case bishop:
-								markBishop(i, j, pc);
-								break;
-							case queen:
-								markQueen(i, j, pc);
-								break;
-							case king:
-								markKing(i, j, pc);
-								break;
-						}
-
-						for(Point p : Moveable) {
-							Piece originalPiece = getIcon(p.x, p.y);
-							setIcon(p.x, p.y, getIcon(i, j));
-							setIcon(i, j, new Piece());
-
-							if(!isCheck(pc, findKing(pc))) {
-								isMate = false;
-							}
-
-							setIcon(i, j, getIcon(p.x, p.y));
-							setIcon(p.x, p.y, originalPiece);
-						}
-						Moveable = new ArrayList<>();
+				@Override
+				protected void done() {
+					try {
+						RatingStore.Profile profile = get();
+						if(profile != null && end)
+							setStatus(message.getText() + " / " + profile);
+					} catch(Exception e) {
+						System.err.println("Could not save the game: " + e);
 					}
 				}
-			}
+			}.execute();
+		}
 
-			return isMate;
+		// Method to be called upon initiating the board.
+		void onInitiateBoard() {
+			firstClk = true;
+			Moveable.clear();
+			setStatus(position.getTurn() + "'s turn");
+			end = false;
+			thinking = false;
+			++game;
+			engine.stop();
 		}
 	}
@@ -0,0 +1,131 @@
+package chess;
+
+// Evaluation scores a position in centipawns from the side to move's point of view,
+// using material and piece-square tables. The tables are written from white's side with
+// row 0 (black's back rank) first, which is the same layout as Position's squares; black
+// pieces read them through a vertical flip (sq ^ 56).
+public final class Evaluation {
+	// Piece values indexed by PieceType.ordinal().
+	static final int[] VALUE = {0, 900, 330, 320, 500, 100, 0};
+
+	private static final int[] PAWN_TABLE = {
+		  0,  0,  0,  0,  0,  0,  0,  0,
+		 50, 50, 50, 50, 50, 50, 50, 50,
+		 10, 10, 20, 30, 30, 20, 10, 10,
+		  5,  5, 10, 25, 25, 10,  5,  5,
+		  0,  0,  0, 20, 20,  0,  0,  0,
+		  5, -5,-10,  0,  0,-10, -5,  5,
+		  5, 10, 10,-20,-20, 10, 10,  5,
+		  0,  0,  0,  0,  0,  0,  0,  0};
+	private static final int[] KNIGHT_TABLE = {
+		-50,-40,-30,-30,-30,-30,-40,-50,
+		-40,-20,  0,  0,  0,  0,-20,-40,
+		-30,  0, 10, 15, 15, 10,  0,-30,
+		-30,  5, 15, 20, 20, 15,  5,-30,
+		-30,  0, 15, 20, 20, 15,  0,-30,
+		-30,  5, 10, 15, 15, 10,  5,-30,
+		-40,-20,  0,  5,  5,  0,-20,-40,
+		-50,-40,-30,-30,-30,-30,-40,-50};
+	private static final int[] BISHOP_TABLE = {
+		-20,-10,-10,-10,-10,-10,-10,-20,
+		-10,  0,  0,  0,  0,  0,  0,-10,
+		-10,  0,  5, 10, 10,  5,  0,-10,
+		-10,  5,  5, 10, 10,  5,  5,-10,
+		-10,  0, 10, 10, 10, 10,  0,-10,
+		-10, 10, 10, 10, 10, 10, 10,-10,
+		-10,  5,  0,  0,  0,  0,  5,-10,
+		-20,-10,-10,-10,-10,-10,-10,-20};
+	private static final int[] ROOK_TABLE = {
+		  0,  0,  0,  0,  0,  0,  0,  0,
+		  5, 10, 10, 10, 10, 10, 10,  5,
+		 -5,  0,  0,  0,  0,  0,  0, -5,
+		 -5,  0,  0,  0,  0,  0,  0, -5,
+		 -5,  0,  0,  0,  0,  0,  0, -5,
+		 -5,  0,  0,  0,  0,  0,  0, -5,
+		 -5,  0,  0,  0,  0,  0,  0, -5,
+		  0,  0,  0,  5,  5,  0,  0,  0};
+	private static final int[] QUEEN_TABLE = {
+		-20,-10,-10, -5, -5,-10,-10,-20,
+		-10,  0,  0,  0,  0,  0,  0,-10,
+		-10,  0,  5,  5,  5,  5,  0,-10,
+		 -5,  0,  5,  5,  5,  5,  0, -5,
+		  0,  0,  5,  5,  5,  5,  0, -5,
+		-10,  5,  5,  5,  5,  5,  0,-10,
+		-10,  0,  5,  0,  0,  0,  0,-10,
+		-20,-10,-10, -5, -5,-10,-10,-20};
+	private static final int[] KING_MIDDLE_TABLE = {
+		-30,-40,-40,-50,-50,-40,-40,-30,
+		-30,-40,-40,-50,-50,-40,-40,-30,
+		-30,-40,-40,-50,-50,-40,-40,-30,
+		-30,-40,-40,-50,-50,-40,-40,-30,
+		-20,-30,-30,-40,-40,-30,-30,-20,
+		-10,-20,-20,-20,-20,-20,-20,-10,
+		 20, 20,  0,  0,  0,  0, 20, 20,
+		 20, 30, 10,  0,  0, 10, 30, 20};
+	private static final int[] KING_END_TABLE = {
+		-50,-40,-30,-20,-20,-30,-40,-50,
+		-30,-20,-10,  0,  0,-10,-20,-30,
+		-30,-10, 20, 30, 30, 20,-10,-30,
+		-30,-10, 30, 40, 40, 30,-10,-30,
+		-30,-10, 30, 40, 40, 30,-10,-30,
+		-30,-10, 20, 30, 30, 20,-10,-30,
+		-30,-30,  0,  0,  0,  0,-30,-30,
+		-50,-30,-30,-30,-30,-30,-30,-50};
+
+	// Piece-square tables indexed by PieceType.ordinal(); the king is handled separately.
+	private static final int[][] TABLES = {null, QUEEN_TABLE, BISHOP_TABLE, KNIGHT_TABLE, ROOK_TABLE, PAWN_TABLE};
+	// Game phase weight of each piece, indexed by PieceType.ordinal(); 24 means all pieces on the board.
+	private static final int[] PHASE = {0, 4, 1, 1, 2, 0, 0};
+	private static final int FULL_PHASE = 24;
+	private static final PieceType[] TYPES = PieceType.values();
+
+	private Evaluation() {}
+
+	// Scores a position for the side to move.
+	public static int evaluate(Position p) {
+		int score = 0;
+		int phase = 0;
+		for(int t = 1; t <= 5; ++t) {
+			PieceType type = TYPES[t];
+			score += sum(p.pieces(PlayerColor.white, type), TABLES[t], VALUE[t], 0);
+			score -= sum(p.pieces(PlayerColor.black, type), TABLES[t], VALUE[t], 56);
+			phase += PHASE[t] * Long.bitCount(p.pieces(PlayerColor.white, type) | p.pieces(PlayerColor.black, type));
+		}
+		phase = Math.min(phase, FULL_PHASE);
+		score += kingScore(p.kingSquare(PlayerColor.white), 0, phase);
+		score -= kingScore(p.kingSquare(PlayerColor.black), 56, phase);
+		return (p.getTurn() == PlayerColor.white) ? score : -score;
+	}
+
+	// Adds up the material and table values of a set of pieces.
+	private static int sum(long pieces, int[] table, int value, int flip) {
+		int total = 0;
+		for(; pieces != 0; pieces &= pieces - 1)
+			total += value + table[Long.numberOfTrailingZeros(pieces) ^ flip];
+		return total;
+	}
+
+	// Returns the piece-square value of a queen, bishop, knight, rook or pawn (by PieceType ordinal) on a
+	// square, from white's side.
+	static int table(int type, int sq) {
+		return TABLES[type][sq];
+	}
+
+	// Returns the middlegame king table value of a square, from white's side.
+	static int kingMiddle(int sq) {
+		return KING_MIDDLE_TABLE[sq];
+	}
+
+	// Returns the endgame king table value of a square, from white's side.
+	static int kingEnd(int sq) {
+		return KING_END_TABLE[sq];
+	}
+
+	// Blends the middlegame and endgame king tables by how much material is left.
+	private static int kingScore(int sq, int flip, int phase) {
+		if(sq < 0)
+			return 0;
+		sq ^= flip;
+		return (KING_MIDDLE_TABLE[sq] * phase + KING_END_TABLE[sq] * (FULL_PHASE - phase)) / FULL_PHASE;
+	}
+}
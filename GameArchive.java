@@ -0,0 +1,347 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+// GameArchive is an append-only file of finished games in a compact binary form, a fraction of the
+// size of the same games as PGN and read without any notation parsing. After a file header of
+// MAGIC and VERSION, each game is one record:
+//   int length (of the rest of the record), byte result, int date (yyyymmdd, 0 if unknown),
+//   white, black, event and start FEN (empty for the standard start) as short-length UTF-8 strings,
+//   short move count, and two bytes per move: from | to << 6 | promotion << 12.
+// A game is identified by the file offset of its record. All numbers are big-endian. An append cut
+// short by a crash leaves a partial record at the end, which is cut off when the archive is next
+// opened, so later games are appended where it started and every scan still reaches them.
+public final class GameArchive implements AutoCloseable {
+	static final int MAGIC = 0x43484741; // "CHGA"
+	static final int VERSION = 1;
+	static final int HEADER = 8;
+	private static final String[] RESULTS = {"*", "1-0", "0-1", "1/2-1/2"};
+	// Length of a record with empty strings and no moves.
+	private static final int MIN_RECORD = 1 + 4 + 4 * 2 + 2;
+	// Promotion pieces by the code in a packed move, which is the PieceType ordinal, or 0 for none.
+	private static final PieceType[] PROMOTIONS = {PieceType.none, PieceType.queen, PieceType.bishop, PieceType.knight, PieceType.rook};
+
+	private final Path file;
+	private final FileChannel ch;
+
+	// Opens an archive, creating it if it does not exist.
+	public GameArchive(Path file) throws IOException {
+		this.file = file;
+		if(file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(ch.size() == 0) {
+			ch.write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).flip(), 0);
+		}
+		else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			ch.read(header, 0);
+			header.flip();
+			if(header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				ch.close();
+				throw new IOException("Not a game archive: " + file);
+			}
+			try {
+				truncateTornTail();
+			} catch(IOException e) {
+				ch.close();
+				throw e;
+			}
+		}
+	}
+
+	// Follows the record lengths from the first game and truncates the file at the first record that
+	// does not fit in it, which can only be the last one, torn by a crash while it was appended.
+	private void truncateTornTail() throws IOException {
+		long end = ch.size(), offset = HEADER;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			in.skipNBytes(HEADER);
+			while(end - offset >= 4) {
+				int length = in.readInt();
+				if(length < MIN_RECORD || length > end - offset - 4)
+					break;
+				in.skipNBytes(length);
+				offset += 4 + length;
+			}
+		}
+		if(offset < end) {
+			ch.truncate(offset);
+			ch.force(false);
+		}
+	}
+
+	// Returns the archive for games played in the GUI: the chess.archive system property, or
+	// games.cga in ~/.chess-game.
+	static Path defaultFile() {
+		String path = System.getProperty("chess.archive");
+		return (path != null) ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".chess-game", "games.cga");
+	}
+
+	// Returns the archive's file.
+	public Path getFile() {
+		return file;
+	}
+
+	// Returns the size of the archive in bytes; every game starts below it.
+	public long size() throws IOException {
+		return ch.size();
+	}
+
+	// Appends a game; returns its offset, which identifies it from then on.
+	public long append(PgnGame game) throws IOException {
+		ByteBuffer record = encode(game);
+		synchronized(this) {
+			long offset = ch.size();
+			while(record.hasRemaining())
+				ch.write(record, offset + record.position());
+			return offset;
+		}
+	}
+
+	// Reads the game stored at an offset.
+	public PgnGame read(long offset) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully(length, offset);
+		ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+		readFully(record, offset + 4);
+		PgnGame game = new PgnGame();
+		decode(record, game);
+		game.offset = offset;
+		return game;
+	}
+
+	// Fills a buffer from a file offset.
+	private void readFully(ByteBuffer buf, long offset) throws IOException {
+		while(buf.hasRemaining()) {
+			if(ch.read(buf, offset + buf.position()) < 0)
+				throw new EOFException("Truncated game record at " + offset + " in " + file);
+		}
+		buf.flip();
+	}
+
+	// Receives the games of a scan, with their offsets; the game object is reused for the next one.
+	public interface GameVisitor {
+		void game(long offset, PgnGame game) throws IOException;
+	}
+
+	// Reads every game in file order.
+	public void forEach(GameVisitor visitor) throws IOException {
+		long end = ch.size();
+		PgnGame game = new PgnGame();
+		byte[] record = new byte[1024];
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			in.skipNBytes(HEADER);
+			for(long offset = HEADER; offset < end; ) {
+				int length = in.readInt();
+				if(length > record.length) record = new byte[Math.max(length, record.length * 2)];
+				in.readFully(record, 0, length);
+				game.clear();
+				decode(ByteBuffer.wrap(record, 0, length), game);
+				game.offset = offset;
+				visitor.game(offset, game);
+				offset += 4 + length;
+			}
+		}
+	}
+
+	// Encodes a game as a record, length prefix included.
+	static ByteBuffer encode(PgnGame game) {
+		byte[] white = utf8(game.getTag("White")), black = utf8(game.getTag("Black")), event = utf8(game.getTag("Event"));
+		String fen = game.getStartFen();
+		byte[] start = utf8(fen.equals(Position.START_FEN) ? "" : fen);
+		MoveList moves = game.getMoves();
+		if(moves.size() > 0xFFFF)
+			throw new IllegalArgumentException("Game too long to archive: " + moves.size() + " moves");
+		int length = 1 + 4 + 8 + white.length + black.length + event.length + start.length + 2 + 2 * moves.size();
+		ByteBuffer buf = ByteBuffer.allocate(4 + length);
+		buf.putInt(length);
+		buf.put((byte) resultCode(game.getResult()));
+		buf.putInt(dateCode(game.getTag("Date")));
+		for(byte[] s : new byte[][] {white, black, event, start})
+			buf.putShort((short) s.length).put(s);
+		buf.putShort((short) moves.size());
+		for(int i = 0; i < moves.size(); ++i)
+			buf.putShort((short) pack(moves.get(i)));
+		return buf.flip();
+	}
+
+	// Decodes a record without its length prefix into an empty game.
+	static void decode(ByteBuffer buf, PgnGame game) {
+		String result = RESULTS[buf.get() & 3];
+		int date = buf.getInt();
+		String white = string(buf), black = string(buf), event = string(buf), start = string(buf);
+		if(!event.isEmpty()) game.setTag("Event", event);
+		if(date != 0) game.setTag("Date", String.format("%04d.%02d.%02d", date / 10000, date / 100 % 100, date % 100));
+		if(!white.isEmpty()) game.setTag("White", white);
+		if(!black.isEmpty()) game.setTag("Black", black);
+		game.setTag("Result", result);
+		game.setResult(result);
+		if(!start.isEmpty()) {
+			game.setTag("SetUp", "1");
+			game.setTag("FEN", start);
+		}
+		int count = buf.getShort() & 0xFFFF;
+		Position p = Position.fromFen(game.getStartFen());
+		for(int i = 0; i < count; ++i) {
+			int m = unpack(p, buf.getShort() & 0xFFFF);
+			p.makeMove(m);
+			game.addMove(m);
+		}
+	}
+
+	// Packs a move into 16 bits; the special-move flags follow from the position and are left out.
+	static int pack(int m) {
+		int promotion = Move.isPromotion(m) ? Move.promotion(m).ordinal() : 0;
+		return Move.from(m) | (Move.to(m) << 6) | (promotion << 12);
+	}
+
+	// Restores a packed move of a position, recovering castling, en passant and double pushes from the board.
+	static int unpack(Position p, int packed) {
+		int from = packed & 63, to = (packed >>> 6) & 63;
+		PieceType promotion = PROMOTIONS[(packed >>> 12) & 7];
+		int flags = Move.NORMAL;
+		PieceType piece = p.typeAt(from);
+		int distance = Math.abs((to >> 3) - (from >> 3)) * 8 + Math.abs((to & 7) - (from & 7));
+		if(piece == PieceType.king && distance == 2) flags = Move.CASTLE;
+		else if(piece == PieceType.pawn && distance == 16) flags = Move.DOUBLE_PUSH;
+		else if(piece == PieceType.pawn && (to & 7) != (from & 7) && p.typeAt(to) == PieceType.none) flags = Move.EN_PASSANT;
+		return Move.of(from, to, promotion, flags);
+	}
+
+	// Maps a PGN result to its code.
+	private static int resultCode(String result) {
+		for(int i = 1; i < RESULTS.length; ++i) {
+			if(RESULTS[i].equals(result))
+				return i;
+		}
+		return 0;
+	}
+
+	// Packs a PGN date such as "2024.03.17" into yyyymmdd; unknown parts ("??") count as 0.
+	static int dateCode(String date) {
+		if(date == null)
+			return 0;
+		String[] parts = date.split("\\.");
+		int code = 0;
+		for(int i = 0; i < 3; ++i) {
+			int value = 0;
+			try {
+				if(i < parts.length) value = Integer.parseInt(parts[i]);
+			} catch(NumberFormatException e) {
+				// "??" and the like.
+			}
+			code = code * (i == 0 ? 1 : 100) + value;
+		}
+		return code;
+	}
+
+	// Returns today's date as a PGN date.
+	static String today() {
+		return LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd"));
+	}
+
+	// Encodes an optional string, cut to the 65535 bytes a record allows.
+	private static byte[] utf8(String s) {
+		byte[] b = (s == null || s.equals("?")) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+		return (b.length > 0xFFFF) ? Arrays.copyOf(b, 0xFFFF) : b;
+	}
+
+	// Reads a short-length UTF-8 string.
+	private static String string(ByteBuffer buf) {
+		int length = buf.getShort() & 0xFFFF;
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+		buf.position(buf.position() + length);
+		return s;
+	}
+
+	// Returns the file of an archive's position index.
+	static Path indexFile(Path archive) {
+		return archive.resolveSibling(archive.getFileName() + ".idx");
+	}
+
+	// Usage: GameArchive <archive> import <file.pgn> | export <file.pgn> | index | find <fen>; imports PGN
+	// games, writes every game out as PGN, builds the position index, or lists the games that reach a position.
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: GameArchive <archive> import <file.pgn> | export <file.pgn> | index | find <fen>");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		try(GameArchive archive = new GameArchive(path)) {
+			switch(args[1]) {
+				case "import": {
+					Path pgn = Paths.get(args[2]);
+					PgnReader.Summary s = PgnReader.read(pgn, Runtime.getRuntime().availableProcessors(), g -> {
+						try {
+							archive.append(g);
+						} catch(IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+					System.out.println("Imported " + s);
+					System.out.printf("PGN %.1f MB, archive %.1f MB%n", Files.size(pgn) / 1e6, archive.size() / 1e6);
+					break;
+				}
+				case "export": {
+					long[] count = {0};
+					try(java.io.BufferedWriter out = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+						archive.forEach((offset, g) -> {
+							out.write(g.toPgn());
+							out.newLine();
+							++count[0];
+						});
+					}
+					System.out.println("Exported " + count[0] + " games");
+					break;
+				}
+				case "index": {
+					long start = System.nanoTime();
+					PositionIndex.build(archive, indexFile(path));
+					try(PositionIndex index = new PositionIndex(indexFile(path))) {
+						System.out.printf("Indexed %d games, %d positions in %.1f s, %.1f MB%n", index.getGameCount(), index.getEntryCount(),
+								(System.nanoTime() - start) / 1e9, Files.size(indexFile(path)) / 1e6);
+					}
+					break;
+				}
+				case "find": {
+					String fen = String.join(" ", Arrays.asList(args).subList(2, args.length));
+					try(PositionIndex index = new PositionIndex(indexFile(path))) {
+						if(index.getArchiveSize() != archive.size())
+							System.out.println("The index is older than the archive; games added since are missing.");
+						long start = System.nanoTime();
+						long[] found = index.find(Position.fromFen(fen).getKey());
+						System.out.printf("%d games in %.3f ms%n", found.length, (System.nanoTime() - start) / 1e6);
+						for(int i = 0; i < Math.min(found.length, 20); ++i) {
+							PgnGame g = archive.read(found[i]);
+							System.out.printf("%12d  %s - %s  %s  %s%n", found[i], g.getTag("White"), g.getTag("Black"), g.getResult(), g.getTag("Date") != null ? g.getTag("Date") : "");
+						}
+					}
+					break;
+				}
+				default:
+					System.out.println("Unknown command: " + args[1]);
+					break;
+			}
+		}
+	}
+
+	// Closes the file.
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
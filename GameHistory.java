@@ -0,0 +1,74 @@
+package chess;
+
+// GameHistory is the list of moves played in a game with a cursor into it, for taking moves back,
+// replaying them and jumping to any point of the game. The position keeps the undo record of every
+// move (captured piece, castling and en passant state, halfmove clock and key), so a step either way
+// is one unmakeMove or makeMove, and the keys double as the list repetitions are looked up in.
+// Playing a new move after taking some back drops the moves that followed.
+final class GameHistory {
+	private final Position position;
+	private final MoveList moves = new MoveList();
+	// Number of moves currently played on the position.
+	private int cursor;
+
+	// Creates an empty history over a position, which must not be changed except through it.
+	GameHistory(Position position) {
+		this.position = position;
+	}
+
+	// Forgets all moves; call after the position is set up anew.
+	void clear() {
+		moves.clear();
+		cursor = 0;
+	}
+
+	// Plays a move, dropping any moves that were taken back.
+	void play(int m) {
+		position.makeMove(m);
+		moves.truncate(cursor);
+		moves.add(m);
+		++cursor;
+	}
+
+	// Takes back the last move played; returns it, or Move.NONE at the start of the game.
+	int undo() {
+		if(cursor == 0)
+			return Move.NONE;
+		int m = moves.get(--cursor);
+		position.unmakeMove(m);
+		return m;
+	}
+
+	// Plays the next move taken back; returns it, or Move.NONE at the end of the game.
+	int redo() {
+		if(cursor == moves.size())
+			return Move.NONE;
+		int m = moves.get(cursor++);
+		position.makeMove(m);
+		return m;
+	}
+
+	// Goes to the position after the given number of moves.
+	void seek(int target) {
+		target = Math.max(0, Math.min(target, moves.size()));
+		while(cursor > target)
+			undo();
+		while(cursor < target)
+			redo();
+	}
+
+	// Returns the number of moves currently played.
+	int getCursor() {
+		return cursor;
+	}
+
+	// Returns the number of moves in the history, including those taken back.
+	int size() {
+		return moves.size();
+	}
+
+	// Returns a move by its number from the start of the game.
+	int get(int i) {
+		return moves.get(i);
+	}
+}
@@ -0,0 +1,124 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// GameSession is one game played over one connection of the session server.
+// It owns its Position, so sessions share nothing but the server's counters and need no locking.
+// The protocol is one command per line, answered by one line:
+//   new [fen]      start a game, from the initial position or a FEN       -> ok
+//   move <e2e4>    play a move in coordinate notation                     -> ok <move> <status> | illegal <move>
+//   moves          list the legal moves                                   -> moves <move>...
+//   undo           take back the last move                                -> ok | error nothing to undo
+//   status         report the side to move and the game state             -> status <color> <status>
+//   stats          report the server's counters                           -> stats ...
+//   quit           close the connection                                   -> bye
+// where <status> is one of play, check, checkmate, stalemate, repetition or fifty-move; the last two
+// are draws by threefold repetition and by the fifty-move rule, checked in that order after mate.
+final class GameSession implements Runnable {
+	private final Socket socket;
+	private final SessionServer server;
+	private Position position = Position.fromFen(Position.START_FEN);
+	private final MoveList moves = new MoveList();
+	// Moves played since the game started, for undo.
+	private final MoveList played = new MoveList();
+
+	// Creates a session for an accepted connection.
+	GameSession(Socket socket, SessionServer server) {
+		this.socket = socket;
+		this.server = server;
+	}
+
+	// Serves the connection until the client quits or disconnects.
+	@Override
+	public void run() {
+		server.sessionStarted();
+		try(Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+			for(String line = in.readLine(); line != null; line = in.readLine()) {
+				String reply = handle(line.trim());
+				out.write(reply);
+				out.write('\n');
+				out.flush();
+				if(reply.equals("bye"))
+					break;
+			}
+		} catch(IOException e) {
+			// The client went away; nothing to clean up but the counters.
+		} finally {
+			server.sessionEnded();
+		}
+	}
+
+	// Answers one command.
+	String handle(String line) {
+		int space = line.indexOf(' ');
+		String command = (space < 0) ? line : line.substring(0, space);
+		String argument = (space < 0) ? "" : line.substring(space + 1).trim();
+		switch(command) {
+			case "new":
+				try {
+					position = Position.fromFen(argument.isEmpty() ? Position.START_FEN : argument);
+					played.clear();
+				} catch(RuntimeException e) {
+					return "error bad fen";
+				}
+				return "ok";
+			case "move":
+				return move(argument);
+			case "moves":
+				StringBuilder sb = new StringBuilder("moves");
+				moves.clear();
+				position.legalMoves(moves);
+				for(int i = 0; i < moves.size(); ++i)
+					sb.append(' ').append(Move.toString(moves.get(i)));
+				return sb.toString();
+			case "undo":
+				if(played.isEmpty())
+					return "error nothing to undo";
+				position.unmakeMove(played.get(played.size() - 1));
+				played.truncate(played.size() - 1);
+				return "ok";
+			case "status":
+				return "status " + position.getTurn() + " " + status();
+			case "stats":
+				return server.stats();
+			case "quit":
+				return "bye";
+			default:
+				return "error unknown command";
+		}
+	}
+
+	// Validates and plays a move, timing the rules work for the server's latency histogram.
+	private String move(String text) {
+		long start = System.nanoTime();
+		int chosen = Uci.parseMove(position, text, moves);
+		if(chosen == Move.NONE) {
+			server.moveValidated(System.nanoTime() - start, false);
+			return "illegal " + text;
+		}
+		position.makeMove(chosen);
+		played.add(chosen);
+		String status = status();
+		server.moveValidated(System.nanoTime() - start, true);
+		return "ok " + text + " " + status;
+	}
+
+	// Describes the state of the game for the side to move.
+	private String status() {
+		PlayerColor turn = position.getTurn();
+		if(position.isCheckMate(turn)) return "checkmate";
+		if(position.isStaleMate(turn)) return "stalemate";
+		if(position.repetitions() >= 2) return "repetition";
+		if(position.isDrawByRule()) return "fifty-move";
+		return position.isCheck(turn) ? "check" : "play";
+	}
+}
@@ -0,0 +1,76 @@
+package chess;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// LatencyHistogram counts durations in nanoseconds in logarithmic buckets, 16 per power of two,
+// so percentiles are accurate to about 6% whatever the range. Recording is lock-free and safe
+// from any number of threads; reading while others record gives a slightly moving snapshot.
+final class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+
+	// Records one duration.
+	void record(long nanos) {
+		counts.incrementAndGet(index(Math.max(nanos, 0)));
+	}
+
+	// Returns the bucket of a value.
+	static int index(long value) {
+		if(value < SUB_COUNT)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	// Returns the largest value that falls into a bucket.
+	static long upperBound(int index) {
+		if(index < SUB_COUNT)
+			return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		long sub = index & (SUB_COUNT - 1);
+		return ((SUB_COUNT + sub + 1) << shift) - 1;
+	}
+
+	// Returns the number of recorded durations.
+	long count() {
+		long n = 0;
+		for(int i = 0; i < counts.length(); ++i) n += counts.get(i);
+		return n;
+	}
+
+	// Returns the duration that a given fraction (0 to 1) of the recorded durations do not exceed.
+	long percentile(double fraction) {
+		long total = count();
+		if(total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); ++i) {
+			seen += counts.get(i);
+			if(seen >= rank)
+				return upperBound(i);
+		}
+		return upperBound(counts.length() - 1);
+	}
+
+	// Clears all counts.
+	void reset() {
+		for(int i = 0; i < counts.length(); ++i) counts.set(i, 0);
+	}
+
+	// Adds the counts of another histogram to this one.
+	void add(LatencyHistogram other) {
+		for(int i = 0; i < counts.length(); ++i) {
+			long n = other.counts.get(i);
+			if(n != 0) counts.addAndGet(i, n);
+		}
+	}
+
+	// Formats p50, p99 and max in microseconds.
+	String summary() {
+		return String.format("p50 %.1f us  p99 %.1f us  max %.1f us",
+				percentile(0.50) / 1e3, percentile(0.99) / 1e3, percentile(1.0) / 1e3);
+	}
+}
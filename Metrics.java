@@ -0,0 +1,199 @@
+package chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Metrics times the operations behind the board's responsiveness: move generation for a square, the
+// check, mate and stalemate tests, findKing, the board's background move snapshots, search iterations,
+// and click handling and painting on the event thread. Each operation has a call count, total time and
+// latency histogram, readable over JMX (chess:type=Metrics) and as a text report that can be printed
+// periodically. For Flight Recorder, every search iteration is a chess.SearchIteration event, and every
+// timed call a chess.Operation event, which is off by default because of its volume. Timing is off
+// until enabled, and then costs two clock reads and a few atomic adds per call, so it is kept to calls
+// made from the GUI and once per search iteration rather than once per search node: the evaluation,
+// SAN and UCI move parsing use Position's untimed kingSquare, inCheck and movesOf instead.
+public final class Metrics {
+	static volatile boolean enabled = Boolean.getBoolean("chess.metrics");
+
+	static final Timer MOVE_GENERATION = new Timer("legalMovesFrom");
+	static final Timer CHECK = new Timer("isCheck");
+	static final Timer CHECKMATE = new Timer("isCheckMate");
+	static final Timer STALEMATE = new Timer("isStaleMate");
+	static final Timer FIND_KING = new Timer("findKing");
+	static final Timer SNAPSHOT = new Timer("moveSnapshot");
+	static final Timer SEARCH_ITERATION = new Timer("searchIteration");
+	static final Timer CLICK = new Timer("squareClicked");
+	static final Timer PAINT = new Timer("paint");
+	private static final Timer[] TIMERS = {MOVE_GENERATION, CHECK, CHECKMATE, STALEMATE, FIND_KING, SNAPSHOT, SEARCH_ITERATION, CLICK, PAINT};
+	// Nodes of the completed search iterations.
+	static final LongAdder searchNodes = new LongAdder();
+	private static boolean installed;
+
+	private Metrics() {}
+
+	// Returns the start time of a timed call, or 0 when timing is off.
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	// Turns timing on, registers the JMX beans and, if the chess.metrics.dump property gives a number
+	// of seconds, prints the report to stderr at that interval; timing stays off if chess.metrics is false.
+	static synchronized void install() {
+		if(installed)
+			return;
+		installed = true;
+		enabled = !"false".equals(System.getProperty("chess.metrics"));
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(new Control(), ControlMBean.class), new ObjectName("chess:type=Metrics"));
+			for(Timer t : TIMERS)
+				server.registerMBean(new StandardMBean(t, TimerMBean.class), new ObjectName("chess:type=Metrics,operation=" + t.name));
+		} catch(JMException e) {
+			System.err.println("Could not register the metrics beans: " + e);
+		}
+		long seconds = Long.getLong("chess.metrics.dump", 0);
+		if(seconds > 0) {
+			ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "metrics-dump");
+				t.setDaemon(true);
+				return t;
+			});
+			dumper.scheduleAtFixedRate(() -> System.err.print(report()), seconds, seconds, TimeUnit.SECONDS);
+		}
+	}
+
+	// Formats every operation's counts and latencies as a table.
+	static String report() {
+		StringBuilder sb = new StringBuilder(String.format("%-16s %10s %10s %9s %9s %9s %9s%n", "operation", "calls", "total ms", "mean us", "p50 us", "p99 us", "max us"));
+		for(Timer t : TIMERS) {
+			sb.append(String.format("%-16s %10d %10.1f %9.1f %9.1f %9.1f %9.1f%n", t.name, t.getCalls(), t.getTotalMillis(),
+					t.getMeanMicros(), t.getP50Micros(), t.getP99Micros(), t.getMaxMicros()));
+		}
+		return sb.append("search nodes ").append(searchNodes.sum()).append(System.lineSeparator()).toString();
+	}
+
+	// Clears every count.
+	static void reset() {
+		for(Timer t : TIMERS)
+			t.reset();
+		searchNodes.reset();
+	}
+
+	// JMX view of the switch and the report.
+	public interface ControlMBean {
+		boolean isEnabled();
+		void setEnabled(boolean on);
+		String getReport();
+		long getSearchNodes();
+		void reset();
+	}
+
+	// JMX view of one operation.
+	public interface TimerMBean {
+		long getCalls();
+		double getTotalMillis();
+		double getMeanMicros();
+		double getP50Micros();
+		double getP99Micros();
+		double getMaxMicros();
+	}
+
+	// Backs the chess:type=Metrics bean.
+	private static final class Control implements ControlMBean {
+		@Override public boolean isEnabled() { return enabled; }
+		@Override public void setEnabled(boolean on) { enabled = on; }
+		@Override public String getReport() { return report(); }
+		@Override public long getSearchNodes() { return searchNodes.sum(); }
+		@Override public void reset() { Metrics.reset(); }
+	}
+
+	// Counts and times one operation.
+	static final class Timer implements TimerMBean {
+		final String name;
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		// Creates a timer for an operation.
+		Timer(String name) {
+			this.name = name;
+		}
+
+		// Records a call that began at a time returned by start(); does nothing if timing was off then.
+		void stop(long start) {
+			if(start == 0)
+				return;
+			long nanos = System.nanoTime() - start;
+			calls.increment();
+			totalNanos.add(nanos);
+			latency.record(nanos);
+			OperationEvent event = new OperationEvent();
+			if(event.isEnabled()) {
+				event.operation = name;
+				event.elapsed = nanos;
+				event.commit();
+			}
+		}
+
+		// Clears the counts.
+		void reset() {
+			calls.reset();
+			totalNanos.reset();
+			latency.reset();
+		}
+
+		@Override public long getCalls() { return calls.sum(); }
+		@Override public double getTotalMillis() { return totalNanos.sum() / 1e6; }
+		@Override public double getMeanMicros() { long n = calls.sum(); return (n == 0) ? 0 : totalNanos.sum() / 1e3 / n; }
+		@Override public double getP50Micros() { return latency.percentile(0.50) / 1e3; }
+		@Override public double getP99Micros() { return latency.percentile(0.99) / 1e3; }
+		@Override public double getMaxMicros() { return latency.percentile(1.0) / 1e3; }
+	}
+
+	// Flight Recorder event for one timed call.
+	@Name("chess.Operation")
+	@Label("Chess Operation")
+	@Category("Chess")
+	@Description("A timed rules, search or event-thread operation")
+	@StackTrace(false)
+	@Enabled(false)
+	static final class OperationEvent extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+
+	// Flight Recorder event for one completed search iteration.
+	@Name("chess.SearchIteration")
+	@Label("Search Iteration")
+	@Category("Chess")
+	@StackTrace(false)
+	static final class SearchIterationEvent extends Event {
+		@Label("Depth")
+		int depth;
+
+		@Label("Score")
+		int score;
+
+		@Label("Nodes")
+		long nodes;
+	}
+}
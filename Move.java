@@ -0,0 +1,107 @@
+package chess;
+
+// Move packs a move into an int, so move lists are plain int arrays and generating them allocates nothing.
+// Squares are numbered x*8+y, using the same (row, column) layout as the board on screen.
+// Bits 0-5 hold the origin square, bits 6-11 the destination, bits 12-14 the PieceType ordinal of the
+// promotion piece (PieceType.none when there is none) and bits 15-17 the special-move flags.
+public final class Move {
+	// A value that is never a real move.
+	public static final int NONE = 0;
+
+	// Flags for moves that need more than lifting and dropping one piece.
+	static final int NORMAL = 0;
+	static final int DOUBLE_PUSH = 1;
+	static final int EN_PASSANT = 2;
+	static final int CASTLE = 4;
+
+	private static final PieceType[] TYPES = PieceType.values();
+
+	private Move() {}
+
+	// Encodes a plain move between two squares.
+	public static int of(int from, int to) {
+		return of(from, to, PieceType.none, NORMAL);
+	}
+
+	// Encodes a move with a promotion piece and special-move flags.
+	public static int of(int from, int to, PieceType promotion, int flags) {
+		return from | (to << 6) | (promotion.ordinal() << 12) | (flags << 15);
+	}
+
+	// Origin square of a move.
+	public static int from(int move) {
+		return move & 63;
+	}
+
+	// Destination square of a move.
+	public static int to(int move) {
+		return (move >>> 6) & 63;
+	}
+
+	// Row of the origin square.
+	public static int fromX(int move) {
+		return from(move) >> 3;
+	}
+
+	// Column of the origin square.
+	public static int fromY(int move) {
+		return from(move) & 7;
+	}
+
+	// Row of the destination square.
+	public static int toX(int move) {
+		return to(move) >> 3;
+	}
+
+	// Column of the destination square.
+	public static int toY(int move) {
+		return to(move) & 7;
+	}
+
+	// Returns the piece a pawn turns into, or none.
+	public static PieceType promotion(int move) {
+		return TYPES[(move >>> 12) & 7];
+	}
+
+	// Determines if a move promotes a pawn.
+	public static boolean isPromotion(int move) {
+		return ((move >>> 12) & 7) != PieceType.none.ordinal();
+	}
+
+	// Returns the special-move flags.
+	static int flags(int move) {
+		return (move >>> 15) & 7;
+	}
+
+	// Determines if the move is a castling king move.
+	public static boolean isCastle(int move) {
+		return (flags(move) & CASTLE) != 0;
+	}
+
+	// Determines if the move is an en passant capture.
+	public static boolean isEnPassant(int move) {
+		return (flags(move) & EN_PASSANT) != 0;
+	}
+
+	// Determines if the move is a pawn's two-square advance.
+	public static boolean isDoublePush(int move) {
+		return (flags(move) & DOUBLE_PUSH) != 0;
+	}
+
+	// Converts a square index to algebraic notation such as "e4".
+	static String squareName(int sq) {
+		return "" + (char) ('a' + (sq & 7)) + (char) ('8' - (sq >> 3));
+	}
+
+	// Returns the move in coordinate notation, for example "e2e4" or "e7e8q".
+	public static String toString(int move) {
+		String s = squareName(from(move)) + squareName(to(move));
+		switch(promotion(move)) {
+			case queen: return s + "q";
+			case rook: return s + "r";
+			case bishop: return s + "b";
+			case knight: return s + "n";
+			default: return s;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package chess;
+
+import java.util.Arrays;
+
+// MoveList is a reusable buffer of int-encoded moves.
+// Callers keep one per ply and clear it instead of allocating a new list for every position.
+public final class MoveList {
+	// Comfortably above the 218 legal moves of the richest known position.
+	static final int CAPACITY = 256;
+
+	private int[] moves = new int[CAPACITY];
+	private int size;
+
+	// Empties the list, keeping its storage.
+	public void clear() {
+		size = 0;
+	}
+
+	// Returns the number of moves in the list.
+	public int size() {
+		return size;
+	}
+
+	// Determines if the list has no moves.
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// Returns the move at an index.
+	public int get(int i) {
+		return moves[i];
+	}
+
+	// Replaces the move at an index.
+	void set(int i, int move) {
+		moves[i] = move;
+	}
+
+	// Appends a move; the buffer only grows for pathological positions.
+	void add(int move) {
+		if(size == moves.length)
+			moves = Arrays.copyOf(moves, size * 2);
+		moves[size++] = move;
+	}
+
+	// Drops the moves from an index onward.
+	void truncate(int newSize) {
+		size = newSize;
+	}
+
+	// Determines if the list holds a given move.
+	public boolean contains(int move) {
+		for(int i = 0; i < size; ++i) {
+			if(moves[i] == move)
+				return true;
+		}
+		return false;
+	}
+
+	// Lists the moves in coordinate notation.
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < size; ++i) {
+			if(i > 0) sb.append(", ");
+			sb.append(Move.toString(moves[i]));
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,76 @@
+package chess;
+
+// MoveSnapshot is everything the board needs to know about a position before the player clicks: the
+// legal moves of every piece of the side to move, grouped by square, and whether the side to move is in
+// check, mated, stalemated or drawn by rule, with the tablebase verdict if there is one. It is computed
+// on a worker thread from a copy of the position as soon as a move is made, and never changes after,
+// so the event thread can read it without locking and a click only has to look up a square.
+final class MoveSnapshot {
+	final long key;
+	final PlayerColor turn;
+	final boolean check;
+	final boolean mate;
+	final boolean stalemate;
+	final boolean repetition;
+	final boolean fiftyMoves;
+	// Tablebase result for a game still in progress, or null.
+	final String verdict;
+	// Legal moves in order of their from square; the moves from square sq are moves[first[sq]..first[sq+1]).
+	private final int[] moves;
+	private final int[] first = new int[65];
+
+	// Analyzes a position, which the caller must not change meanwhile.
+	private MoveSnapshot(Position p) {
+		key = p.getKey();
+		turn = p.getTurn();
+		MoveList list = new MoveList();
+		// legalMoves goes through the pieces in square order, so the moves come grouped by square.
+		p.legalMoves(list);
+		moves = new int[list.size()];
+		for(int i = 0; i < moves.length; ++i) {
+			moves[i] = list.get(i);
+			++first[Move.from(moves[i]) + 1];
+		}
+		for(int sq = 0; sq < 64; ++sq)
+			first[sq + 1] += first[sq];
+		check = p.isCheck(turn);
+		mate = check && moves.length == 0;
+		stalemate = !check && moves.length == 0;
+		repetition = moves.length > 0 && p.repetitions() >= 2;
+		fiftyMoves = moves.length > 0 && !repetition && p.isDrawByRule();
+		verdict = isOver() ? null : Tablebases.getDefault().verdict(p);
+	}
+
+	// Analyzes a position, timing it for Metrics.
+	static MoveSnapshot of(Position p) {
+		long timer = Metrics.start();
+		try {
+			return new MoveSnapshot(p);
+		} finally {
+			Metrics.SNAPSHOT.stop(timer);
+		}
+	}
+
+	// Adds the legal moves from square sq to a list.
+	void movesFrom(int sq, MoveList out) {
+		for(int i = first[sq]; i < first[sq + 1]; ++i)
+			out.add(moves[i]);
+	}
+
+	// Returns the number of legal moves.
+	int size() {
+		return moves.length;
+	}
+
+	// Returns whether the game has ended in this position.
+	boolean isOver() {
+		return mate || stalemate || repetition || fiftyMoves;
+	}
+
+	// Returns the result of a game that ended here in PGN notation, or null.
+	String result() {
+		if(mate)
+			return (turn == PlayerColor.black) ? "1-0" : "0-1";
+		return isOver() ? "1/2-1/2" : null;
+	}
+}
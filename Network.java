@@ -0,0 +1,287 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+// Network is an NNUE-style evaluation: a first layer over 768 piece-square features (own or enemy piece,
+// type, square seen from the side whose view it is) into a hidden layer, computed once for each side's
+// view, then a clipped ReLU and one output neuron over both halves, side to move first. The first layer
+// is linear in the pieces, so Accumulator keeps it up to date move by move instead of summing 30 feature
+// rows per evaluation; only the output dot product is computed for every evaluation. The dot products
+// run on the Vector API when the jdk.incubator.vector module is present, and on plain loops otherwise.
+// Weights are stored as little-endian 16-bit values after a small header. There is no trained network in
+// the repository: fromTables() builds one that computes the material and piece-square evaluation of
+// Evaluation, give or take rounding, and write turns it into a file that real weights can replace.
+public final class Network {
+	private static final int MAGIC = 0x4E4E4843; // "CHNN"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 28;
+	static final int FEATURES = 768;
+
+	// Size of the hidden layer; one accumulator half.
+	final int hidden;
+	// Row f of the first layer, for feature f, is featureWeights[f*hidden .. (f+1)*hidden).
+	final int[] featureWeights;
+	final int[] bias;
+	// Output weights over the side to move's half, then the other side's half.
+	final int[] outputWeights;
+	final int outputBias;
+	// Upper clip of the activation.
+	final int activationMax;
+	// The output neuron's sum divided by scale is the score in centipawns.
+	final int scale;
+
+	private static Network defaultNetwork;
+	private static boolean defaultLoaded;
+	private static Kernel bestKernel;
+
+	// Creates a network over the given weights.
+	Network(int hidden, int[] featureWeights, int[] bias, int[] outputWeights, int outputBias, int activationMax, int scale) {
+		if(featureWeights.length != FEATURES * hidden || bias.length != hidden || outputWeights.length != 2 * hidden)
+			throw new IllegalArgumentException("Weights do not match a hidden layer of " + hidden);
+		if(scale <= 0 || activationMax <= 0)
+			throw new IllegalArgumentException("Bad scale or activation clip");
+		this.hidden = hidden;
+		this.featureWeights = featureWeights;
+		this.bias = bias;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+		this.activationMax = activationMax;
+		this.scale = scale;
+	}
+
+	// Returns the network of the chess.nnue system property's file, or of eval.nnue in ~/.chess-game,
+	// loaded on first use; null if there is none, in which case the search uses Evaluation.
+	static synchronized Network getDefault() {
+		if(!defaultLoaded) {
+			defaultLoaded = true;
+			String path = System.getProperty("chess.nnue");
+			Path file = (path != null) ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".chess-game", "eval.nnue");
+			try {
+				defaultNetwork = Files.isRegularFile(file) ? load(file) : null;
+			} catch(IOException | IllegalArgumentException e) {
+				System.err.println("Could not load the evaluation network: " + e);
+			}
+		}
+		return defaultNetwork;
+	}
+
+	// Returns the index of a piece's feature as seen from one side.
+	static int feature(PlayerColor view, PlayerColor pc, PieceType type, int sq) {
+		return ((pc == view ? 0 : 6) + type.ordinal()) * 64 + (view == PlayerColor.white ? sq : sq ^ 56);
+	}
+
+	// Scores a position for the side to move from scratch, with plain loops; the reference Accumulator
+	// is checked against.
+	int evaluate(Position p) {
+		int[] white = new int[hidden], black = new int[hidden];
+		fill(p, PlayerColor.white, white, 0, Kernel.SCALAR);
+		fill(p, PlayerColor.black, black, 0, Kernel.SCALAR);
+		boolean whiteToMove = p.getTurn() == PlayerColor.white;
+		return output(whiteToMove ? white : black, 0, whiteToMove ? black : white, 0, Kernel.SCALAR);
+	}
+
+	// Computes one side's view of the first layer from scratch into acc[off .. off+hidden).
+	void fill(Position p, PlayerColor view, int[] acc, int off, Kernel kernel) {
+		System.arraycopy(bias, 0, acc, off, hidden);
+		for(long occ = p.occupied(); occ != 0; occ &= occ - 1) {
+			int sq = Long.numberOfTrailingZeros(occ);
+			int f = feature(view, p.colorAt(sq >> 3, sq & 7), p.typeAt(sq), sq);
+			kernel.update(acc, off, acc, off, featureWeights, f * hidden, -1, hidden);
+		}
+	}
+
+	// Computes the score from the side to move's and the other side's halves of the first layer.
+	int output(int[] us, int usOff, int[] them, int themOff, Kernel kernel) {
+		long sum = (long) kernel.dot(us, usOff, outputWeights, 0, activationMax, hidden)
+				+ kernel.dot(them, themOff, outputWeights, hidden, activationMax, hidden);
+		return (int) ((sum + outputBias) / scale);
+	}
+
+	// Returns the fastest kernel this JVM can run: the Vector API one if the jdk.incubator.vector module
+	// was added (--add-modules jdk.incubator.vector) and -Dchess.simd=false was not given, else the loops.
+	static synchronized Kernel bestKernel() {
+		if(bestKernel == null) {
+			bestKernel = Kernel.SCALAR;
+			if(!"false".equals(System.getProperty("chess.simd")) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+				try {
+					bestKernel = (Kernel) Class.forName("chess.VectorKernel").getDeclaredConstructor().newInstance();
+				} catch(ReflectiveOperationException | LinkageError e) {
+					System.err.println("Vector API unavailable, evaluating with plain loops: " + e);
+				}
+			}
+		}
+		return bestKernel;
+	}
+
+	// Builds the network that computes Evaluation's score: neuron 0 of each half adds up its own side's
+	// material and piece-square values, with the king on its endgame table; neurons 1-64 hold the game
+	// phase when their square holds the own king, and neurons 65-128 the phase beyond a full board, so
+	// the output weights can move each king from its endgame to its middlegame table by min(phase, 24).
+	static Network fromTables() {
+		final int hidden = 256, big = 1024, fullPhase = 24, offset = 8192;
+		int[] weights = new int[FEATURES * hidden];
+		int[] bias = new int[hidden];
+		int[] output = new int[2 * hidden];
+		bias[0] = offset;
+		output[0] = fullPhase;
+		output[hidden] = -fullPhase;
+		int[] phase = {0, 4, 1, 1, 2, 0};
+		for(int k = 0; k < 64; ++k) {
+			bias[1 + k] = -big;
+			bias[65 + k] = -big - fullPhase;
+			int swing = Evaluation.kingMiddle(k) - Evaluation.kingEnd(k);
+			output[1 + k] = swing;
+			output[65 + k] = -swing;
+			output[hidden + 1 + k] = -swing;
+			output[hidden + 65 + k] = swing;
+		}
+		for(int own = 0; own < 2; ++own) {
+			for(int t = 0; t < 6; ++t) {
+				for(int sq = 0; sq < 64; ++sq) {
+					int row = ((own == 0 ? 0 : 6) + t) * 64 + sq;
+					int[] neurons = new int[129];
+					if(own == 0)
+						neurons[0] = (t == 0) ? Evaluation.kingEnd(sq) : Evaluation.VALUE[t] + Evaluation.table(t, sq);
+					for(int k = 0; k < 64; ++k)
+						neurons[1 + k] = neurons[65 + k] = (own == 0 && t == 0 && k == sq) ? big : phase[t];
+					System.arraycopy(neurons, 0, weights, row * hidden, neurons.length);
+				}
+			}
+		}
+		return new Network(hidden, weights, bias, output, 0, Short.MAX_VALUE, fullPhase);
+	}
+
+	// Reads a network file.
+	static Network load(Path file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			ByteBuffer header = read(in, HEADER_BYTES);
+			if(header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(file + " is not a version " + VERSION + " network file");
+			int hidden = header.getInt(), activationMax = header.getInt(), scale = header.getInt(), outputBias = header.getInt();
+			if(hidden <= 0 || hidden > 4096)
+				throw new IOException(file + " has a bad hidden layer size: " + hidden);
+			int[] weights = readShorts(in, FEATURES * hidden);
+			int[] bias = readShorts(in, hidden);
+			int[] output = readShorts(in, 2 * hidden);
+			return new Network(hidden, weights, bias, output, outputBias, activationMax, scale);
+		}
+	}
+
+	// Reads little-endian 16-bit values, widened to ints.
+	private static int[] readShorts(DataInputStream in, int n) throws IOException {
+		ByteBuffer b = read(in, 2 * n);
+		int[] values = new int[n];
+		for(int i = 0; i < n; ++i)
+			values[i] = b.getShort();
+		return values;
+	}
+
+	// Reads exactly n bytes.
+	private static ByteBuffer read(DataInputStream in, int n) throws IOException {
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Writes the network to a file, through a temporary file so a reader never sees half of it.
+	void write(Path file) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES + 2 * (featureWeights.length + bias.length + outputWeights.length)).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(MAGIC).putInt(VERSION).putInt(hidden).putInt(activationMax).putInt(scale).putInt(outputBias).putInt(0);
+		for(int[] values : new int[][] {featureWeights, bias, outputWeights}) {
+			for(int v : values) {
+				if(v != (short) v)
+					throw new IllegalStateException("Weight " + v + " does not fit in 16 bits");
+				b.putShort((short) v);
+			}
+		}
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+			out.write(b.array());
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// The arithmetic over accumulator rows, in plain loops or on the Vector API.
+	interface Kernel {
+		// Sets dst[dstOff+i] = src[srcOff+i] + w[add+i] - w[sub+i] for i < n, skipping add or sub when it
+		// is -1; src and dst may be the same row.
+		void update(int[] src, int srcOff, int[] dst, int dstOff, int[] w, int add, int sub, int n);
+
+		// Returns the sum of clamp(acc[off+i], 0, max) * w[wOff+i] for i < n.
+		int dot(int[] acc, int off, int[] w, int wOff, int max, int n);
+
+		Kernel SCALAR = new Kernel() {
+			@Override
+			public void update(int[] src, int srcOff, int[] dst, int dstOff, int[] w, int add, int sub, int n) {
+				for(int i = 0; i < n; ++i)
+					dst[dstOff + i] = src[srcOff + i] + (add >= 0 ? w[add + i] : 0) - (sub >= 0 ? w[sub + i] : 0);
+			}
+
+			@Override
+			public int dot(int[] acc, int off, int[] w, int wOff, int max, int n) {
+				int sum = 0;
+				for(int i = 0; i < n; ++i)
+					sum += Math.min(Math.max(acc[off + i], 0), max) * w[wOff + i];
+				return sum;
+			}
+
+			@Override
+			public String toString() {
+				return "scalar";
+			}
+		};
+	}
+
+	// Usage: Network write <file> | Network check <file> [plies]; writes the piece-square network, or
+	// checks a network file's incremental scores against its from-scratch ones, and compares them with
+	// Evaluation's, over random games.
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: Network write <file> | Network check <file> [plies]");
+			return;
+		}
+		if(args[0].equals("write")) {
+			fromTables().write(Paths.get(args[1]));
+			System.out.println("Wrote " + args[1]);
+			return;
+		}
+		Network net = load(Paths.get(args[1]));
+		int plies = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+		Accumulator acc = new Accumulator(net, bestKernel());
+		java.util.Random random = new java.util.Random(1);
+		Position p = Position.fromFen(Position.START_FEN);
+		acc.refresh(p);
+		MoveList moves = new MoveList();
+		int mismatches = 0, maxDiff = 0;
+		for(int i = 0; i < plies; ++i) {
+			moves.clear();
+			p.legalMoves(moves);
+			if(moves.isEmpty() || p.isDrawByRule()) {
+				p = Position.fromFen(Position.START_FEN);
+				acc.refresh(p);
+				continue;
+			}
+			if(acc.depth() == Search.MAX_PLY)
+				acc.refresh(p);
+			int m = moves.get(random.nextInt(moves.size()));
+			acc.push(p, m);
+			p.makeMove(m);
+			int score = acc.evaluate(p.getTurn());
+			if(score != net.evaluate(p))
+				++mismatches;
+			maxDiff = Math.max(maxDiff, Math.abs(score - Evaluation.evaluate(p)));
+		}
+		System.out.printf("%d plies on the %s kernel: %d incremental/from-scratch mismatches, largest difference from Evaluation %d cp%n",
+				plies, acc.kernel, mismatches, maxDiff);
+	}
+}
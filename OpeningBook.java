@@ -0,0 +1,298 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// OpeningBook answers "which moves have been played here, and how well did they do" for opening
+// positions, from a file built out of PGN game collections. The file has Polyglot's layout: 16-byte
+// big-endian records of key, move, weight and learn, sorted by key. The key is the position's own
+// Zobrist key (see Zobrist) rather than Polyglot's, the move is packed as in GameArchive, the weight
+// is 2 per win plus 1 per draw for the side that played the move, and learn holds the number of games.
+// The book is memory-mapped and binary-searched, so a probe takes microseconds and no heap.
+public final class OpeningBook implements AutoCloseable {
+	static final int RECORD = 16;
+	// Plies from the start of each game that go into a book by default.
+	static final int DEFAULT_PLIES = 24;
+	// Moves played in fewer games are left out by default, as chance rather than theory.
+	static final int DEFAULT_MIN_GAMES = 3;
+
+	private final FileChannel ch;
+	private final ByteBuffer buf;
+	private final int count;
+	private final MoveList scratch = new MoveList();
+
+	// Opens a book file.
+	public OpeningBook(Path file) throws IOException {
+		ch = FileChannel.open(file, StandardOpenOption.READ);
+		long size = ch.size();
+		if(size % RECORD != 0 || size > Integer.MAX_VALUE) {
+			ch.close();
+			throw new IOException("Not an opening book: " + file);
+		}
+		buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		count = (int) (size / RECORD);
+	}
+
+	// Returns the book for the GUI, from the chess.book system property or book.bin in ~/.chess-game,
+	// or null if there is none.
+	static OpeningBook openDefault() {
+		String path = System.getProperty("chess.book");
+		Path file = (path != null) ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".chess-game", "book.bin");
+		try {
+			return Files.isRegularFile(file) ? new OpeningBook(file) : null;
+		} catch(IOException e) {
+			System.err.println("Could not open the opening book: " + e);
+			return null;
+		}
+	}
+
+	// Returns the number of records.
+	public int size() {
+		return count;
+	}
+
+	// Adds the book moves of a position to a list, heaviest first, with their weights in a parallel
+	// array sized for them; returns the number added. Records whose move is not legal here, which
+	// can only come from a key collision, are skipped.
+	public synchronized int probe(Position p, MoveList out, int[] weights) {
+		long key = p.getKey();
+		int lo = 0, hi = count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(buf.getLong(mid * RECORD) < key) lo = mid + 1;
+			else hi = mid;
+		}
+		int added = 0;
+		if(lo < count && buf.getLong(lo * RECORD) == key) {
+			scratch.clear();
+			p.legalMoves(scratch);
+		}
+		for(int i = lo; i < count && buf.getLong(i * RECORD) == key && added < weights.length; ++i) {
+			int m = legalMove(buf.getShort(i * RECORD + 8) & 0xFFFF);
+			if(m == Move.NONE)
+				continue;
+			out.add(m);
+			weights[added++] = buf.getShort(i * RECORD + 10) & 0xFFFF;
+		}
+		return added;
+	}
+
+	// Finds the legal move, among those generated into scratch, matching a packed book move, or returns Move.NONE.
+	private int legalMove(int packed) {
+		for(int i = 0; i < scratch.size(); ++i) {
+			if(GameArchive.pack(scratch.get(i)) == packed)
+				return scratch.get(i);
+		}
+		return Move.NONE;
+	}
+
+	// Picks a book move at random in proportion to the weights, or returns Move.NONE when out of book.
+	public int pickMove(Position p) {
+		MoveList moves = new MoveList();
+		int[] weights = new int[MoveList.CAPACITY];
+		int n = probe(p, moves, weights);
+		long total = 0;
+		for(int i = 0; i < n; ++i)
+			total += weights[i];
+		if(total == 0)
+			return Move.NONE;
+		long r = ThreadLocalRandom.current().nextLong(total);
+		for(int i = 0; i < n; ++i) {
+			r -= weights[i];
+			if(r < 0)
+				return moves.get(i);
+		}
+		return Move.NONE;
+	}
+
+	// Closes the book.
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+
+	// Counts (position, move) pairs in an open-addressing table: games played and points scored.
+	static final class Builder {
+		private final int maxPlies;
+		private long[] keys = new long[1 << 16];
+		private int[] moves = new int[1 << 16];
+		private int[] points = new int[1 << 16];
+		private int[] games = new int[1 << 16];
+		private int size;
+		private long gamesAdded;
+
+		// Creates a builder that takes the first maxPlies plies of each game.
+		Builder(int maxPlies) {
+			this.maxPlies = maxPlies;
+		}
+
+		// Adds the opening of a game with a decisive or drawn result; safe to call from reader threads.
+		void add(PgnGame game) {
+			String result = game.getResult();
+			int white = result.equals("1-0") ? 2 : result.equals("0-1") ? 0 : result.equals("1/2-1/2") ? 1 : -1;
+			if(white < 0)
+				return;
+			Position p = Position.fromFen(game.getStartFen());
+			MoveList played = game.getMoves();
+			int n = Math.min(maxPlies, played.size());
+			long[] k = new long[n];
+			int[] m = new int[n], pts = new int[n];
+			for(int i = 0; i < n; ++i) {
+				k[i] = p.getKey();
+				m[i] = GameArchive.pack(played.get(i));
+				pts[i] = (p.getTurn() == PlayerColor.white) ? white : 2 - white;
+				p.makeMove(played.get(i));
+			}
+			synchronized(this) {
+				for(int i = 0; i < n; ++i)
+					count(k[i], m[i], pts[i]);
+				++gamesAdded;
+			}
+		}
+
+		// Adds one game's result to a (position, move) pair.
+		private void count(long key, int move, int pts) {
+			if((size + 1) * 2 > keys.length)
+				grow();
+			int mask = keys.length - 1;
+			int i = slot(key, move, mask);
+			while(moves[i] != 0 && (keys[i] != key || moves[i] != move))
+				i = (i + 1) & mask;
+			if(moves[i] == 0) {
+				keys[i] = key;
+				moves[i] = move;
+				++size;
+			}
+			points[i] += pts;
+			++games[i];
+		}
+
+		// Returns the home slot of a pair; packed moves are never 0, which marks an empty slot.
+		private static int slot(long key, int move, int mask) {
+			long h = (key ^ (move * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+			return (int) (h >>> 32) & mask;
+		}
+
+		// Doubles the table.
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldMoves = moves, oldPoints = points, oldGames = games;
+			int n = oldKeys.length * 2, mask = n - 1;
+			keys = new long[n];
+			moves = new int[n];
+			points = new int[n];
+			games = new int[n];
+			for(int j = 0; j < oldKeys.length; ++j) {
+				if(oldMoves[j] == 0)
+					continue;
+				int i = slot(oldKeys[j], oldMoves[j], mask);
+				while(moves[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				moves[i] = oldMoves[j];
+				points[i] = oldPoints[j];
+				games[i] = oldGames[j];
+			}
+		}
+
+		// Writes the pairs played in at least minGames games as a sorted book; returns the records written.
+		synchronized int write(Path file, int minGames) throws IOException {
+			int n = 0;
+			long[] k = new long[size];
+			int[] index = new int[size];
+			for(int i = 0; i < keys.length; ++i) {
+				if(moves[i] != 0 && games[i] >= minGames) {
+					k[n] = keys[i];
+					index[n++] = i;
+				}
+			}
+			PositionIndex.sort(k, index, 0, n);
+			// Weights are 16 bits; a position whose moves have larger point totals has them all scaled
+			// down by the same factor, keeping their proportions and every move above zero.
+			int[] weight = new int[n];
+			for(int first = 0, end; first < n; first = end) {
+				int maxPoints = 1;
+				for(end = first; end < n && k[end] == k[first]; ++end)
+					maxPoints = Math.max(maxPoints, points[index[end]]);
+				double scale = Math.min(1.0, 65535.0 / maxPoints);
+				for(int j = first; j < end; ++j)
+					weight[j] = Math.max(1, (int) (points[index[j]] * scale));
+			}
+			// Within a position, heaviest move first.
+			for(int j = 1; j < n; ++j) {
+				for(int i = j; i > 0 && k[i - 1] == k[i] && weight[i - 1] < weight[i]; --i) {
+					int t = weight[i]; weight[i] = weight[i - 1]; weight[i - 1] = t;
+					t = index[i]; index[i] = index[i - 1]; index[i - 1] = t;
+				}
+			}
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+				for(int j = 0; j < n; ++j) {
+					out.writeLong(k[j]);
+					out.writeShort(moves[index[j]]);
+					out.writeShort(weight[j]);
+					out.writeInt(games[index[j]]);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return n;
+		}
+	}
+
+	// Usage: OpeningBook build <book> [--plies n] [--min n] <file.pgn>... | probe <book> [fen];
+	// builds a book from PGN collections, or lists the book moves of a position.
+	public static void main(String[] args) throws IOException {
+		if(args.length >= 3 && args[0].equals("build")) {
+			Path book = Paths.get(args[1]);
+			int plies = DEFAULT_PLIES, minGames = DEFAULT_MIN_GAMES;
+			List<Path> sources = new ArrayList<>();
+			for(int i = 2; i < args.length; ++i) {
+				if(args[i].equals("--plies") && i + 1 < args.length) plies = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--min") && i + 1 < args.length) minGames = Integer.parseInt(args[++i]);
+				else sources.add(Paths.get(args[i]));
+			}
+			long start = System.nanoTime();
+			Builder builder = new Builder(plies);
+			for(Path pgn : sources)
+				System.out.println(pgn + ": " + PgnReader.read(pgn, Runtime.getRuntime().availableProcessors(), builder::add));
+			int records = builder.write(book, minGames);
+			System.out.printf("%d games, %d records, %.1f KB in %.1f s%n", builder.gamesAdded, records,
+					Files.size(book) / 1e3, (System.nanoTime() - start) / 1e9);
+		}
+		else if(args.length >= 2 && args[0].equals("probe")) {
+			String fen = args.length > 2 ? String.join(" ", Arrays.asList(args).subList(2, args.length)) : Position.START_FEN;
+			Position p = Position.fromFen(fen);
+			try(OpeningBook book = new OpeningBook(Paths.get(args[1]))) {
+				MoveList moves = new MoveList();
+				int[] weights = new int[MoveList.CAPACITY];
+				int n = 0;
+				long start = 0;
+				// The first half warms the JIT up; the second is timed.
+				for(int i = -100000; i < 100000; ++i) {
+					if(i == 0) start = System.nanoTime();
+					moves.clear();
+					n = book.probe(p, moves, weights);
+				}
+				System.out.printf("%d book moves, %.2f us per probe over %d records%n", n, (System.nanoTime() - start) / 1e8, book.size());
+				MoveList buffer = new MoveList();
+				for(int i = 0; i < n; ++i)
+					System.out.printf("%-8s weight %5d%n", San.toString(p, moves.get(i), buffer), weights[i]);
+			}
+		}
+		else {
+			System.out.println("Usage: OpeningBook build <book> [--plies n] [--min n] <file.pgn>... | probe <book> [fen]");
+		}
+	}
+}
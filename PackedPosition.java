@@ -0,0 +1,149 @@
+package chess;
+
+// PackedPosition stores a position in three longs, 24 bytes, instead of a Position's arrays and undo
+// records: the occupancy bitboard, then one 4-bit code per occupied square in square order, the first
+// 16 in the second long and the rest in the third. Codes 0 to 5 are white king, queen, bishop, knight,
+// rook and pawn, and 6 to 11 the same for black. The rest of the state is folded into the spare codes:
+//   12 a pawn that has just moved two squares and can be taken en passant; its row gives its color,
+//   13 and 14 a white or black rook that can still castle,
+//   15 the black king when black is to move.
+// An en passant square no pawn can take on is left out, like in the Zobrist key, and the move counters
+// are not stored, so a position has exactly one encoding and two positions are equal for the rules
+// exactly when their encodings are equal. A legal position has at most 32 pieces, and always a king,
+// so the occupancy is never 0.
+final class PackedPosition {
+	static final int LONGS = 3;
+	static final int BYTES = 8 * LONGS;
+	private static final int EN_PASSANT_PAWN = 12;
+	private static final int WHITE_CASTLING_ROOK = 13;
+	private static final int BLACK_CASTLING_ROOK = 14;
+	private static final int BLACK_KING_TO_MOVE = 15;
+	// Castling right of the rook that starts on each square, or 0.
+	private static final int[] CASTLING_ROOK = new int[64];
+
+	static {
+		CASTLING_ROOK[Position.square(7, 7)] = Position.WHITE_KINGSIDE;
+		CASTLING_ROOK[Position.square(7, 0)] = Position.WHITE_QUEENSIDE;
+		CASTLING_ROOK[Position.square(0, 7)] = Position.BLACK_KINGSIDE;
+		CASTLING_ROOK[Position.square(0, 0)] = Position.BLACK_QUEENSIDE;
+	}
+
+	private PackedPosition() {
+	}
+
+	// Packs a position into out[off..off + 3).
+	static void encode(Position p, long[] out, int off) {
+		long occ = p.occupied();
+		if(Long.bitCount(occ) > 32)
+			throw new IllegalArgumentException("Too many pieces to pack: " + Long.bitCount(occ));
+		long white = p.pieces(PlayerColor.white);
+		PlayerColor turn = p.getTurn();
+		int castling = p.getCastling();
+		int epPawn = -1;
+		int ep = p.getEnPassant();
+		if(ep >= 0 && (Bitboards.PAWN_ATTACKS[Position.opponent(turn).ordinal()][ep] & p.pieces(turn, PieceType.pawn)) != 0)
+			epPawn = (turn == PlayerColor.white) ? ep + 8 : ep - 8;
+		long lo = 0, hi = 0;
+		int i = 0;
+		for(long all = occ; all != 0; all &= all - 1, ++i) {
+			int sq = Long.numberOfTrailingZeros(all);
+			PieceType type = p.typeAt(sq);
+			boolean isWhite = (white & (1L << sq)) != 0;
+			long code;
+			if(sq == epPawn)
+				code = EN_PASSANT_PAWN;
+			else if(type == PieceType.rook && (castling & CASTLING_ROOK[sq] & (isWhite ? 3 : 12)) != 0)
+				code = isWhite ? WHITE_CASTLING_ROOK : BLACK_CASTLING_ROOK;
+			else if(type == PieceType.king && !isWhite && turn == PlayerColor.black)
+				code = BLACK_KING_TO_MOVE;
+			else
+				code = (isWhite ? 0 : 6) + type.ordinal();
+			if(i < 16) lo |= code << (4 * i);
+			else hi |= code << (4 * (i - 16));
+		}
+		out[off] = occ;
+		out[off + 1] = lo;
+		out[off + 2] = hi;
+	}
+
+	// Packs a position into a new array.
+	static long[] encode(Position p) {
+		long[] packed = new long[LONGS];
+		encode(p, packed, 0);
+		return packed;
+	}
+
+	// Sets a position up from its packing, with the move counters reset; its key is the key the
+	// position had when it was packed.
+	static void decode(long occ, long lo, long hi, Position p) {
+		long white = 0, kings = 0, queens = 0, bishops = 0, knights = 0, rooks = 0, pawns = 0;
+		PlayerColor turn = PlayerColor.white;
+		int castling = 0, ep = -1;
+		int i = 0;
+		for(long all = occ; all != 0; all &= all - 1, ++i) {
+			int sq = Long.numberOfTrailingZeros(all);
+			long bit = 1L << sq;
+			int code = (int) ((i < 16) ? lo >>> (4 * i) : hi >>> (4 * (i - 16))) & 15;
+			switch(code) {
+				case EN_PASSANT_PAWN:
+					pawns |= bit;
+					// A white pawn that moved two squares stands on row 4 and a black one on row 3.
+					if(sq >> 3 == 4) {
+						white |= bit;
+						ep = sq + 8;
+						turn = PlayerColor.black;
+					}
+					else
+						ep = sq - 8;
+					continue;
+				case WHITE_CASTLING_ROOK:
+					white |= bit;
+					rooks |= bit;
+					castling |= CASTLING_ROOK[sq];
+					continue;
+				case BLACK_CASTLING_ROOK:
+					rooks |= bit;
+					castling |= CASTLING_ROOK[sq];
+					continue;
+				case BLACK_KING_TO_MOVE:
+					kings |= bit;
+					turn = PlayerColor.black;
+					continue;
+				default:
+					break;
+			}
+			if(code < 6)
+				white |= bit;
+			switch(code % 6) {
+				case 0: kings |= bit; break;
+				case 1: queens |= bit; break;
+				case 2: bishops |= bit; break;
+				case 3: knights |= bit; break;
+				case 4: rooks |= bit; break;
+				default: pawns |= bit; break;
+			}
+		}
+		p.setPieces(white, occ & ~white, kings, queens, bishops, knights, rooks, pawns);
+		p.setState(turn, castling, ep, 0, 1);
+	}
+
+	// Sets a position up from the packing at packed[off..off + 3).
+	static void decode(long[] packed, int off, Position p) {
+		decode(packed[off], packed[off + 1], packed[off + 2], p);
+	}
+
+	// Unpacks a position into a new Position.
+	static Position decode(long[] packed, int off) {
+		Position p = new Position();
+		decode(packed, off, p);
+		return p;
+	}
+
+	// Hashes a packing; every bit of the result depends on every bit of the three longs.
+	static long hash(long occ, long lo, long hi) {
+		long h = occ * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 32) ^ lo) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 29) ^ hi) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+}
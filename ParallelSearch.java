@@ -0,0 +1,187 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// ParallelSearch runs a Lazy SMP search: every thread searches the whole tree from its own copy of
+// the position, and the threads help each other only through the shared transposition table.
+// Half of the helpers start one ply deeper so the threads drift apart and fill the table with
+// different lines. The main thread decides the move and reports; helpers are stopped when it finishes.
+public class ParallelSearch {
+	private final TranspositionTable table;
+	// The main thread's search is kept for good, so stop, resetStop and setTimeLimit reach the search
+	// that runs whichever thread calls them and whenever setThreads runs. The list of all searches,
+	// main first, is replaced whole by setThreads and never changed, so it can be read without locking.
+	private final Search main;
+	private volatile List<Search> workers = List.of();
+	private ExecutorService helpers;
+	private Consumer<SearchInfo> listener;
+
+	// Creates a search with the given number of threads and its own 16 MB transposition table.
+	public ParallelSearch(int threads) {
+		this(threads, new TranspositionTable(16));
+	}
+
+	// Creates a search with the given number of threads sharing a transposition table.
+	public ParallelSearch(int threads, TranspositionTable table) {
+		this.table = table;
+		main = new Search(table);
+		main.setListener(info -> {
+			if(listener != null)
+				listener.accept(withTotalNodes(info));
+		});
+		setThreads(threads);
+	}
+
+	// Changes the number of threads; must not be called while searching.
+	public synchronized void setThreads(int threads) {
+		if(threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive: " + threads);
+		if(helpers != null)
+			helpers.shutdownNow();
+		helpers = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, r -> {
+			Thread t = new Thread(r, "search-helper");
+			t.setDaemon(true);
+			return t;
+		}) : null;
+		List<Search> all = new ArrayList<>();
+		all.add(main);
+		for(int i = 1; i < threads; ++i)
+			all.add(new Search(table));
+		workers = List.copyOf(all);
+	}
+
+	// Returns the number of threads.
+	public int getThreads() {
+		return workers.size();
+	}
+
+	// Returns the shared transposition table.
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	// Sets a callback that receives the main thread's report after every completed iteration,
+	// with the nodes of all threads added up.
+	public void setListener(Consumer<SearchInfo> listener) {
+		this.listener = listener;
+	}
+
+	// Asks a running search to stop; safe to call from any thread.
+	public void stop() {
+		main.stop();
+	}
+
+	// Returns the nodes visited by all threads; approximate while a search is running.
+	public long getNodes() {
+		long nodes = 0;
+		for(Search w : workers)
+			nodes += w.getNodes();
+		return nodes;
+	}
+
+	// Gives a running search a time limit counted from now.
+	public void setTimeLimit(long millis) {
+		main.setTimeLimit(millis);
+	}
+
+	// Clears an earlier stop request; see runSearch.
+	void resetStop() {
+		main.resetStop();
+	}
+
+	// Searches the position like Search.search, using every thread. The position itself is not touched.
+	public SearchInfo search(Position p, int maxDepth, long millis) {
+		resetStop();
+		return runSearch(p, maxDepth, millis);
+	}
+
+	// Searches without clearing the stop flag first, so a caller that hands the search to another
+	// thread can call resetStop beforehand and never lose a stop sent in between.
+	synchronized SearchInfo runSearch(Position p, int maxDepth, long millis) {
+		List<Search> all = workers;
+		table.newSearch();
+		List<Future<?>> running = new ArrayList<>();
+		for(int i = 1; i < all.size(); ++i) {
+			Search helper = all.get(i);
+			helper.resetStop();
+			Position copy = new Position(p);
+			int firstDepth = 1 + (i & 1);
+			running.add(helpers.submit(() -> helper.run(copy, firstDepth, maxDepth, 0)));
+		}
+		SearchInfo result;
+		try {
+			result = main.run(new Position(p), 1, maxDepth, millis);
+		} finally {
+			for(int i = 1; i < all.size(); ++i)
+				all.get(i).stop();
+			for(Future<?> f : running)
+				waitFor(f);
+		}
+		return (result == null) ? null : withTotalNodes(result);
+	}
+
+	// Waits for a helper to finish, passing on any failure.
+	private static void waitFor(Future<?> f) {
+		try {
+			f.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	// Copies a report with the node count of all threads.
+	private SearchInfo withTotalNodes(SearchInfo info) {
+		int[] pv = info.getPv();
+		return new SearchInfo(info.depth, info.score, getNodes(), info.millis, pv, pv.length, info.hashfull);
+	}
+
+	// Stops the helper threads for good.
+	public synchronized void close() {
+		if(helpers != null)
+			helpers.shutdownNow();
+	}
+
+	// Searches each perft reference position for a fixed time; returns {nodes per second, average depth}.
+	static double[] measure(int threads, long millis) {
+		ParallelSearch search = new ParallelSearch(threads, new TranspositionTable(64));
+		long nodes = 0, time = 0, depth = 0;
+		for(String fen : Perft.SUITE_FENS) {
+			search.getTable().clear();
+			long start = System.currentTimeMillis();
+			SearchInfo info = search.search(Position.fromFen(fen), Search.MAX_PLY, millis);
+			time += System.currentTimeMillis() - start;
+			nodes += info.nodes;
+			depth += info.depth;
+		}
+		search.close();
+		return new double[] {nodes * 1000.0 / Math.max(time, 1), (double) depth / Perft.SUITE_FENS.length};
+	}
+
+	// Usage: ParallelSearch [millis] [maxThreads]; searches the perft reference positions with 1, 2, 4, ...
+	// threads for a fixed time each and prints how nodes/second and reached depth scale.
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for(int threads = 1; threads < maxThreads; threads *= 2)
+			counts.add(threads);
+		counts.add(maxThreads);
+		// An untimed pass first, so the JIT has compiled the search before anything is measured.
+		measure(1, millis / 4);
+		double baseNps = 0;
+		for(int threads : counts) {
+			double[] result = measure(threads, millis);
+			if(threads == 1) baseNps = result[0];
+			System.out.printf("threads %2d  nodes/s %,12.0f  scaling %.2fx  average depth %.1f%n",
+					threads, result[0], result[0] / baseNps, result[1]);
+		}
+	}
+}
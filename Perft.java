@@ -0,0 +1,161 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Perft counts the leaf nodes of the legal move tree to a fixed depth.
+// It measures move generation speed and checks it against well known reference counts.
+public class Perft {
+	// Standard reference positions and their node counts for depth 1, 2, 3, ...
+	static final String[] SUITE_FENS = {
+		Position.START_FEN,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+		"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+	};
+	static final long[][] SUITE_COUNTS = {
+		{20, 400, 8902, 197281, 4865609},
+		{48, 2039, 97862, 4085603},
+		{14, 191, 2812, 43238, 674624, 11030083},
+		{6, 264, 9467, 422333, 15833292},
+		{44, 1486, 62379, 2103487},
+		{46, 2079, 89890, 3894594},
+	};
+
+	// Counts the leaf nodes below a position.
+	public static long perft(Position p, int depth) {
+		return perft(p, depth, newBuffers(depth));
+	}
+
+	// Allocates one move buffer per ply.
+	static MoveList[] newBuffers(int depth) {
+		MoveList[] buffers = new MoveList[Math.max(depth, 1)];
+		for(int i = 0; i < buffers.length; ++i)
+			buffers[i] = new MoveList();
+		return buffers;
+	}
+
+	// Counts the leaf nodes below a position, reusing buffers[depth - 1] for the moves at each ply.
+	static long perft(Position p, int depth, MoveList[] buffers) {
+		if(depth == 0)
+			return 1;
+		MoveList moves = buffers[depth - 1];
+		moves.clear();
+		p.legalMoves(moves);
+		if(depth == 1)
+			return moves.size();
+		long nodes = 0;
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = moves.get(i);
+			p.makeMove(m);
+			nodes += perft(p, depth - 1, buffers);
+			p.unmakeMove(m);
+		}
+		return nodes;
+	}
+
+	// Counts the leaf nodes below a position, searching each depth-1 subtree on its own thread.
+	public static long perftParallel(Position root, int depth, int threads) throws InterruptedException {
+		if(depth <= 1)
+			return perft(root, depth);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> parts = new ArrayList<>();
+			MoveList moves = new MoveList();
+			root.legalMoves(moves);
+			for(int i = 0; i < moves.size(); ++i) {
+				Position p = new Position(root);
+				p.makeMove(moves.get(i));
+				parts.add(pool.submit(() -> perft(p, depth - 1)));
+			}
+			long nodes = 0;
+			for(Future<Long> f : parts)
+				nodes += f.get();
+			return nodes;
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Prints the node count of each root move, which helps locate a move generation bug.
+	static void divide(Position p, int depth) {
+		long total = 0;
+		MoveList moves = new MoveList();
+		p.legalMoves(moves);
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = moves.get(i);
+			p.makeMove(m);
+			long nodes = perft(p, depth - 1);
+			p.unmakeMove(m);
+			System.out.println(Move.toString(m) + ": " + nodes);
+			total += nodes;
+		}
+		System.out.println("total: " + total);
+	}
+
+	// Runs the reference suite up to a maximum depth; returns true if every count matches.
+	static boolean verify(int maxDepth) {
+		boolean ok = true;
+		for(int i = 0; i < SUITE_FENS.length; ++i) {
+			Position p = Position.fromFen(SUITE_FENS[i]);
+			for(int d = 1; d <= Math.min(maxDepth, SUITE_COUNTS[i].length); ++d) {
+				long expected = SUITE_COUNTS[i][d - 1];
+				long actual = perft(p, d);
+				boolean pass = actual == expected;
+				ok &= pass;
+				System.out.printf("%s  #%d depth %d: %d (expected %d)%n", pass ? "ok  " : "FAIL", i + 1, d, actual, expected);
+			}
+		}
+		return ok;
+	}
+
+	// Times one perft run and prints nodes and nodes per second.
+	static void report(String label, long nodes, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.printf("%-10s nodes %d  time %.3fs  %.0f nodes/s%n", label, nodes, seconds, nodes / Math.max(seconds, 1e-9));
+	}
+
+	// Usage: Perft [depth] [fen] | --divide depth [fen] | --verify [maxDepth]; --threads N sets the parallel run width.
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> rest = new ArrayList<>();
+		for(int i = 0; i < args.length; ++i) {
+			if(args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else rest.add(args[i]);
+		}
+
+		if(!rest.isEmpty() && rest.get(0).equals("--verify")) {
+			int maxDepth = rest.size() > 1 ? Integer.parseInt(rest.get(1)) : 4;
+			boolean ok = verify(maxDepth);
+			System.out.println(ok ? "All perft counts match." : "Perft mismatch.");
+			System.exit(ok ? 0 : 1);
+		}
+
+		boolean divide = !rest.isEmpty() && rest.get(0).equals("--divide");
+		if(divide) rest.remove(0);
+		int depth = rest.isEmpty() ? 5 : Integer.parseInt(rest.get(0));
+		String fen = rest.size() > 1 ? String.join(" ", rest.subList(1, rest.size())) : Position.START_FEN;
+		Position p = Position.fromFen(fen);
+
+		if(divide) {
+			divide(p, depth);
+			return;
+		}
+
+		long start = System.nanoTime();
+		long nodes = perft(p, depth);
+		report("single", nodes, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		nodes = perftParallel(p, depth, threads);
+		report(threads + " threads", nodes, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,125 @@
+package chess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// PgnGame is one game of a PGN database: its tag pairs, its moves from the starting position and its result.
+// The reader reuses one instance per thread, so a handler that keeps a game must copy it.
+public final class PgnGame {
+	// PGN lines are kept below this length when writing.
+	private static final int LINE_LENGTH = 79;
+
+	private final Map<String, String> tags = new LinkedHashMap<>();
+	private final MoveList moves = new MoveList();
+	private String result = "*";
+	// Offset of the game in the file it was read from, or -1.
+	long offset = -1;
+
+	// Creates an empty game from the initial position.
+	public PgnGame() {}
+
+	// Creates an independent copy of another game.
+	public PgnGame(PgnGame other) {
+		tags.putAll(other.tags);
+		for(int i = 0; i < other.moves.size(); ++i)
+			moves.add(other.moves.get(i));
+		result = other.result;
+		offset = other.offset;
+	}
+
+	// Empties the game for reuse.
+	void clear() {
+		tags.clear();
+		moves.clear();
+		result = "*";
+		offset = -1;
+	}
+
+	// Returns the value of a tag, or null.
+	public String getTag(String name) {
+		return tags.get(name);
+	}
+
+	// Sets a tag.
+	public void setTag(String name, String value) {
+		tags.put(name, value);
+	}
+
+	// Returns the tag pairs in the order they were read or set.
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	// Returns the moves played.
+	public MoveList getMoves() {
+		return moves;
+	}
+
+	// Appends a move.
+	public void addMove(int m) {
+		moves.add(m);
+	}
+
+	// Returns the result: "1-0", "0-1", "1/2-1/2" or "*".
+	public String getResult() {
+		return result;
+	}
+
+	// Sets the result.
+	public void setResult(String result) {
+		this.result = result;
+	}
+
+	// Returns the FEN the game starts from: its FEN tag, or the standard starting position.
+	public String getStartFen() {
+		String fen = tags.get("FEN");
+		return (fen != null) ? fen : Position.START_FEN;
+	}
+
+	// Returns the position after every move has been played.
+	public Position finalPosition() {
+		Position p = Position.fromFen(getStartFen());
+		for(int i = 0; i < moves.size(); ++i)
+			p.makeMove(moves.get(i));
+		return p;
+	}
+
+	// Writes the game as PGN: the tag pairs, a blank line, the SAN movetext wrapped to 80 columns and a blank line.
+	public String toPgn() {
+		StringBuilder sb = new StringBuilder(64 * 16 + moves.size() * 8);
+		for(Map.Entry<String, String> tag : tags.entrySet()) {
+			sb.append('[').append(tag.getKey()).append(" \"");
+			sb.append(tag.getValue().replace("\\", "\\\\").replace("\"", "\\\"")).append("\"]\n");
+		}
+		if(!tags.containsKey("Result"))
+			sb.append("[Result \"").append(result).append("\"]\n");
+		sb.append('\n');
+
+		Position p = Position.fromFen(getStartFen());
+		MoveList buffer = new MoveList();
+		int lineStart = sb.length();
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = moves.get(i);
+			String token = San.toString(p, m, buffer);
+			if(p.getTurn() == PlayerColor.white) token = p.getFullmoveNumber() + ". " + token;
+			else if(i == 0) token = p.getFullmoveNumber() + "... " + token;
+			lineStart = appendWrapped(sb, lineStart, token);
+			p.makeMove(m);
+		}
+		appendWrapped(sb, lineStart, result);
+		return sb.append("\n\n").toString();
+	}
+
+	// Appends a token after a space, or on a new line if the current one would grow too long; returns the line start.
+	private static int appendWrapped(StringBuilder sb, int lineStart, String token) {
+		if(sb.length() > lineStart) {
+			if(sb.length() - lineStart + 1 + token.length() > LINE_LENGTH) {
+				sb.append('\n');
+				lineStart = sb.length();
+			}
+			else sb.append(' ');
+		}
+		sb.append(token);
+		return lineStart;
+	}
+}
@@ -0,0 +1,395 @@
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// PgnReader streams games out of PGN databases of any size. A file is memory-mapped one chunk at a
+// time and never read as a whole; the chunks are parsed in parallel, each starting at the first game
+// that begins in it and reading on to the end of its last game. Every SAN move is resolved against
+// the legal moves of the game's position, so a game is only handed on if all of its moves are legal.
+// Comments, variations, NAGs and escape lines are skipped.
+public final class PgnReader {
+	// Bounds of the nominal chunk a task parses; four chunks per thread keep the threads evenly loaded.
+	static final long MIN_CHUNK = 1 << 20;
+	static final long MAX_CHUNK = 64 << 20;
+	// How far the last game of a chunk may run past the chunk's end.
+	static final int MAX_GAME = 4 << 20;
+	// Bytes mapped before a chunk, to see whether the chunk starts in a tag section.
+	private static final int LOOKBACK = 1024;
+
+	// Receives the games read; called on the reader threads, and with a PgnGame that is reused afterwards.
+	public interface GameHandler {
+		void game(PgnGame game);
+	}
+
+	// Totals of one read.
+	public static final class Summary {
+		public final long games, errors, moves, bytes, nanos;
+
+		// Creates a summary.
+		Summary(long games, long errors, long moves, long bytes, long nanos) {
+			this.games = games;
+			this.errors = errors;
+			this.moves = moves;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		// Returns the games read per second.
+		public double gamesPerSecond() {
+			return games * 1e9 / Math.max(nanos, 1);
+		}
+
+		// Formats the totals with games/s and MB/s.
+		@Override
+		public String toString() {
+			double seconds = nanos / 1e9;
+			return String.format("games %d  moves %d  errors %d  time %.3fs  %.0f games/s  %.1f MB/s",
+					games, moves, errors, seconds, gamesPerSecond(), bytes / 1e6 / Math.max(seconds, 1e-9));
+		}
+	}
+
+	private final ByteBuffer buf;
+	private final long base;
+	private final boolean endOfInput;
+	private final GameHandler handler;
+	private final Position position = new Position();
+	private final PgnGame game = new PgnGame();
+	private final MoveList buffer = new MoveList();
+	private final StringBuilder token = new StringBuilder();
+	private byte[] text = new byte[256];
+	private long games, errors, moves;
+
+	// Creates a reader over a buffer holding the bytes from file offset base on; endOfInput tells
+	// whether the buffer reaches the end of the file, or a game running past it is cut off.
+	private PgnReader(ByteBuffer buf, long base, boolean endOfInput, GameHandler handler) {
+		this.buf = buf;
+		this.base = base;
+		this.endOfInput = endOfInput;
+		this.handler = handler;
+	}
+
+	// Reads every game of a PGN file on a number of threads.
+	public static Summary read(Path file, int threads, GameHandler handler) throws IOException {
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (threads * 4L)));
+			List<Future<PgnReader>> parts = new ArrayList<>();
+			for(long a = 0; a < size; a += chunk) {
+				long from = a, to = Math.min(size, a + chunk);
+				parts.add(pool.submit(() -> readChunk(ch, size, from, to, handler)));
+			}
+			long games = 0, errors = 0, moves = 0;
+			for(Future<PgnReader> f : parts) {
+				PgnReader r = f.get();
+				games += r.games;
+				errors += r.errors;
+				moves += r.moves;
+			}
+			return new Summary(games, errors, moves, size, System.nanoTime() - start);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + file, e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Maps one chunk, with room for its last game to run on, and parses the games that start in it.
+	private static PgnReader readChunk(FileChannel ch, long size, long from, long to, GameHandler handler) throws IOException {
+		long mapStart = Math.max(0, from - LOOKBACK);
+		long mapEnd = Math.min(size, to + MAX_GAME);
+		ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+		PgnReader r = new PgnReader(buf, mapStart, mapEnd == size, handler);
+		int pos = (int) (from - mapStart);
+		if(from > 0)
+			pos = r.nextGameStart(pos);
+		r.parseGames(pos, (int) (to - mapStart));
+		return r;
+	}
+
+	// Reads the games of a PGN text held in memory, such as a pasted game.
+	public static List<PgnGame> parse(CharSequence pgn) {
+		List<PgnGame> list = new ArrayList<>();
+		ByteBuffer buf = ByteBuffer.wrap(pgn.toString().getBytes(StandardCharsets.UTF_8));
+		new PgnReader(buf, 0, true, g -> list.add(new PgnGame(g))).parseGames(0, buf.limit());
+		return list;
+	}
+
+	// Returns the first game start at or after pos: a '[' opening a line whose previous non-blank line
+	// is not a tag pair. A "\n[" inside a multi-line comment looks the same; such files are rare.
+	private int nextGameStart(int pos) {
+		for(int limit = buf.limit(); pos < limit; ++pos) {
+			if(buf.get(pos) != '[' || buf.get(pos - 1) != '\n')
+				continue;
+			int back = pos - 1;
+			while(back >= 0 && buf.get(back) <= ' ')
+				--back;
+			if(back < 0 || buf.get(back) != ']')
+				return pos;
+		}
+		return pos;
+	}
+
+	// Parses the games that start before stop; the last one may end anywhere before the buffer's limit.
+	private void parseGames(int pos, int stop) {
+		int limit = buf.limit();
+		boolean inGame = false, inMovetext = false, bad = false;
+		while(true) {
+			while(pos < limit && buf.get(pos) <= ' ')
+				++pos;
+			if(pos >= limit) {
+				// A game cut off by the end of the mapping rather than of the file is counted as bad.
+				if(inGame) finishGame(bad || !endOfInput);
+				return;
+			}
+			byte c = buf.get(pos);
+			if(c == '[' && inMovetext) {
+				// A tag pair after movetext opens the next game; the last one had no result.
+				finishGame(bad);
+				inGame = false;
+				inMovetext = false;
+			}
+			if(!inGame) {
+				if(pos >= stop)
+					return;
+				game.clear();
+				game.offset = base + pos;
+				inGame = true;
+				inMovetext = false;
+				bad = false;
+			}
+			if(c == '[') {
+				pos = parseTag(pos);
+				continue;
+			}
+			if(!inMovetext) {
+				inMovetext = true;
+				bad = !setUp();
+			}
+			switch(c) {
+				case '{':
+					pos = skipPast(pos, '}');
+					break;
+				case ';':
+				case '%':
+					pos = skipPast(pos, '\n');
+					break;
+				case '(':
+					pos = skipVariation(pos);
+					break;
+				case '$':
+				case ')':
+				case '}':
+					do ++pos; while(pos < limit && buf.get(pos) > ' ' && "{([;".indexOf(buf.get(pos)) < 0);
+					break;
+				default:
+					pos = readToken(pos);
+					if(isResult(token)) {
+						game.setResult(token.toString());
+						finishGame(bad);
+						inGame = false;
+						inMovetext = false;
+					}
+					else if(!bad) {
+						bad = !playToken();
+					}
+					break;
+			}
+		}
+	}
+
+	// Sets the position up for the movetext from the FEN tag, if any; returns false for a bad FEN.
+	private boolean setUp() {
+		try {
+			position.setFen(game.getStartFen());
+			return true;
+		} catch(RuntimeException e) {
+			return false;
+		}
+	}
+
+	// Plays the move in the token, after any move number; returns false if it is not a legal move.
+	private boolean playToken() {
+		int i = 0, n = token.length();
+		while(i < n && Character.isDigit(token.charAt(i)))
+			++i;
+		if(i > 0 && i < n && token.charAt(i) == '.') {
+			while(i < n && token.charAt(i) == '.')
+				++i;
+			token.delete(0, i);
+		}
+		if(token.length() == 0)
+			return true;
+		int m = San.parse(position, token, buffer);
+		if(m == Move.NONE)
+			return false;
+		position.makeMove(m);
+		game.addMove(m);
+		return true;
+	}
+
+	// Hands a finished game on, or counts it as an error.
+	private void finishGame(boolean bad) {
+		if(bad) {
+			++errors;
+			return;
+		}
+		String tagged = game.getTag("Result");
+		if(game.getResult().equals("*") && tagged != null)
+			game.setResult(tagged);
+		++games;
+		moves += game.getMoves().size();
+		handler.game(game);
+	}
+
+	// Determines if a token is a game result.
+	private static boolean isResult(CharSequence t) {
+		switch(t.length()) {
+			case 1: return t.charAt(0) == '*';
+			case 3: return t.charAt(1) == '-' && ((t.charAt(0) == '1' && t.charAt(2) == '0') || (t.charAt(0) == '0' && t.charAt(2) == '1'));
+			case 7: return t.toString().equals("1/2-1/2");
+			default: return false;
+		}
+	}
+
+	// Reads a movetext token into the token buffer; returns the position after it.
+	private int readToken(int pos) {
+		token.setLength(0);
+		for(int limit = buf.limit(); pos < limit; ++pos) {
+			byte c = buf.get(pos);
+			if(c <= ' ' || c == '{' || c == '(' || c == ')' || c == ';' || c == '[' || c == '$')
+				break;
+			token.append((char) c);
+		}
+		return pos;
+	}
+
+	// Parses a tag pair such as [White "Carlsen, Magnus"]; returns the position after it.
+	private int parseTag(int pos) {
+		int limit = buf.limit();
+		int nameStart = ++pos;
+		while(pos < limit && buf.get(pos) > ' ' && buf.get(pos) != '"' && buf.get(pos) != ']')
+			++pos;
+		String name = new String(bytes(nameStart, pos), 0, pos - nameStart, StandardCharsets.US_ASCII);
+		while(pos < limit && buf.get(pos) != '"' && buf.get(pos) != ']' && buf.get(pos) != '\n')
+			++pos;
+		if(pos >= limit || buf.get(pos) != '"')
+			return skipPast(pos - 1, '\n');
+		int length = 0;
+		for(++pos; pos < limit && buf.get(pos) != '"' && buf.get(pos) != '\n'; ++pos) {
+			byte c = buf.get(pos);
+			if(c == '\\' && pos + 1 < limit) c = buf.get(++pos);
+			if(length == text.length) text = Arrays.copyOf(text, length * 2);
+			text[length++] = c;
+		}
+		game.setTag(name, new String(text, 0, length, StandardCharsets.UTF_8));
+		while(pos < limit && buf.get(pos) != ']' && buf.get(pos) != '\n')
+			++pos;
+		return pos + 1;
+	}
+
+	// Copies a range of the buffer into the text scratch array.
+	private byte[] bytes(int from, int to) {
+		if(to - from > text.length) text = new byte[to - from];
+		for(int i = from; i < to; ++i)
+			text[i - from] = buf.get(i);
+		return text;
+	}
+
+	// Returns the position after the next occurrence of a byte, starting after pos.
+	private int skipPast(int pos, char end) {
+		int limit = buf.limit();
+		for(++pos; pos < limit; ++pos) {
+			if(buf.get(pos) == end)
+				return pos + 1;
+		}
+		return limit;
+	}
+
+	// Skips a variation with any nested variations and comments in it.
+	private int skipVariation(int pos) {
+		int limit = buf.limit(), depth = 0;
+		for(; pos < limit; ++pos) {
+			byte c = buf.get(pos);
+			if(c == '{') pos = skipPast(pos, '}') - 1;
+			else if(c == '(') ++depth;
+			else if(c == ')' && --depth == 0) return pos + 1;
+		}
+		return limit;
+	}
+
+	// Writes a database of random legal games, for benchmarking the reader; returns the bytes written.
+	static long generate(Path file, int count, long seed) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		MoveList legal = new MoveList();
+		try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for(int n = 1; n <= count; ++n) {
+				PgnGame g = new PgnGame();
+				g.setTag("Event", "Random games");
+				g.setTag("Site", "?");
+				g.setTag("Date", "????.??.??");
+				g.setTag("Round", Integer.toString(n));
+				g.setTag("White", "Random " + random.nextInt(1000));
+				g.setTag("Black", "Random " + random.nextInt(1000));
+				Position p = Position.fromFen(Position.START_FEN);
+				String result = "1/2-1/2";
+				for(int ply = 0; ply < 200; ++ply) {
+					legal.clear();
+					p.legalMoves(legal);
+					if(legal.isEmpty()) {
+						if(p.isCheck(p.getTurn())) result = (p.getTurn() == PlayerColor.white) ? "0-1" : "1-0";
+						break;
+					}
+					int m = legal.get(random.nextInt(legal.size()));
+					p.makeMove(m);
+					g.addMove(m);
+				}
+				g.setTag("Result", result);
+				g.setResult(result);
+				out.write(g.toPgn());
+			}
+		}
+		return Files.size(file);
+	}
+
+	// Usage: PgnReader <file.pgn> [threads] | --generate <file.pgn> <games>; reads a database on one
+	// thread and then on all cores, reporting games/s.
+	public static void main(String[] args) throws IOException {
+		if(args.length > 2 && args[0].equals("--generate")) {
+			long bytes = generate(Paths.get(args[1]), Integer.parseInt(args[2]), 1);
+			System.out.printf("Wrote %s games, %.1f MB%n", args[2], bytes / 1e6);
+			return;
+		}
+		if(args.length == 0) {
+			System.out.println("Usage: PgnReader <file.pgn> [threads] | --generate <file.pgn> <games>");
+			return;
+		}
+		Path file = Paths.get(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		GameHandler ignore = g -> {};
+		System.out.println("1 thread    " + read(file, 1, ignore));
+		System.out.printf("%-11s %s%n", threads + " threads", read(file, threads, ignore));
+	}
+}
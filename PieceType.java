@@ -0,0 +1,4 @@
+package chess;
+
+// Enumeration for different types of chess pieces.
+public enum PieceType {king, queen, bishop, knight, rook, pawn, none}
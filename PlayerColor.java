@@ -0,0 +1,4 @@
+package chess;
+
+// Enumeration for player colors.
+public enum PlayerColor {black, white, none}
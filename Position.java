@@ -0,0 +1,842 @@
+package chess;
+
+import java.util.Arrays;
+
+// Position owns the state of a chess board and the move rules that apply to it.
+// It never touches Swing, so it can be used by bots, batch jobs or off the event thread.
+// Pieces are kept twice: as bitboards for move generation and attack queries, and as a
+// square-indexed mailbox for answering "what is on this square" in one read.
+// Moves are int-encoded (see Move) and the state they overwrite is kept on a preallocated undo
+// stack, so generating, making and unmaking moves allocates nothing in steady state.
+// A Zobrist key of the position is kept up to date by every change (see Zobrist).
+public class Position {
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	// Castling right bits.
+	static final int WHITE_KINGSIDE = 1;
+	static final int WHITE_QUEENSIDE = 2;
+	static final int BLACK_KINGSIDE = 4;
+	static final int BLACK_QUEENSIDE = 8;
+
+	private static final PieceType[] PROMOTIONS = {PieceType.queen, PieceType.rook, PieceType.bishop, PieceType.knight};
+	private static final PieceType[] TYPES = PieceType.values();
+	private static final PlayerColor[] COLORS = PlayerColor.values();
+	// FEN letters of the black pieces by PieceType.ordinal().
+	static final String PIECE_LETTERS = "kqbnrp";
+	// Initial undo stack depth; kept small because a server may hold tens of thousands of positions.
+	private static final int UNDO_CAPACITY = 128;
+
+	// Castling rights that survive a move touching each square; a king or rook leaving home clears its bits.
+	private static final int[] CASTLING_MASK = new int[64];
+	static {
+		for(int sq = 0; sq < 64; ++sq) CASTLING_MASK[sq] = 15;
+		CASTLING_MASK[square(7, 4)] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+		CASTLING_MASK[square(7, 7)] &= ~WHITE_KINGSIDE;
+		CASTLING_MASK[square(7, 0)] &= ~WHITE_QUEENSIDE;
+		CASTLING_MASK[square(0, 4)] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		CASTLING_MASK[square(0, 7)] &= ~BLACK_KINGSIDE;
+		CASTLING_MASK[square(0, 0)] &= ~BLACK_QUEENSIDE;
+	}
+
+	private final PieceType[] types = new PieceType[64];
+	private final PlayerColor[] colors = new PlayerColor[64];
+	// Bitboards of each piece type (both colors) by PieceType.ordinal() and of each side by PlayerColor.ordinal().
+	private final long[] typeBB = new long[7];
+	private final long[] colorBB = new long[3];
+	private PlayerColor turn = PlayerColor.white;
+	private int castling;
+	private int enPassant = -1;
+	private int halfmoveClock;
+	private int fullmoveNumber = 1;
+	private long key;
+
+	// Check information for the side to move: squares of checking pieces, pinned own pieces,
+	// and the squares a non-king move must reach to answer a single check.
+	private long checkers;
+	private long pinned;
+	private long evasions;
+	private boolean checkInfoValid;
+
+	// Undo stack, one entry per move played: the captured piece (type ordinal | color ordinal << 3),
+	// and the castling, en passant, clock, check state and key the move overwrote.
+	private int ply;
+	private long[] undoKey = new long[UNDO_CAPACITY];
+	private int[] undoCaptured = new int[UNDO_CAPACITY];
+	private int[] undoState = new int[UNDO_CAPACITY];
+	private long[] undoCheckers = new long[UNDO_CAPACITY];
+	private long[] undoPinned = new long[UNDO_CAPACITY];
+	private long[] undoEvasions = new long[UNDO_CAPACITY];
+
+	// Scratch buffer for the mate and stalemate tests.
+	private final MoveList scratch = new MoveList();
+
+	// Creates an empty board with white to move.
+	public Position() {
+		clear();
+	}
+
+	// Creates an independent copy of another position, undo stack included, so the copy can also take
+	// back the moves that led to it and see repetitions of earlier positions.
+	public Position(Position other) {
+		System.arraycopy(other.types, 0, types, 0, 64);
+		System.arraycopy(other.colors, 0, colors, 0, 64);
+		System.arraycopy(other.typeBB, 0, typeBB, 0, typeBB.length);
+		System.arraycopy(other.colorBB, 0, colorBB, 0, colorBB.length);
+		turn = other.turn;
+		castling = other.castling;
+		enPassant = other.enPassant;
+		halfmoveClock = other.halfmoveClock;
+		fullmoveNumber = other.fullmoveNumber;
+		key = other.key;
+		checkers = other.checkers;
+		pinned = other.pinned;
+		evasions = other.evasions;
+		checkInfoValid = other.checkInfoValid;
+		ply = other.ply;
+		if(ply > UNDO_CAPACITY) {
+			int n = other.undoState.length;
+			undoKey = new long[n];
+			undoCaptured = new int[n];
+			undoState = new int[n];
+			undoCheckers = new long[n];
+			undoPinned = new long[n];
+			undoEvasions = new long[n];
+		}
+		System.arraycopy(other.undoKey, 0, undoKey, 0, ply);
+		System.arraycopy(other.undoCaptured, 0, undoCaptured, 0, ply);
+		System.arraycopy(other.undoState, 0, undoState, 0, ply);
+		System.arraycopy(other.undoCheckers, 0, undoCheckers, 0, ply);
+		System.arraycopy(other.undoPinned, 0, undoPinned, 0, ply);
+		System.arraycopy(other.undoEvasions, 0, undoEvasions, 0, ply);
+	}
+
+	// Creates a position from a FEN string.
+	public static Position fromFen(String fen) {
+		Position p = new Position();
+		p.setFen(fen);
+		return p;
+	}
+
+	// Converts a (row, column) pair to a square index.
+	static int square(int x, int y) {
+		return x * 8 + y;
+	}
+
+	// Returns the bit of a square in a 64-bit square set.
+	static long bit(int sq) {
+		return 1L << sq;
+	}
+
+	// Determines if a (row, column) pair lies on the board.
+	static boolean onBoard(int x, int y) {
+		return x >= 0 && x < 8 && y >= 0 && y < 8;
+	}
+
+	// Removes every piece from the board.
+	public final void clear() {
+		for(int sq = 0; sq < 64; ++sq) {
+			types[sq] = PieceType.none;
+			colors[sq] = PlayerColor.none;
+		}
+		Arrays.fill(typeBB, 0);
+		Arrays.fill(colorBB, 0);
+		turn = PlayerColor.white;
+		castling = 0;
+		enPassant = -1;
+		halfmoveClock = 0;
+		fullmoveNumber = 1;
+		checkInfoValid = false;
+		ply = 0;
+		key = 0;
+	}
+
+	// Sets up the standard starting position.
+	public void setInitial() {
+		setFen(START_FEN);
+	}
+
+	// Loads the board from a FEN string.
+	public void setFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		if(fields.length < 4)
+			throw new IllegalArgumentException("Incomplete FEN: " + fen);
+		clear();
+		int x = 0, y = 0;
+		for(char c : fields[0].toCharArray()) {
+			if(c == '/') {
+				++x;
+				y = 0;
+			}
+			else if(c >= '1' && c <= '8') {
+				y += c - '0';
+			}
+			else {
+				if(!onBoard(x, y))
+					throw new IllegalArgumentException("Bad FEN board: " + fen);
+				put(x, y, Character.isUpperCase(c) ? PlayerColor.white : PlayerColor.black, pieceType(c));
+				++y;
+			}
+		}
+		turn = fields[1].equals("b") ? PlayerColor.black : PlayerColor.white;
+		for(char c : fields[2].toCharArray()) {
+			switch(c) {
+				case 'K': castling |= WHITE_KINGSIDE; break;
+				case 'Q': castling |= WHITE_QUEENSIDE; break;
+				case 'k': castling |= BLACK_KINGSIDE; break;
+				case 'q': castling |= BLACK_QUEENSIDE; break;
+				default: break;
+			}
+		}
+		enPassant = fields[3].equals("-") ? -1 : parseSquare(fields[3]);
+		if(fields.length > 4) halfmoveClock = Integer.parseInt(fields[4]);
+		if(fields.length > 5) fullmoveNumber = Integer.parseInt(fields[5]);
+		checkInfoValid = false;
+		key = computeKey();
+	}
+
+	// Writes the position as a FEN string, the inverse of setFen.
+	public String toFen() {
+		StringBuilder sb = new StringBuilder(90);
+		for(int x = 0; x < 8; ++x) {
+			int empty = 0;
+			for(int y = 0; y < 8; ++y) {
+				int sq = square(x, y);
+				if(types[sq] == PieceType.none) {
+					++empty;
+					continue;
+				}
+				if(empty > 0) sb.append(empty);
+				empty = 0;
+				char c = PIECE_LETTERS.charAt(types[sq].ordinal());
+				sb.append(colors[sq] == PlayerColor.white ? Character.toUpperCase(c) : c);
+			}
+			if(empty > 0) sb.append(empty);
+			if(x < 7) sb.append('/');
+		}
+		sb.append(turn == PlayerColor.black ? " b " : " w ");
+		if(castling == 0) sb.append('-');
+		if((castling & WHITE_KINGSIDE) != 0) sb.append('K');
+		if((castling & WHITE_QUEENSIDE) != 0) sb.append('Q');
+		if((castling & BLACK_KINGSIDE) != 0) sb.append('k');
+		if((castling & BLACK_QUEENSIDE) != 0) sb.append('q');
+		sb.append(' ').append(enPassant < 0 ? "-" : Move.squareName(enPassant));
+		return sb.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+	}
+
+	// Maps a FEN piece letter to its type.
+	static PieceType pieceType(char c) {
+		switch(Character.toLowerCase(c)) {
+			case 'k': return PieceType.king;
+			case 'q': return PieceType.queen;
+			case 'b': return PieceType.bishop;
+			case 'n': return PieceType.knight;
+			case 'r': return PieceType.rook;
+			case 'p': return PieceType.pawn;
+			default: throw new IllegalArgumentException("Unknown piece: " + c);
+		}
+	}
+
+	// Parses a square in algebraic notation such as "e4".
+	static int parseSquare(String s) {
+		int y = s.charAt(0) - 'a';
+		int x = '8' - s.charAt(1);
+		if(!onBoard(x, y))
+			throw new IllegalArgumentException("Bad square: " + s);
+		return square(x, y);
+	}
+
+	// Adds a piece to an empty square.
+	private void place(int sq, PlayerColor pc, PieceType type) {
+		types[sq] = type;
+		colors[sq] = pc;
+		typeBB[type.ordinal()] |= bit(sq);
+		colorBB[pc.ordinal()] |= bit(sq);
+		key ^= Zobrist.PIECE[pc.ordinal()][type.ordinal()][sq];
+	}
+
+	// Empties a square.
+	private void remove(int sq) {
+		key ^= Zobrist.PIECE[colors[sq].ordinal()][types[sq].ordinal()][sq];
+		typeBB[types[sq].ordinal()] &= ~bit(sq);
+		colorBB[colors[sq].ordinal()] &= ~bit(sq);
+		types[sq] = PieceType.none;
+		colors[sq] = PlayerColor.none;
+	}
+
+	// Places a piece on a square, replacing whatever was there.
+	public void put(int x, int y, PlayerColor pc, PieceType type) {
+		int sq = square(x, y);
+		if(types[sq] != PieceType.none)
+			remove(sq);
+		if(type != PieceType.none && pc != PlayerColor.none)
+			place(sq, pc, type);
+		checkInfoValid = false;
+		ply = 0;
+	}
+
+	// Gets the type of the piece on a square.
+	public PieceType typeAt(int x, int y) {
+		return types[square(x, y)];
+	}
+
+	// Gets the color of the piece on a square.
+	public PlayerColor colorAt(int x, int y) {
+		return colors[square(x, y)];
+	}
+
+	// Returns the bitboard of the pieces of one color and type.
+	public long pieces(PlayerColor pc, PieceType type) {
+		return colorBB[pc.ordinal()] & typeBB[type.ordinal()];
+	}
+
+	// Returns the bitboard of all pieces of one color.
+	public long pieces(PlayerColor pc) {
+		return colorBB[pc.ordinal()];
+	}
+
+	// Returns the bitboard of all occupied squares.
+	public long occupied() {
+		return colorBB[PlayerColor.white.ordinal()] | colorBB[PlayerColor.black.ordinal()];
+	}
+
+	// Returns the side to move.
+	public PlayerColor getTurn() {
+		return turn;
+	}
+
+	// Sets the side to move.
+	public void setTurn(PlayerColor turn) {
+		this.turn = turn;
+		checkInfoValid = false;
+		ply = 0;
+		key = computeKey();
+	}
+
+	// Replaces every piece with the pieces of bitboards by color and by type, for decoders that work out
+	// whole bitboards; the key is only right after the setState that must follow.
+	void setPieces(long white, long black, long kings, long queens, long bishops, long knights, long rooks, long pawns) {
+		Arrays.fill(types, PieceType.none);
+		Arrays.fill(colors, PlayerColor.none);
+		colorBB[PlayerColor.white.ordinal()] = white;
+		colorBB[PlayerColor.black.ordinal()] = black;
+		typeBB[PieceType.king.ordinal()] = kings;
+		typeBB[PieceType.queen.ordinal()] = queens;
+		typeBB[PieceType.bishop.ordinal()] = bishops;
+		typeBB[PieceType.knight.ordinal()] = knights;
+		typeBB[PieceType.rook.ordinal()] = rooks;
+		typeBB[PieceType.pawn.ordinal()] = pawns;
+		for(int t = 0; t < 6; ++t) {
+			for(long all = typeBB[t]; all != 0; all &= all - 1)
+				types[Long.numberOfTrailingZeros(all)] = TYPES[t];
+		}
+		for(long all = white; all != 0; all &= all - 1)
+			colors[Long.numberOfTrailingZeros(all)] = PlayerColor.white;
+		for(long all = black; all != 0; all &= all - 1)
+			colors[Long.numberOfTrailingZeros(all)] = PlayerColor.black;
+	}
+
+	// Sets everything but the pieces: side to move, castling right bits, en passant square (or -1) and
+	// move counters, for building a position piece by piece.
+	void setState(PlayerColor turn, int castling, int enPassant, int halfmoveClock, int fullmoveNumber) {
+		this.turn = turn;
+		this.castling = castling;
+		this.enPassant = enPassant;
+		this.halfmoveClock = halfmoveClock;
+		this.fullmoveNumber = fullmoveNumber;
+		checkInfoValid = false;
+		ply = 0;
+		key = computeKey();
+	}
+
+	// Returns the castling right bits.
+	public int getCastling() {
+		return castling;
+	}
+
+	// Returns the square a pawn may capture en passant onto, or -1.
+	public int getEnPassant() {
+		return enPassant;
+	}
+
+	// Returns the number of half moves since the last capture or pawn move.
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+
+	// Returns the number of the current full move.
+	public int getFullmoveNumber() {
+		return fullmoveNumber;
+	}
+
+	// Returns the Zobrist key of the position.
+	public long getKey() {
+		return key;
+	}
+
+	// Hashes the position from scratch; makeMove and unmakeMove keep the same value up to date incrementally.
+	long computeKey() {
+		long k = Zobrist.CASTLING[castling] ^ enPassantKey();
+		if(turn == PlayerColor.black)
+			k ^= Zobrist.BLACK_TO_MOVE;
+		for(long all = occupied(); all != 0; all &= all - 1) {
+			int sq = Long.numberOfTrailingZeros(all);
+			k ^= Zobrist.PIECE[colors[sq].ordinal()][types[sq].ordinal()][sq];
+		}
+		return k;
+	}
+
+	// Returns the en passant part of the key: the column's key if a pawn of the side to move can
+	// take en passant, otherwise 0, so an unusable en passant square does not split equal positions.
+	private long enPassantKey() {
+		if(enPassant < 0 || turn == PlayerColor.none)
+			return 0;
+		long takers = Bitboards.PAWN_ATTACKS[opponent(turn).ordinal()][enPassant] & pieces(turn, PieceType.pawn);
+		return (takers != 0) ? Zobrist.EN_PASSANT[enPassant & 7] : 0;
+	}
+
+	// Returns the opposite color.
+	static PlayerColor opponent(PlayerColor pc) {
+		return (pc == PlayerColor.black) ? PlayerColor.white : PlayerColor.black;
+	}
+
+	// Counts the earlier occurrences of the current position, comparing keys. Only positions since the
+	// last capture or pawn move, with the same side to move, can repeat it, so at most one key in two
+	// of the last halfmoveClock plies is looked at.
+	public int repetitions() {
+		int count = 0;
+		for(int i = ply - 2; i >= Math.max(0, ply - halfmoveClock); i -= 2) {
+			if(undoKey[i] == key)
+				++count;
+		}
+		return count;
+	}
+
+	// Determines if the position has occurred before, which the search scores as a draw.
+	public boolean isRepetition() {
+		return repetitions() > 0;
+	}
+
+	// Determines if the game is drawn by threefold repetition or by the fifty-move rule.
+	public boolean isDrawByRule() {
+		return repetitions() >= 2 || halfmoveClock >= 100;
+	}
+
+	// Returns the number of moves that can be taken back with unmakeMove.
+	public int getPly() {
+		return ply;
+	}
+
+	// Doubles the undo stack when a game plus a search runs deeper than it.
+	private void growUndo() {
+		int n = undoState.length * 2;
+		undoCaptured = Arrays.copyOf(undoCaptured, n);
+		undoState = Arrays.copyOf(undoState, n);
+		undoCheckers = Arrays.copyOf(undoCheckers, n);
+		undoPinned = Arrays.copyOf(undoPinned, n);
+		undoEvasions = Arrays.copyOf(undoEvasions, n);
+		undoKey = Arrays.copyOf(undoKey, n);
+	}
+
+	// Plays a move and passes the turn; the state it overwrites goes on the undo stack.
+	public void makeMove(int m) {
+		if(ply == undoState.length)
+			growUndo();
+		int from = Move.from(m), to = Move.to(m);
+		boolean enPassantCapture = Move.isEnPassant(m);
+		int capturedSq = enPassantCapture ? square(from >> 3, to & 7) : to;
+		PieceType captured = types[capturedSq];
+		PieceType moving = types[from];
+		PlayerColor pc = colors[from];
+
+		undoCaptured[ply] = captured.ordinal() | (colors[capturedSq].ordinal() << 3);
+		undoState[ply] = castling | ((enPassant + 1) << 4) | (halfmoveClock << 11) | (checkInfoValid ? 1 << 31 : 0);
+		undoCheckers[ply] = checkers;
+		undoPinned[ply] = pinned;
+		undoEvasions[ply] = evasions;
+		undoKey[ply] = key;
+		++ply;
+		key ^= Zobrist.CASTLING[castling] ^ enPassantKey();
+
+		if(captured != PieceType.none)
+			remove(capturedSq);
+		remove(from);
+		place(to, pc, Move.isPromotion(m) ? Move.promotion(m) : moving);
+		if(Move.isCastle(m)) {
+			int row = to >> 3;
+			remove(square(row, (to & 7) == 6 ? 7 : 0));
+			place(square(row, (to & 7) == 6 ? 5 : 3), pc, PieceType.rook);
+		}
+
+		castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+		enPassant = Move.isDoublePush(m) ? (from + to) / 2 : -1;
+		halfmoveClock = (moving == PieceType.pawn || captured != PieceType.none) ? 0 : halfmoveClock + 1;
+		if(turn == PlayerColor.black) ++fullmoveNumber;
+		turn = opponent(turn);
+		key ^= Zobrist.CASTLING[castling] ^ enPassantKey() ^ Zobrist.BLACK_TO_MOVE;
+		updateCheckInfo();
+	}
+
+	// Takes back the last move played with makeMove.
+	public void unmakeMove(int m) {
+		--ply;
+		turn = opponent(turn);
+		if(turn == PlayerColor.black) --fullmoveNumber;
+		int state = undoState[ply];
+		castling = state & 15;
+		enPassant = ((state >>> 4) & 127) - 1;
+		halfmoveClock = (state >>> 11) & 0xFFFFF;
+		checkInfoValid = state < 0;
+		checkers = undoCheckers[ply];
+		pinned = undoPinned[ply];
+		evasions = undoEvasions[ply];
+
+		int from = Move.from(m), to = Move.to(m);
+		PlayerColor pc = colors[to];
+		PieceType moved = Move.isPromotion(m) ? PieceType.pawn : types[to];
+		if(Move.isCastle(m)) {
+			int row = to >> 3;
+			remove(square(row, (to & 7) == 6 ? 5 : 3));
+			place(square(row, (to & 7) == 6 ? 7 : 0), pc, PieceType.rook);
+		}
+		remove(to);
+		place(from, pc, moved);
+		int captured = undoCaptured[ply];
+		if((captured & 7) != PieceType.none.ordinal())
+			place(Move.isEnPassant(m) ? square(from >> 3, to & 7) : to, COLORS[captured >>> 3], TYPES[captured & 7]);
+		key = undoKey[ply];
+	}
+
+	// Returns the pieces of either color that attack a square, for a given occupancy.
+	// pc is the color of the side being attacked, which decides the direction of the pawn captures.
+	long attackersTo(int sq, long occupied, PlayerColor pc) {
+		long queens = typeBB[PieceType.queen.ordinal()];
+		return (Bitboards.KNIGHT_ATTACKS[sq] & typeBB[PieceType.knight.ordinal()])
+				| (Bitboards.KING_ATTACKS[sq] & typeBB[PieceType.king.ordinal()])
+				| (Bitboards.PAWN_ATTACKS[pc.ordinal()][sq] & typeBB[PieceType.pawn.ordinal()])
+				| (Bitboards.rookAttacks(sq, occupied) & (typeBB[PieceType.rook.ordinal()] | queens))
+				| (Bitboards.bishopAttacks(sq, occupied) & (typeBB[PieceType.bishop.ordinal()] | queens));
+	}
+
+	// Checks if a square is attacked by the opponent of a given color, for a given occupancy.
+	private boolean isAttacked(int sq, PlayerColor pc, long occupied) {
+		return (attackersTo(sq, occupied, pc) & colorBB[opponent(pc).ordinal()]) != 0;
+	}
+
+	// Checks if a square is attacked by the opponent of a given color.
+	boolean isAttacked(int x, int y, PlayerColor pc) {
+		return isAttacked(square(x, y), pc, occupied());
+	}
+
+	// Recomputes checkers, pinned pieces and check evasion squares for the side to move.
+	private void updateCheckInfo() {
+		checkers = 0;
+		pinned = 0;
+		evasions = -1L;
+		checkInfoValid = true;
+		int king = kingSquare(turn);
+		if(king < 0)
+			return;
+		long occupied = occupied();
+		long enemy = colorBB[opponent(turn).ordinal()];
+		long queens = typeBB[PieceType.queen.ordinal()];
+		checkers = attackersTo(king, occupied, turn) & enemy;
+		long snipers = ((Bitboards.ROOK_PSEUDO[king] & (typeBB[PieceType.rook.ordinal()] | queens))
+				| (Bitboards.BISHOP_PSEUDO[king] & (typeBB[PieceType.bishop.ordinal()] | queens))) & enemy;
+		while(snipers != 0) {
+			int sniper = Long.numberOfTrailingZeros(snipers);
+			snipers &= snipers - 1;
+			long blockers = Bitboards.BETWEEN[king][sniper] & occupied;
+			if(blockers != 0 && (blockers & (blockers - 1)) == 0 && (blockers & colorBB[turn.ordinal()]) != 0)
+				pinned |= blockers;
+		}
+		if(checkers != 0) {
+			evasions = (Long.bitCount(checkers) == 1)
+					? checkers | Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(checkers)]
+					: 0;
+		}
+	}
+
+	// Makes sure the check information matches the current board.
+	private void ensureCheckInfo() {
+		if(!checkInfoValid)
+			updateCheckInfo();
+	}
+
+	// Returns the squares of the pieces giving check to the side to move.
+	public long getCheckers() {
+		ensureCheckInfo();
+		return checkers;
+	}
+
+	// Returns the squares of the side to move's pieces pinned against their king.
+	public long getPinned() {
+		ensureCheckInfo();
+		return pinned;
+	}
+
+	// Adds the legal moves of the piece on a square to a list.
+	public void legalMovesFrom(int x, int y, MoveList out) {
+		if(colors[square(x, y)] != turn)
+			return;
+		long timer = Metrics.start();
+		int start = out.size();
+		addMoves(x, y, out);
+		keepLegal(out, start);
+		Metrics.MOVE_GENERATION.stop(timer);
+	}
+
+	// Adds the legal moves of the piece on a square to a list, without timing it as legalMovesFrom does,
+	// for callers that run once per move parsed or written rather than once per click.
+	void movesOf(int sq, MoveList out) {
+		if(colors[sq] != turn)
+			return;
+		int start = out.size();
+		addMoves(sq >> 3, sq & 7, out);
+		keepLegal(out, start);
+	}
+
+	// Adds every legal move for the side to move to a list.
+	public void legalMoves(MoveList out) {
+		int start = out.size();
+		for(long own = colorBB[turn.ordinal()]; own != 0; own &= own - 1) {
+			int sq = Long.numberOfTrailingZeros(own);
+			addMoves(sq >> 3, sq & 7, out);
+		}
+		keepLegal(out, start);
+	}
+
+	// Adds the legal captures and promotions of the side to move to a list.
+	public void legalCaptures(MoveList out) {
+		int start = out.size();
+		for(long own = colorBB[turn.ordinal()]; own != 0; own &= own - 1)
+			addMoves(Long.numberOfTrailingZeros(own), true, out);
+		keepLegal(out, start);
+	}
+
+	// Returns the type of the piece a move captures, or none.
+	public PieceType capturedBy(int m) {
+		return Move.isEnPassant(m) ? PieceType.pawn : types[Move.to(m)];
+	}
+
+	// Returns the type of the piece standing on a square.
+	PieceType typeAt(int sq) {
+		return types[sq];
+	}
+
+	// Compacts the moves from an index onward, dropping those that leave the king in check.
+	private void keepLegal(MoveList list, int start) {
+		int kept = start;
+		for(int i = start; i < list.size(); ++i) {
+			int m = list.get(i);
+			if(isLegal(m))
+				list.set(kept++, m);
+		}
+		list.truncate(kept);
+	}
+
+	// Determines if a pseudo-legal move of the side to move keeps its own king out of check.
+	// Answered from the king square, checkers and pins; only en passant still needs a trial move.
+	boolean isLegal(int m) {
+		ensureCheckInfo();
+		int king = kingSquare(turn);
+		int from = Move.from(m), to = Move.to(m);
+		if(from == king)
+			return Move.isCastle(m) || !isAttacked(to, turn, occupied() ^ bit(king));
+		if(Move.isEnPassant(m))
+			return isLegalByTrial(m);
+		if((evasions & bit(to)) == 0)
+			return false;
+		return (pinned & bit(from)) == 0 || (Bitboards.LINE[king][from] & bit(to)) != 0;
+	}
+
+	// Determines legality by playing the move and looking at the king.
+	private boolean isLegalByTrial(int m) {
+		PlayerColor pc = turn;
+		makeMove(m);
+		boolean legal = !inCheck(pc);
+		unmakeMove(m);
+		return legal;
+	}
+
+	// Appends the moves of the piece on a square to a list.
+	void addMoves(int x, int y, MoveList out) {
+		addMoves(square(x, y), false, out);
+	}
+
+	// Appends the moves of the piece on a square; with capturesOnly just its captures and promotions.
+	private void addMoves(int from, boolean capturesOnly, MoveList out) {
+		PlayerColor pc = colors[from];
+		long targets = capturesOnly ? colorBB[opponent(pc).ordinal()] : ~colorBB[pc.ordinal()];
+		switch(types[from]) {
+			case pawn:
+				addPawnMoves(from, pc, capturesOnly, out);
+				break;
+			case rook:
+				addTargets(from, Bitboards.rookAttacks(from, occupied()) & targets, out);
+				break;
+			case knight:
+				addTargets(from, Bitboards.KNIGHT_ATTACKS[from] & targets, out);
+				break;
+			case bishop:
+				addTargets(from, Bitboards.bishopAttacks(from, occupied()) & targets, out);
+				break;
+			case queen:
+				addTargets(from, Bitboards.queenAttacks(from, occupied()) & targets, out);
+				break;
+			case king:
+				addTargets(from, Bitboards.KING_ATTACKS[from] & targets, out);
+				if(!capturesOnly)
+					addCastlingMoves(from, pc, out);
+				break;
+			case none:
+				break;
+		}
+	}
+
+	// Adds a plain move to each square of a target set.
+	private static void addTargets(int from, long targets, MoveList out) {
+		for(; targets != 0; targets &= targets - 1)
+			out.add(Move.of(from, Long.numberOfTrailingZeros(targets)));
+	}
+
+	// Adds the pushes, captures, en passant captures and promotions of a pawn.
+	private void addPawnMoves(int from, PlayerColor pc, boolean capturesOnly, MoveList out) {
+		int push = (pc == PlayerColor.black) ? 8 : -8;
+		int one = from + push;
+		if(one < 0 || one >= 64)
+			return;
+		long occupied = occupied();
+		boolean promotes = (one >> 3) == 0 || (one >> 3) == 7;
+		if((occupied & bit(one)) == 0 && (promotes || !capturesOnly)) {
+			addPawnMove(from, one, Move.NORMAL, out);
+			int row = from >> 3;
+			boolean home = (pc == PlayerColor.black && row == 1) || (pc == PlayerColor.white && row == 6);
+			if(home && !capturesOnly && (occupied & bit(one + push)) == 0)
+				out.add(Move.of(from, one + push, PieceType.none, Move.DOUBLE_PUSH));
+		}
+		long attacks = Bitboards.PAWN_ATTACKS[pc.ordinal()][from];
+		for(long captures = attacks & colorBB[opponent(pc).ordinal()]; captures != 0; captures &= captures - 1)
+			addPawnMove(from, Long.numberOfTrailingZeros(captures), Move.NORMAL, out);
+		if(enPassant >= 0 && (attacks & bit(enPassant)) != 0)
+			out.add(Move.of(from, enPassant, PieceType.none, Move.EN_PASSANT));
+	}
+
+	// Adds a pawn move, expanding it into the four promotions when it reaches the last row.
+	private void addPawnMove(int from, int to, int flags, MoveList out) {
+		int row = to >> 3;
+		if(row == 0 || row == 7) {
+			for(PieceType promotion : PROMOTIONS)
+				out.add(Move.of(from, to, promotion, flags));
+		}
+		else out.add(Move.of(from, to, PieceType.none, flags));
+	}
+
+	// Adds castling moves; the king may not castle out of, through or into check.
+	private void addCastlingMoves(int from, PlayerColor pc, MoveList out) {
+		int home = (pc == PlayerColor.white) ? 7 : 0;
+		int kingside = (pc == PlayerColor.white) ? WHITE_KINGSIDE : BLACK_KINGSIDE;
+		int queenside = (pc == PlayerColor.white) ? WHITE_QUEENSIDE : BLACK_QUEENSIDE;
+		if(from != square(home, 4) || (castling & (kingside | queenside)) == 0)
+			return;
+		long occupied = occupied();
+		if(isAttacked(from, pc, occupied))
+			return;
+		if((castling & kingside) != 0 && (occupied & (bit(from + 1) | bit(from + 2))) == 0
+				&& !isAttacked(from + 1, pc, occupied) && !isAttacked(from + 2, pc, occupied))
+			out.add(Move.of(from, from + 2, PieceType.none, Move.CASTLE));
+		if((castling & queenside) != 0 && (occupied & (bit(from - 1) | bit(from - 2) | bit(from - 3))) == 0
+				&& !isAttacked(from - 1, pc, occupied) && !isAttacked(from - 2, pc, occupied))
+			out.add(Move.of(from, from - 2, PieceType.none, Move.CASTLE));
+	}
+
+	// Returns the square of the king of a given color, or -1 if there is none.
+	public int findKing(PlayerColor pc) {
+		long timer = Metrics.start();
+		int king = kingSquare(pc);
+		Metrics.FIND_KING.stop(timer);
+		return king;
+	}
+
+	// Returns the square of the king of a given color, or -1, without timing it as findKing does.
+	int kingSquare(PlayerColor pc) {
+		long king = pieces(pc, PieceType.king);
+		return (king == 0) ? -1 : Long.numberOfTrailingZeros(king);
+	}
+
+	// Checks if the king of a given color is in check.
+	public boolean isCheck(PlayerColor pc) {
+		long timer = Metrics.start();
+		boolean check = inCheck(pc);
+		Metrics.CHECK.stop(timer);
+		return check;
+	}
+
+	// Checks if the king of a given color is in check, without timing it as isCheck does.
+	boolean inCheck(PlayerColor pc) {
+		if(pc == turn)
+			return getCheckers() != 0;
+		int king = kingSquare(pc);
+		return king >= 0 && isAttacked(king, pc, occupied());
+	}
+
+	// Checks if the king of a given color is in checkmate.
+	public boolean isCheckMate(PlayerColor pc) {
+		long timer = Metrics.start();
+		boolean mate = inCheck(pc) && !hasLegalMove(pc);
+		Metrics.CHECKMATE.stop(timer);
+		return mate;
+	}
+
+	// Checks if a given color is stalemated.
+	public boolean isStaleMate(PlayerColor pc) {
+		long timer = Metrics.start();
+		boolean stalemate = !inCheck(pc) && !hasLegalMove(pc);
+		Metrics.STALEMATE.stop(timer);
+		return stalemate;
+	}
+
+	// Determines if a given color has any legal move.
+	private boolean hasLegalMove(PlayerColor pc) {
+		if(pc == turn)
+			return hasLegalMove();
+		long savedCheckers = checkers, savedPinned = pinned, savedEvasions = evasions;
+		boolean savedValid = checkInfoValid;
+		turn = pc;
+		updateCheckInfo();
+		try {
+			return hasLegalMove();
+		} finally {
+			turn = opponent(pc);
+			checkers = savedCheckers;
+			pinned = savedPinned;
+			evasions = savedEvasions;
+			checkInfoValid = savedValid;
+		}
+	}
+
+	// Determines if the side to move has any legal move, stopping at the first one found.
+	boolean hasLegalMove() {
+		MoveList moves = scratch;
+		int king = kingSquare(turn);
+		if(king >= 0) {
+			moves.clear();
+			addMoves(king >> 3, king & 7, moves);
+			for(int i = 0; i < moves.size(); ++i) {
+				if(isLegal(moves.get(i)))
+					return true;
+			}
+		}
+		if(Long.bitCount(getCheckers()) > 1)
+			return false;
+		for(long own = colorBB[turn.ordinal()] & ~typeBB[PieceType.king.ordinal()]; own != 0; own &= own - 1) {
+			int sq = Long.numberOfTrailingZeros(own);
+			moves.clear();
+			addMoves(sq >> 3, sq & 7, moves);
+			for(int i = 0; i < moves.size(); ++i) {
+				if(isLegal(moves.get(i)))
+					return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,280 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+// PositionIndex maps Zobrist keys to the archived games that reach each position. It is a file that
+// is memory-mapped for lookups, laid out as a hash table over sorted entries:
+//   int MAGIC, int bucket bits, int game count, int unused, long entry count, long archive size,
+//   long[games] archive offset of each game,
+//   long[buckets + 1] first entry of each bucket, where a key's bucket is its top bucket bits,
+//   long[entries] keys in order, int[entries] the game number of each key.
+// A lookup reads one bucket's bounds and binary searches a handful of keys, so it costs a few page
+// reads however many games the archive holds. The index is built by replaying every game once; the
+// (key, game) pairs are spilled to temporary files by the key's top byte and sorted one part at a
+// time, so building needs memory for a 256th of the entries rather than all of them.
+public final class PositionIndex implements AutoCloseable {
+	static final int MAGIC = 0x43484958; // "CHIX"
+	private static final int HEADER = 32;
+	private static final int PARTS = 256;
+	// Average entries per bucket the bucket count is chosen for.
+	private static final int BUCKET_LOAD = 8;
+
+	private final FileChannel ch;
+	private final int bucketBits;
+	private final int gameCount;
+	private final long entryCount;
+	private final long archiveSize;
+	private final LongBuffer offsets;
+	private final LongBuffer buckets;
+	private final LongBuffer keys;
+	private final IntBuffer games;
+
+	// Opens an index file for lookups.
+	public PositionIndex(Path file) throws IOException {
+		ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			if(header.getInt() != MAGIC)
+				throw new IOException("Not a position index: " + file);
+			bucketBits = header.getInt();
+			gameCount = header.getInt();
+			header.getInt();
+			entryCount = header.getLong();
+			archiveSize = header.getLong();
+			long at = HEADER;
+			offsets = map(at, 8L * gameCount).asLongBuffer();
+			at += 8L * gameCount;
+			buckets = map(at, 8L * ((1L << bucketBits) + 1)).asLongBuffer();
+			at += 8L * ((1L << bucketBits) + 1);
+			keys = map(at, 8L * entryCount).asLongBuffer();
+			at += 8L * entryCount;
+			games = map(at, 4L * entryCount).asIntBuffer();
+		} catch(IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	// Maps a region of the index; a single region is limited to 2 GB, about 268 million positions.
+	private ByteBuffer map(long offset, long length) throws IOException {
+		if(length > Integer.MAX_VALUE)
+			throw new IOException("Position index region too large to map: " + length + " bytes");
+		return ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	// Returns the number of games indexed.
+	public int getGameCount() {
+		return gameCount;
+	}
+
+	// Returns the number of (position, game) entries.
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	// Returns the size the archive had when the index was built; games appended later are not indexed.
+	public long getArchiveSize() {
+		return archiveSize;
+	}
+
+	// Returns the archive offsets of the games that reach a position, in archive order.
+	public long[] find(long key) {
+		int bucket = (int) (key >>> (64 - bucketBits));
+		int lo = (int) buckets.get(bucket), hi = (int) buckets.get(bucket + 1);
+		// Keys within a bucket share their top bits, so signed order is their order.
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys.get(mid) < key) lo = mid + 1;
+			else hi = mid;
+		}
+		int end = lo;
+		while(end < entryCount && keys.get(end) == key)
+			++end;
+		long[] found = new long[end - lo];
+		for(int i = lo; i < end; ++i)
+			found[i - lo] = offsets.get(games.get(i));
+		return found;
+	}
+
+	// Closes the index; buffers it returned stay valid until they are collected.
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+
+	// Builds the index of an archive into a file, replacing any index already there.
+	public static void build(GameArchive archive, Path file) throws IOException {
+		Path dir = Files.createTempDirectory(file.toAbsolutePath().getParent(), "index");
+		try {
+			Spill spill = new Spill(dir, archive.size());
+			try {
+				archive.forEach(spill);
+			} finally {
+				for(DataOutputStream out : spill.parts)
+					out.close();
+			}
+			write(file, dir, Arrays.copyOf(spill.offsets, spill.gameCount), spill.entryCount, spill.archiveSize);
+		} finally {
+			try(Stream<Path> files = Files.list(dir)) {
+				for(Path f : (Iterable<Path>) files::iterator)
+					Files.deleteIfExists(f);
+			}
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	// Replays archived games and spills their (key, game number) pairs to one file per top key byte.
+	private static final class Spill implements GameArchive.GameVisitor {
+		final DataOutputStream[] parts = new DataOutputStream[PARTS];
+		final long archiveSize;
+		long[] offsets = new long[1024];
+		int gameCount;
+		long entryCount;
+		private long[] keys = new long[256];
+		private final Position position = new Position();
+
+		// Opens the part files in a directory; games at or past archiveSize are left out.
+		Spill(Path dir, long archiveSize) throws IOException {
+			this.archiveSize = archiveSize;
+			for(int i = 0; i < PARTS; ++i)
+				parts[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve(i + ".part")), 1 << 14));
+		}
+
+		// Spills the positions of one game.
+		@Override
+		public void game(long offset, PgnGame game) throws IOException {
+			if(offset >= archiveSize)
+				return;
+			if(gameCount == offsets.length)
+				offsets = Arrays.copyOf(offsets, gameCount * 2);
+			int number = gameCount++;
+			offsets[number] = offset;
+			MoveList moves = game.getMoves();
+			int n = moves.size() + 1;
+			if(n > keys.length)
+				keys = new long[n * 2];
+			position.setFen(game.getStartFen());
+			keys[0] = position.getKey();
+			for(int i = 1; i < n; ++i) {
+				position.makeMove(moves.get(i - 1));
+				keys[i] = position.getKey();
+			}
+			// A game that repeats a position is listed once for it.
+			Arrays.sort(keys, 0, n);
+			for(int i = 0; i < n; ++i) {
+				if(i > 0 && keys[i] == keys[i - 1])
+					continue;
+				DataOutputStream out = parts[(int) (keys[i] >>> 56)];
+				out.writeLong(keys[i]);
+				out.writeInt(number);
+				++entryCount;
+			}
+		}
+	}
+
+	// Writes the index file from the spilled parts, sorting one part at a time, through a temporary file.
+	private static void write(Path file, Path dir, long[] offsets, long entryCount, long archiveSize) throws IOException {
+		int bucketBits = 1;
+		while(bucketBits < 28 && (entryCount >> bucketBits) > BUCKET_LOAD)
+			++bucketBits;
+		long[] buckets = new long[(1 << bucketBits) + 1];
+		Path tmp = dir.resolve("index.tmp");
+		Path keysFile = dir.resolve("keys.tmp"), gamesFile = dir.resolve("games.tmp");
+		try(DataOutputStream keysOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keysFile), 1 << 16));
+				DataOutputStream gamesOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(gamesFile), 1 << 16))) {
+			long written = 0;
+			for(int part = 0; part < PARTS; ++part) {
+				Path partFile = dir.resolve(part + ".part");
+				int n = (int) (Files.size(partFile) / 12);
+				long[] k = new long[n];
+				int[] g = new int[n];
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partFile), 1 << 16))) {
+					for(int i = 0; i < n; ++i) {
+						k[i] = in.readLong();
+						g[i] = in.readInt();
+					}
+				}
+				Files.delete(partFile);
+				sort(k, g, 0, n);
+				for(int i = 0; i < n; ++i) {
+					++buckets[(int) (k[i] >>> (64 - bucketBits)) + 1];
+					keysOut.writeLong(k[i]);
+					gamesOut.writeInt(g[i]);
+				}
+				written += n;
+			}
+			if(written != entryCount)
+				throw new EOFException("Position index parts hold " + written + " entries, expected " + entryCount);
+		}
+		for(int b = 1; b < buckets.length; ++b)
+			buckets[b] += buckets[b - 1];
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(bucketBits);
+			out.writeInt(offsets.length);
+			out.writeInt(0);
+			out.writeLong(entryCount);
+			out.writeLong(archiveSize);
+			for(long offset : offsets) out.writeLong(offset);
+			for(long start : buckets) out.writeLong(start);
+			Files.copy(keysFile, out);
+			Files.copy(gamesFile, out);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Sorts keys with their game numbers alongside, by key and then game.
+	static void sort(long[] k, int[] g, int from, int to) {
+		while(to - from > 16) {
+			int mid = (from + to) >>> 1;
+			long pk = k[mid];
+			int pg = g[mid];
+			int i = from, j = to - 1;
+			while(i <= j) {
+				while(k[i] < pk || (k[i] == pk && g[i] < pg)) ++i;
+				while(k[j] > pk || (k[j] == pk && g[j] > pg)) --j;
+				if(i <= j) {
+					long tk = k[i]; k[i] = k[j]; k[j] = tk;
+					int tg = g[i]; g[i] = g[j]; g[j] = tg;
+					++i;
+					--j;
+				}
+			}
+			// Recurse into the smaller side and loop on the larger, so the stack stays shallow.
+			if(j - from < to - i) {
+				sort(k, g, from, j + 1);
+				from = i;
+			}
+			else {
+				sort(k, g, i, to);
+				to = j + 1;
+			}
+		}
+		for(int i = from + 1; i < to; ++i) {
+			long tk = k[i];
+			int tg = g[i], j = i - 1;
+			for(; j >= from && (k[j] > tk || (k[j] == tk && g[j] > tg)); --j) {
+				k[j + 1] = k[j];
+				g[j + 1] = g[j];
+			}
+			k[j + 1] = tk;
+			g[j + 1] = tg;
+		}
+	}
+}
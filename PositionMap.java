@@ -0,0 +1,264 @@
+package chess;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.SplittableRandom;
+
+// PositionMap is a set of positions, or a map from positions to longs, kept outside the Java heap so
+// it can hold hundreds of millions of them for deduplication, puzzle mining or analysis caches without
+// the collector ever scanning or copying them. Positions are stored in PackedPosition's 24-byte form
+// in an open-addressed table with linear probing, 24 bytes a slot for a set and 32 with a value, in
+// direct buffers of up to 2^25 slots each since one buffer is limited to 2 GB. A slot is empty while
+// its occupancy is 0. The table does not grow: it is sized for the expected number of positions when
+// created and refuses positions past 90% full. Direct memory is limited to the heap size unless the
+// JVM is started with -XX:MaxDirectMemorySize, and is given back when the map is collected. Not
+// thread-safe.
+public final class PositionMap {
+	// Value get and put return for a position not in the map.
+	public static final long MISSING = Long.MIN_VALUE;
+	private static final int CHUNK_BITS = 25;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	// Load the table is sized for, and the most it accepts.
+	private static final double LOAD = 0.75;
+	private static final double MAX_LOAD = 0.9;
+
+	// Receives the entries of a map.
+	public interface PositionVisitor {
+		// Receives one position in packed form, and its value (0 in a set).
+		void position(long occ, long lo, long hi, long value);
+	}
+
+	private final ByteBuffer[] chunks;
+	private final boolean values;
+	private final int slotSize;
+	private final long capacity;
+	private final long limit;
+	private long size;
+	private final long[] packed = new long[PackedPosition.LONGS];
+
+	// Creates an empty set, or map if values is set, with room for an expected number of positions.
+	public PositionMap(long expected, boolean values) {
+		this.values = values;
+		slotSize = values ? PackedPosition.BYTES + 8 : PackedPosition.BYTES;
+		capacity = Math.max(16, (long) Math.ceil(expected / LOAD));
+		limit = (long) (capacity * MAX_LOAD);
+		chunks = new ByteBuffer[(int) ((capacity + CHUNK_MASK) >>> CHUNK_BITS)];
+		for(int c = 0; c < chunks.length; ++c) {
+			long slots = Math.min(CHUNK_MASK + 1, capacity - ((long) c << CHUNK_BITS));
+			chunks[c] = ByteBuffer.allocateDirect((int) (slots * slotSize)).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	// Returns the number of positions held.
+	public long size() {
+		return size;
+	}
+
+	// Returns the number of slots.
+	public long capacity() {
+		return capacity;
+	}
+
+	// Returns the off-heap memory used, in bytes.
+	public long bytes() {
+		return capacity * slotSize;
+	}
+
+	// Finds the slot holding a packed position, or the empty slot it would go into.
+	private long find(long occ, long lo, long hi) {
+		if(occ == 0)
+			throw new IllegalArgumentException("Packed position without pieces");
+		long slot = (PackedPosition.hash(occ, lo, hi) >>> 1) % capacity;
+		while(true) {
+			ByteBuffer chunk = chunks[(int) (slot >>> CHUNK_BITS)];
+			int at = (int) (slot & CHUNK_MASK) * slotSize;
+			long o = chunk.getLong(at);
+			if(o == 0 || (o == occ && chunk.getLong(at + 8) == lo && chunk.getLong(at + 16) == hi))
+				return slot;
+			if(++slot == capacity)
+				slot = 0;
+		}
+	}
+
+	// Returns whether a slot is empty.
+	private boolean isEmpty(long slot) {
+		return chunks[(int) (slot >>> CHUNK_BITS)].getLong((int) (slot & CHUNK_MASK) * slotSize) == 0;
+	}
+
+	// Stores a packed position in an empty slot.
+	private void fill(long slot, long occ, long lo, long hi) {
+		if(size >= limit)
+			throw new IllegalStateException("Position map full: " + size + " positions in " + capacity + " slots");
+		ByteBuffer chunk = chunks[(int) (slot >>> CHUNK_BITS)];
+		int at = (int) (slot & CHUNK_MASK) * slotSize;
+		chunk.putLong(at, occ);
+		chunk.putLong(at + 8, lo);
+		chunk.putLong(at + 16, hi);
+		++size;
+	}
+
+	// Adds a packed position; returns whether it was new.
+	public boolean add(long occ, long lo, long hi) {
+		long slot = find(occ, lo, hi);
+		if(!isEmpty(slot))
+			return false;
+		fill(slot, occ, lo, hi);
+		return true;
+	}
+
+	// Adds a position; returns whether it was new.
+	public boolean add(Position p) {
+		PackedPosition.encode(p, packed, 0);
+		return add(packed[0], packed[1], packed[2]);
+	}
+
+	// Returns whether a packed position is held.
+	public boolean contains(long occ, long lo, long hi) {
+		return !isEmpty(find(occ, lo, hi));
+	}
+
+	// Returns whether a position is held.
+	public boolean contains(Position p) {
+		PackedPosition.encode(p, packed, 0);
+		return contains(packed[0], packed[1], packed[2]);
+	}
+
+	// Maps a packed position to a value; returns the value it replaced, or MISSING.
+	public long put(long occ, long lo, long hi, long value) {
+		checkValues();
+		long slot = find(occ, lo, hi);
+		ByteBuffer chunk = chunks[(int) (slot >>> CHUNK_BITS)];
+		int at = (int) (slot & CHUNK_MASK) * slotSize + PackedPosition.BYTES;
+		long old = MISSING;
+		if(isEmpty(slot))
+			fill(slot, occ, lo, hi);
+		else
+			old = chunk.getLong(at);
+		chunk.putLong(at, value);
+		return old;
+	}
+
+	// Maps a position to a value; returns the value it replaced, or MISSING.
+	public long put(Position p, long value) {
+		PackedPosition.encode(p, packed, 0);
+		return put(packed[0], packed[1], packed[2], value);
+	}
+
+	// Returns the value of a packed position, or MISSING.
+	public long get(long occ, long lo, long hi) {
+		checkValues();
+		long slot = find(occ, lo, hi);
+		if(isEmpty(slot))
+			return MISSING;
+		return chunks[(int) (slot >>> CHUNK_BITS)].getLong((int) (slot & CHUNK_MASK) * slotSize + PackedPosition.BYTES);
+	}
+
+	// Returns the value of a position, or MISSING.
+	public long get(Position p) {
+		PackedPosition.encode(p, packed, 0);
+		return get(packed[0], packed[1], packed[2]);
+	}
+
+	// Rejects value operations on a set.
+	private void checkValues() {
+		if(!values)
+			throw new UnsupportedOperationException("Position set has no values");
+	}
+
+	// Visits every position held, in slot order.
+	public void forEach(PositionVisitor visitor) {
+		for(ByteBuffer chunk : chunks) {
+			for(int at = 0; at < chunk.capacity(); at += slotSize) {
+				long occ = chunk.getLong(at);
+				if(occ != 0)
+					visitor.position(occ, chunk.getLong(at + 8), chunk.getLong(at + 16), values ? chunk.getLong(at + PackedPosition.BYTES) : 0);
+			}
+		}
+	}
+
+	// Returns the collections so far and the milliseconds they took, over all collectors.
+	private static long[] collections() {
+		long[] gc = new long[2];
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gc[0] += Math.max(0, bean.getCollectionCount());
+			gc[1] += Math.max(0, bean.getCollectionTime());
+		}
+		return gc;
+	}
+
+	// Fills a set with the positions of random games, a batch at a time, and reports the time to pack,
+	// add, look up and unpack them, the memory per position and the collector's work while adding.
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("Usage: PositionMap <positions> [seed]");
+			return;
+		}
+		long count = Long.parseLong(args[0]);
+		SplittableRandom random = new SplittableRandom(args.length > 1 ? Long.parseLong(args[1]) : 1);
+		int batch = (int) Math.min(count, 1 << 20);
+		long[] packed = new long[batch * PackedPosition.LONGS];
+		long[] keys = new long[batch];
+		Position game = new Position(), decoded = new Position();
+		Position[] sample = new Position[1024];
+		MoveList moves = new MoveList();
+		game.setInitial();
+
+		long start = System.nanoTime();
+		PositionMap set = new PositionMap(count, false);
+		System.out.printf("%d slots, %.1f MB off-heap, allocated in %.1f s%n", set.capacity(), set.bytes() / 1e6, (System.nanoTime() - start) / 1e9);
+		long addNanos = 0, containsNanos = 0, decodeNanos = 0;
+		long[] gcBefore = collections();
+		for(long done = 0; done < count; ) {
+			int n = (int) Math.min(batch, count - done);
+			// Random games, started over when they end or grow long, stand in for a game database.
+			for(int i = 0; i < n; ++i) {
+				moves.clear();
+				game.legalMoves(moves);
+				if(moves.size() == 0 || game.getPly() >= 200 || game.isDrawByRule()) {
+					game.setInitial();
+					moves.clear();
+					game.legalMoves(moves);
+				}
+				game.makeMove(moves.get(random.nextInt(moves.size())));
+				keys[i] = game.getKey();
+				PackedPosition.encode(game, packed, i * PackedPosition.LONGS);
+				if(done == 0 && i < sample.length)
+					sample[i] = new Position(game);
+			}
+			long t = System.nanoTime();
+			for(int i = 0; i < n; ++i)
+				set.add(packed[3 * i], packed[3 * i + 1], packed[3 * i + 2]);
+			addNanos += System.nanoTime() - t;
+			t = System.nanoTime();
+			for(int i = 0; i < n; ++i) {
+				if(!set.contains(packed[3 * i], packed[3 * i + 1], packed[3 * i + 2]))
+					throw new IllegalStateException("Position added but not found");
+			}
+			containsNanos += System.nanoTime() - t;
+			t = System.nanoTime();
+			for(int i = 0; i < n; ++i) {
+				PackedPosition.decode(packed, i * PackedPosition.LONGS, decoded);
+				if(decoded.getKey() != keys[i])
+					throw new IllegalStateException("Packing changed the position: " + decoded.toFen());
+			}
+			decodeNanos += System.nanoTime() - t;
+			done += n;
+		}
+		long[] gcAfter = collections();
+		// Packing is timed apart from playing the games, over the first positions again and again.
+		int encodes = 1 << 22;
+		int samples = (int) Math.min(sample.length, count);
+		start = System.nanoTime();
+		for(int i = 0; i < encodes; ++i)
+			PackedPosition.encode(sample[i % samples], packed, 0);
+		long encodeNanos = System.nanoTime() - start;
+		Runtime rt = Runtime.getRuntime();
+		System.out.printf("%d positions, %d distinct, %.1f bytes per position held%n", count, set.size(), (double) set.bytes() / set.size());
+		System.out.printf("encode %.0f ns, add %.0f ns, contains %.0f ns, decode %.0f ns per position%n",
+				(double) encodeNanos / encodes, (double) addNanos / count, (double) containsNanos / count, (double) decodeNanos / count);
+		System.out.printf("%d collections taking %d ms, heap used %.1f MB%n",
+				gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], (rt.totalMemory() - rt.freeMemory()) / 1e6);
+	}
+}
@@ -0,0 +1,533 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+// RatingStore keeps player profiles: wins, losses and draws, an Elo rating and a Glicko rating with its
+// deviation. Results are recorded in batches, and each batch is one rating period: every rating in it is
+// computed from the ratings the players had before it, as Glicko prescribes, and the batch is written to
+// an append-only log with one write and one fsync. The log (results.log) is the only thing that must
+// survive a crash. Its records are
+//   int length (of type and payload), int CRC32 (of type and payload), byte type, payload
+// with a player record (int id, UTF-8 name) for each new player, a result record (int white, int black,
+// byte white's score in half points) for each game and a period record closing each batch; a torn batch
+// at the end is cut off when the store is opened. The profiles live in players.idx, a memory-mapped file
+// of a header, an open-addressed table of name hashes to player ids, and one fixed-size record per player,
+// so a lookup by name is a probe or two and a record read. The index is marked dirty while the store is
+// open, and is rebuilt from the log if it was not closed cleanly. All numbers are big-endian.
+public final class RatingStore implements AutoCloseable {
+	private static final int MAGIC = 0x43485249; // "CHRI"
+	private static final int VERSION = 1;
+	// Header: magic, version, dirty flag, player count, capacity, log end, periods.
+	private static final int HEADER = 40;
+	// Record: wins, losses, draws, name hash, Elo, Glicko rating, Glicko deviation, last period, name length, name.
+	private static final int RECORD = 96;
+	private static final int NAME_OFFSET = 49;
+	static final int MAX_NAME_BYTES = RECORD - NAME_OFFSET;
+	private static final int INITIAL_CAPACITY = 1024;
+	// Results after which record() flushes a batch by itself.
+	static final int BATCH = 4096;
+
+	private static final byte PLAYER = 1, RESULT = 2, PERIOD = 3;
+
+	static final double INITIAL_RATING = 1500;
+	static final double INITIAL_DEVIATION = 350;
+	// Elo change per point of score above expectation.
+	static final double K = 20;
+	// Growth of the Glicko deviation per idle period, reaching 350 from 50 after about 100 periods.
+	static final double C = 34.6;
+	private static final double Q = Math.log(10) / 400;
+
+	private final Path logFile, indexFile;
+	private final FileChannel log;
+	private FileChannel indexChannel;
+	private MappedByteBuffer index;
+	private int count, capacity, mask;
+	private long logEnd, periods;
+	// Records of the batch being collected, not yet in the log.
+	private final ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+	private final List<int[]> pendingResults = new ArrayList<>();
+
+	// Opens the store in a directory, creating it if needed and recovering from an unclean shutdown.
+	public RatingStore(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		logFile = dir.resolve("results.log");
+		indexFile = dir.resolve("players.idx");
+		log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		boolean clean = openIndex();
+		if(!clean || logEnd > log.size()) {
+			createIndex(INITIAL_CAPACITY);
+			logEnd = 0;
+			periods = 0;
+		}
+		replay(logEnd);
+		index.putInt(8, 1);
+		index.force();
+	}
+
+	// Returns the store of the chess.ratings system property's directory, or ratings in ~/.chess-game.
+	static Path defaultDir() {
+		String path = System.getProperty("chess.ratings");
+		return (path != null) ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".chess-game", "ratings");
+	}
+
+	// Maps an existing index; returns whether it was closed cleanly.
+	private boolean openIndex() throws IOException {
+		if(!Files.isRegularFile(indexFile) || Files.size(indexFile) < HEADER)
+			return false;
+		indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+		if(index.getInt(0) != MAGIC || index.getInt(4) != VERSION || index.getInt(8) != 0) {
+			indexChannel.close();
+			return false;
+		}
+		count = index.getInt(12);
+		capacity = index.getInt(16);
+		mask = 2 * capacity - 1;
+		logEnd = index.getLong(20);
+		periods = index.getLong(28);
+		return indexChannel.size() == indexBytes(capacity);
+	}
+
+	// Returns the size of an index file for a capacity: the header, twice as many hash slots and the records.
+	private static long indexBytes(int capacity) {
+		return HEADER + 8L * capacity + (long) RECORD * capacity;
+	}
+
+	// Replaces the index with an empty one.
+	private void createIndex(int capacity) throws IOException {
+		if(indexChannel != null)
+			indexChannel.close();
+		Files.deleteIfExists(indexFile);
+		indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(capacity));
+		index.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, 1);
+		this.capacity = capacity;
+		mask = 2 * capacity - 1;
+		count = 0;
+		writeHeader();
+	}
+
+	// Stores the counts and the log position the index reflects.
+	private void writeHeader() {
+		index.putInt(12, count).putInt(16, capacity).putLong(20, logEnd).putLong(28, periods);
+	}
+
+	// Doubles the index's capacity, rehashing every player into a new file that replaces the old one.
+	private void grow() throws IOException {
+		Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		int newCapacity = capacity * 2;
+		try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer next = ch.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(newCapacity));
+			long oldRecords = recordsStart(capacity), newRecords = recordsStart(newCapacity);
+			int newMask = 2 * newCapacity - 1;
+			byte[] record = new byte[RECORD];
+			for(int id = 0; id < count; ++id) {
+				index.get((int) (oldRecords + (long) id * RECORD), record);
+				next.put((int) (newRecords + (long) id * RECORD), record);
+				int slot = ByteBuffer.wrap(record).getInt(12) & newMask;
+				while(next.getInt(HEADER + 4 * slot) != 0)
+					slot = (slot + 1) & newMask;
+				next.putInt(HEADER + 4 * slot, id + 1);
+			}
+			next.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, 1);
+			next.force();
+		}
+		indexChannel.close();
+		Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+		capacity = newCapacity;
+		mask = 2 * capacity - 1;
+		writeHeader();
+	}
+
+	// Returns the file offset of the first player record.
+	private static long recordsStart(int capacity) {
+		return HEADER + 8L * capacity;
+	}
+
+	// Returns the buffer offset of a player's record.
+	private int record(int id) {
+		return (int) (recordsStart(capacity) + (long) id * RECORD);
+	}
+
+	// Hashes a name for the table.
+	private static int hash(byte[] name) {
+		int h = Arrays.hashCode(name) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// Returns a player's id, or -1 if the name is unknown.
+	private int find(byte[] name) {
+		int h = hash(name);
+		for(int slot = h & mask; ; slot = (slot + 1) & mask) {
+			int id = index.getInt(HEADER + 4 * slot) - 1;
+			if(id < 0)
+				return -1;
+			int r = record(id);
+			if(index.getInt(r + 12) == h && nameEquals(r, name))
+				return id;
+		}
+	}
+
+	// Compares a record's name with a name.
+	private boolean nameEquals(int r, byte[] name) {
+		if(index.get(r + 48) != name.length)
+			return false;
+		for(int i = 0; i < name.length; ++i) {
+			if(index.get(r + NAME_OFFSET + i) != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	// Adds a player with the next id to the index.
+	private int addPlayer(byte[] name) throws IOException {
+		if(count == capacity)
+			grow();
+		int id = count++;
+		int h = hash(name);
+		int slot = h & mask;
+		while(index.getInt(HEADER + 4 * slot) != 0)
+			slot = (slot + 1) & mask;
+		index.putInt(HEADER + 4 * slot, id + 1);
+		int r = record(id);
+		index.putInt(r, 0).putInt(r + 4, 0).putInt(r + 8, 0).putInt(r + 12, h);
+		index.putDouble(r + 16, INITIAL_RATING).putDouble(r + 24, INITIAL_RATING).putDouble(r + 32, INITIAL_DEVIATION);
+		index.putLong(r + 40, periods).put(r + 48, (byte) name.length);
+		index.put(r + NAME_OFFSET, name);
+		return id;
+	}
+
+	// Encodes a name, which must fit in a record.
+	private static byte[] nameBytes(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length == 0 || bytes.length > MAX_NAME_BYTES)
+			throw new IllegalArgumentException("Player names take 1 to " + MAX_NAME_BYTES + " bytes: " + name);
+		return bytes;
+	}
+
+	// Returns a player's id, adding the player to the current batch if new.
+	public synchronized int playerId(String name) throws IOException {
+		byte[] bytes = nameBytes(name);
+		int id = find(bytes);
+		if(id >= 0)
+			return id;
+		id = addPlayer(bytes);
+		ensurePending(9 + 4 + bytes.length);
+		int start = beginRecord(PLAYER);
+		pending.putInt(id).put(bytes);
+		endRecord(start);
+		return id;
+	}
+
+	// Adds a game result ("1-0", "0-1" or "1/2-1/2") to the current batch, flushing it when it is full.
+	public synchronized void record(String white, String black, String result) throws IOException {
+		int score;
+		switch(result) {
+			case "1-0": score = 2; break;
+			case "0-1": score = 0; break;
+			case "1/2-1/2": score = 1; break;
+			default: throw new IllegalArgumentException("Not a finished game's result: " + result);
+		}
+		int w = playerId(white), b = playerId(black);
+		if(w == b)
+			throw new IllegalArgumentException("A player cannot play itself: " + white);
+		ensurePending(9 + 9);
+		int start = beginRecord(RESULT);
+		pending.putInt(w).putInt(b).put((byte) score);
+		endRecord(start);
+		pendingResults.add(new int[] {w, b, score});
+		if(pendingResults.size() >= BATCH)
+			flush();
+	}
+
+	// Makes room for a record in the pending batch, flushing the batch if it is full.
+	private void ensurePending(int bytes) throws IOException {
+		if(pending.remaining() < bytes + 9)
+			flush();
+	}
+
+	// Starts a record in the pending batch; returns its position.
+	private int beginRecord(byte type) {
+		int start = pending.position();
+		pending.putInt(0).putInt(0).put(type);
+		return start;
+	}
+
+	// Fills in a record's length and checksum.
+	private void endRecord(int start) {
+		int end = pending.position();
+		CRC32 crc = new CRC32();
+		crc.update(pending.array(), start + 8, end - start - 8);
+		pending.putInt(start, end - start - 8).putInt(start + 4, (int) crc.getValue());
+	}
+
+	// Ends the rating period: writes the batch and its period record to the log, syncs it, and then
+	// applies the batch's results to the profiles. Does nothing if the batch is empty.
+	public synchronized void flush() throws IOException {
+		if(pending.position() == 0)
+			return;
+		endRecord(beginRecord(PERIOD));
+		pending.flip();
+		long offset = logEnd;
+		while(pending.hasRemaining())
+			offset += log.write(pending, offset);
+		log.force(false);
+		pending.clear();
+		apply(pendingResults);
+		pendingResults.clear();
+		logEnd = offset;
+		writeHeader();
+	}
+
+	// Reads the log from an offset, re-applying every complete batch, and cuts off a torn one at the end.
+	private void replay(long from) throws IOException {
+		long size = log.size(), offset = from;
+		List<byte[]> players = new ArrayList<>();
+		List<int[]> results = new ArrayList<>();
+		ByteBuffer body = ByteBuffer.allocate(256);
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(from)), 1 << 16));
+		while(offset + 8 <= size) {
+			int length = in.readInt(), checksum = in.readInt();
+			if(length < 1 || length > body.capacity() || offset + 8 + length > size)
+				break;
+			in.readFully(body.array(), 0, length);
+			crc.reset();
+			crc.update(body.array(), 0, length);
+			if((int) crc.getValue() != checksum)
+				break;
+			offset += 8 + length;
+			body.clear().limit(length);
+			byte type = body.get();
+			if(type == PLAYER) {
+				if(body.getInt() != count + players.size())
+					throw new IOException("Player out of sequence at " + offset + " in " + logFile);
+				byte[] name = new byte[body.remaining()];
+				body.get(name);
+				players.add(name);
+			}
+			else if(type == RESULT)
+				results.add(new int[] {body.getInt(), body.getInt(), body.get()});
+			else if(type == PERIOD) {
+				// A batch only counts once its period record is in; its players come before its results.
+				for(byte[] name : players)
+					addPlayer(name);
+				apply(results);
+				players.clear();
+				results.clear();
+				logEnd = offset;
+				writeHeader();
+			}
+			else break;
+		}
+		if(logEnd < size) {
+			log.truncate(logEnd);
+			log.force(false);
+		}
+	}
+
+	// Applies a rating period's results. Elo and Glicko both use the ratings from before the period for
+	// every game, so the order of the games within it does not matter.
+	private void apply(List<int[]> results) {
+		++periods;
+		if(results.isEmpty())
+			return;
+		int n = results.size();
+		// Players of the period, with their results gathered: ids, then per-player sums.
+		int[] ids = new int[2 * n];
+		for(int i = 0; i < n; ++i) {
+			ids[2 * i] = results.get(i)[0];
+			ids[2 * i + 1] = results.get(i)[1];
+		}
+		Arrays.sort(ids);
+		int players = 0;
+		for(int i = 0; i < ids.length; ++i) {
+			if(i == 0 || ids[i] != ids[i - 1])
+				ids[players++] = ids[i];
+		}
+		double[] elo = new double[players], rating = new double[players], rd = new double[players];
+		for(int k = 0; k < players; ++k) {
+			int r = record(ids[k]);
+			elo[k] = index.getDouble(r + 16);
+			rating[k] = index.getDouble(r + 24);
+			// The deviation grows with the periods the player sat out.
+			double idle = Math.max(0, periods - 1 - index.getLong(r + 40));
+			rd[k] = Math.min(INITIAL_DEVIATION, Math.sqrt(index.getDouble(r + 32) * index.getDouble(r + 32) + C * C * idle));
+		}
+		double[] eloDelta = new double[players], variance = new double[players], improvement = new double[players];
+		for(int[] game : results) {
+			int w = Arrays.binarySearch(ids, 0, players, game[0]), b = Arrays.binarySearch(ids, 0, players, game[1]);
+			double s = game[2] / 2.0;
+			double expected = 1 / (1 + Math.pow(10, (elo[b] - elo[w]) / 400));
+			eloDelta[w] += K * (s - expected);
+			eloDelta[b] -= K * (s - expected);
+			glicko(w, b, s, rating, rd, variance, improvement);
+			glicko(b, w, 1 - s, rating, rd, variance, improvement);
+			int rw = record(game[0]), rb = record(game[1]);
+			int wOffset = (game[2] == 2) ? 0 : (game[2] == 0) ? 4 : 8, bOffset = (game[2] == 0) ? 0 : (game[2] == 2) ? 4 : 8;
+			index.putInt(rw + wOffset, index.getInt(rw + wOffset) + 1);
+			index.putInt(rb + bOffset, index.getInt(rb + bOffset) + 1);
+		}
+		for(int k = 0; k < players; ++k) {
+			int r = record(ids[k]);
+			double dInverse = Q * Q * variance[k];
+			double precision = 1 / (rd[k] * rd[k]) + dInverse;
+			index.putDouble(r + 16, elo[k] + eloDelta[k]);
+			index.putDouble(r + 24, rating[k] + Q / precision * improvement[k]);
+			index.putDouble(r + 32, Math.sqrt(1 / precision));
+			index.putLong(r + 40, periods - 1);
+		}
+	}
+
+	// Adds one game's terms to player k's Glicko sums: the information it carries and the score above expectation.
+	private static void glicko(int k, int opponent, double score, double[] rating, double[] rd, double[] variance, double[] improvement) {
+		double g = 1 / Math.sqrt(1 + 3 * Q * Q * rd[opponent] * rd[opponent] / (Math.PI * Math.PI));
+		double expected = 1 / (1 + Math.pow(10, -g * (rating[k] - rating[opponent]) / 400));
+		variance[k] += g * g * expected * (1 - expected);
+		improvement[k] += g * (score - expected);
+	}
+
+	// A player's profile at the time it was read.
+	public static final class Profile {
+		public final int id;
+		public final String name;
+		public final int wins, losses, draws;
+		public final double elo, rating, deviation;
+
+		// Creates a profile.
+		Profile(int id, String name, int wins, int losses, int draws, double elo, double rating, double deviation) {
+			this.id = id;
+			this.name = name;
+			this.wins = wins;
+			this.losses = losses;
+			this.draws = draws;
+			this.elo = elo;
+			this.rating = rating;
+			this.deviation = deviation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: +%d -%d =%d, Elo %.0f, Glicko %.0f +/- %.0f", name, wins, losses, draws, elo, rating, 2 * deviation);
+		}
+	}
+
+	// Returns a player's profile as of the last flush, or null for an unknown name.
+	public synchronized Profile get(String name) {
+		int id = find(nameBytes(name));
+		return (id < 0) ? null : get(id);
+	}
+
+	// Returns the profile of a player id.
+	public synchronized Profile get(int id) {
+		if(id < 0 || id >= count)
+			throw new IndexOutOfBoundsException("No player " + id);
+		int r = record(id);
+		byte[] name = new byte[index.get(r + 48)];
+		index.get(r + NAME_OFFSET, name);
+		return new Profile(id, new String(name, StandardCharsets.UTF_8), index.getInt(r), index.getInt(r + 4), index.getInt(r + 8),
+				index.getDouble(r + 16), index.getDouble(r + 24), index.getDouble(r + 32));
+	}
+
+	// Returns the number of players.
+	public synchronized int size() {
+		return count;
+	}
+
+	// Returns the number of rating periods so far.
+	public synchronized long getPeriods() {
+		return periods;
+	}
+
+	// Flushes the batch, then marks the index clean so the next open trusts it.
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+			index.force();
+			index.putInt(8, 0);
+			index.force();
+		} finally {
+			log.close();
+			indexChannel.close();
+		}
+	}
+
+	// Usage: RatingStore <dir> record <white> <black> <result> | show <name> | bench <players> <games>;
+	// records a result, shows a profile, or times batched recording and lookups in a scratch store.
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: RatingStore <dir> record <white> <black> <result> | show <name> | bench <players> <games>");
+			return;
+		}
+		Path dir = Paths.get(args[0]);
+		switch(args[1]) {
+			case "record":
+				try(RatingStore store = new RatingStore(dir)) {
+					store.record(args[2], args[3], args[4]);
+					store.flush();
+					System.out.println(store.get(args[2]));
+					System.out.println(store.get(args[3]));
+				}
+				break;
+			case "show":
+				try(RatingStore store = new RatingStore(dir)) {
+					Profile p = store.get(args[2]);
+					System.out.println((p != null) ? p : "No player " + args[2]);
+				}
+				break;
+			case "bench": {
+				int players = Integer.parseInt(args[2]), games = Integer.parseInt(args[3]);
+				Random random = new Random(1);
+				long start = System.nanoTime();
+				try(RatingStore store = new RatingStore(dir)) {
+					for(int i = 0; i < games; ++i) {
+						int w = random.nextInt(players), b = random.nextInt(players - 1);
+						if(b >= w) ++b;
+						int r = random.nextInt(3);
+						store.record("player" + w, "player" + b, r == 0 ? "1-0" : r == 1 ? "0-1" : "1/2-1/2");
+					}
+					store.flush();
+					double seconds = (System.nanoTime() - start) / 1e9;
+					System.out.printf("%d results for %d players in %.1f s, %.0f results/s, %d periods%n", games, store.size(), seconds, games / seconds, store.getPeriods());
+					int lookups = 1_000_000;
+					long sum = 0;
+					start = System.nanoTime();
+					for(int i = 0; i < lookups; ++i) {
+						Profile p = store.get("player" + random.nextInt(players));
+						if(p != null)
+							sum += p.wins;
+					}
+					System.out.printf("%.2f us per lookup by name (%d)%n", (System.nanoTime() - start) / 1e3 / lookups, sum % 10);
+				}
+				start = System.nanoTime();
+				try(RatingStore store = new RatingStore(dir)) {
+					System.out.printf("Reopened in %.1f ms: %s%n", (System.nanoTime() - start) / 1e6, store.get("player0"));
+				}
+				break;
+			}
+			default:
+				System.out.println("Unknown command: " + args[1]);
+				break;
+		}
+	}
+}
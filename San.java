@@ -0,0 +1,144 @@
+package chess;
+
+// San reads and writes moves in Standard Algebraic Notation ("Nbd7", "exd5", "O-O", "e8=Q+"),
+// the notation of PGN movetext. Moves are resolved against the legal moves of a position, so a
+// SAN string is only accepted if exactly one legal move fits it.
+final class San {
+	// SAN letters of the pieces by PieceType.ordinal(); pawns have none.
+	private static final String LETTERS = "KQBNR";
+	private static final PieceType[] TYPES = PieceType.values();
+
+	private San() {}
+
+	// Finds the legal move a SAN string describes, or returns Move.NONE if none or several fit.
+	// Check marks and annotations ("+", "#", "!", "?") are ignored; buffer is overwritten.
+	static int parse(Position p, CharSequence san, MoveList buffer) {
+		int end = san.length();
+		while(end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0)
+			--end;
+		if(end < 2)
+			return Move.NONE;
+		char first = san.charAt(0);
+		if(first == 'O' || first == '0')
+			return parseCastle(p, san, end, buffer);
+
+		PieceType piece = PieceType.pawn;
+		int start = 0;
+		int letter = LETTERS.indexOf(first);
+		if(letter >= 0) {
+			piece = TYPES[letter];
+			start = 1;
+		}
+		PieceType promotion = PieceType.none;
+		int promo = "QBNR".indexOf(san.charAt(end - 1));
+		if(piece == PieceType.pawn && promo >= 0) {
+			promotion = TYPES[promo + 1];
+			--end;
+			if(end > 0 && san.charAt(end - 1) == '=') --end;
+		}
+		if(end - start < 2)
+			return Move.NONE;
+		int toY = san.charAt(end - 2) - 'a', toX = '8' - san.charAt(end - 1);
+		if(!Position.onBoard(toX, toY))
+			return Move.NONE;
+		int to = Position.square(toX, toY);
+
+		// Whatever sits between the piece letter and the destination narrows down the origin square.
+		int fromX = -1, fromY = -1;
+		for(int i = start; i < end - 2; ++i) {
+			char c = san.charAt(i);
+			if(c >= 'a' && c <= 'h') fromY = c - 'a';
+			else if(c >= '1' && c <= '8') fromX = '8' - c;
+			else if(c != 'x' && c != ':' && c != '-') return Move.NONE;
+		}
+
+		int found = Move.NONE;
+		for(long own = p.pieces(p.getTurn(), piece); own != 0; own &= own - 1) {
+			int from = Long.numberOfTrailingZeros(own);
+			if((fromX >= 0 && from >> 3 != fromX) || (fromY >= 0 && (from & 7) != fromY))
+				continue;
+			buffer.clear();
+			p.movesOf(from, buffer);
+			for(int i = 0; i < buffer.size(); ++i) {
+				int m = buffer.get(i);
+				if(Move.to(m) != to || Move.promotion(m) != promotion || Move.isCastle(m))
+					continue;
+				if(found != Move.NONE)
+					return Move.NONE;
+				found = m;
+			}
+		}
+		return found;
+	}
+
+	// Finds the castling move for "O-O" or "O-O-O" (or the same with zeros).
+	private static int parseCastle(Position p, CharSequence san, int end, MoveList buffer) {
+		boolean queenside;
+		if(end == 3) queenside = false;
+		else if(end == 5) queenside = true;
+		else return Move.NONE;
+		int king = p.kingSquare(p.getTurn());
+		if(king < 0)
+			return Move.NONE;
+		buffer.clear();
+		p.movesOf(king, buffer);
+		for(int i = 0; i < buffer.size(); ++i) {
+			int m = buffer.get(i);
+			if(Move.isCastle(m) && ((Move.toY(m) == 2) == queenside))
+				return m;
+		}
+		return Move.NONE;
+	}
+
+	// Writes a legal move of a position in SAN, with "+" or "#" when it gives check or mate.
+	static String toString(Position p, int m, MoveList buffer) {
+		StringBuilder sb = new StringBuilder(8);
+		int from = Move.from(m), to = Move.to(m);
+		PieceType piece = p.typeAt(from);
+		if(Move.isCastle(m)) {
+			sb.append(Move.toY(m) == 2 ? "O-O-O" : "O-O");
+		}
+		else if(piece == PieceType.pawn) {
+			boolean capture = Move.isEnPassant(m) || p.typeAt(to) != PieceType.none;
+			if(capture) sb.append(Move.squareName(from).charAt(0)).append('x');
+			sb.append(Move.squareName(to));
+			if(Move.isPromotion(m))
+				sb.append('=').append(LETTERS.charAt(Move.promotion(m).ordinal()));
+		}
+		else {
+			sb.append(LETTERS.charAt(piece.ordinal()));
+			appendDisambiguation(p, m, piece, buffer, sb);
+			if(p.typeAt(to) != PieceType.none) sb.append('x');
+			sb.append(Move.squareName(to));
+		}
+		p.makeMove(m);
+		PlayerColor turn = p.getTurn();
+		if(p.inCheck(turn)) sb.append(p.hasLegalMove() ? '+' : '#');
+		p.unmakeMove(m);
+		return sb.toString();
+	}
+
+	// Adds the origin file, rank or both when another piece of the same type could reach the same square.
+	private static void appendDisambiguation(Position p, int m, PieceType piece, MoveList buffer, StringBuilder sb) {
+		int from = Move.from(m), to = Move.to(m);
+		boolean other = false, sameFile = false, sameRank = false;
+		for(long own = p.pieces(p.getTurn(), piece) & ~Position.bit(from); own != 0; own &= own - 1) {
+			int sq = Long.numberOfTrailingZeros(own);
+			buffer.clear();
+			p.movesOf(sq, buffer);
+			for(int i = 0; i < buffer.size(); ++i) {
+				if(Move.to(buffer.get(i)) != to)
+					continue;
+				other = true;
+				sameFile |= (sq & 7) == (from & 7);
+				sameRank |= (sq >> 3) == (from >> 3);
+			}
+		}
+		if(!other)
+			return;
+		String name = Move.squareName(from);
+		if(!sameFile) sb.append(name.charAt(0));
+		else if(!sameRank) sb.append(name.charAt(1));
+		else sb.append(name);
+	}
+}
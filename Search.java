@@ -0,0 +1,415 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Search chooses a move for the side to move with a negamax alpha-beta search.
+// It deepens one ply at a time, finishes each line with a quiescence search over captures, and orders
+// moves by the previous principal variation, the transposition table move, MVV-LVA, killer moves and
+// the history heuristic.
+// The time budget is hard: the search polls the clock and unwinds as soon as it runs out.
+public class Search {
+	static final int MATE = 30000;
+	static final int INFINITY = 32000;
+	static final int MAX_PLY = 128;
+
+	// Move ordering bands; within a band higher scores are tried first.
+	private static final int PV_SCORE = 2_000_000;
+	private static final int HASH_SCORE = 1_900_000;
+	private static final int CAPTURE_SCORE = 1_000_000;
+	private static final int KILLER_SCORE = 900_000;
+	private static final int HISTORY_LIMIT = 800_000;
+	private static final int CLOCK_INTERVAL = 1023;
+
+	private final TranspositionTable table;
+	private final Tablebases tablebases = Tablebases.getDefault();
+	// The evaluation network's first layer along the current line, or null to evaluate with Evaluation.
+	private final Accumulator accumulator;
+	private Position position;
+	private final MoveList[] moveLists = new MoveList[MAX_PLY];
+	private final int[][] moveScores = new int[MAX_PLY][MoveList.CAPACITY];
+	private final int[][] pvTable = new int[MAX_PLY][MAX_PLY];
+	private final int[] pvLength = new int[MAX_PLY];
+	private final int[] previousPv = new int[MAX_PLY];
+	private int previousPvLength;
+	private boolean followPv;
+	private final int[][] killers = new int[MAX_PLY][2];
+	// Cutoff counts of quiet moves by side (PlayerColor.ordinal()), origin and destination.
+	private final int[][][] history = new int[2][64][64];
+
+	private long nodes;
+	private long startTime;
+	private volatile long deadline;
+	private volatile boolean stopRequested;
+	private boolean stopped;
+	private Consumer<SearchInfo> listener;
+
+	// Creates a search with its own 16 MB transposition table.
+	public Search() {
+		this(new TranspositionTable(16));
+	}
+
+	// Creates a search that stores results in the given table, which may be shared with other searches.
+	public Search(TranspositionTable table) {
+		this(table, Network.getDefault());
+	}
+
+	// Creates a search that evaluates with a network, or with Evaluation if it is null.
+	Search(TranspositionTable table, Network network) {
+		this.table = table;
+		accumulator = (network != null) ? new Accumulator(network, Network.bestKernel()) : null;
+		for(int i = 0; i < MAX_PLY; ++i)
+			moveLists[i] = new MoveList();
+	}
+
+	// Sets a callback that receives a report after every completed iteration.
+	public void setListener(Consumer<SearchInfo> listener) {
+		this.listener = listener;
+	}
+
+	// Asks a running search to stop; safe to call from any thread.
+	public void stop() {
+		stopRequested = true;
+	}
+
+	// Gives a running search a time limit counted from now, as when a ponder search becomes a real one.
+	void setTimeLimit(long millis) {
+		deadline = System.currentTimeMillis() + millis;
+	}
+
+	// Returns the transposition table.
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	// Returns the nodes visited by the current or last search.
+	public long getNodes() {
+		return nodes;
+	}
+
+	// Searches the position to at most maxDepth plies or for at most millis milliseconds (0 for no limit).
+	// The position is restored before returning. Returns the report of the deepest completed iteration,
+	// or of the partial first iteration if time ran out before it finished.
+	public SearchInfo search(Position p, int maxDepth, long millis) {
+		resetStop();
+		table.newSearch();
+		return run(p, 1, maxDepth, millis);
+	}
+
+	// Clears an earlier stop request and time limit. run() leaves both alone, so a stop or time limit
+	// given to a search that was handed to another thread still counts if it arrives before it starts.
+	void resetStop() {
+		stopRequested = false;
+		deadline = Long.MAX_VALUE;
+	}
+
+	// Deepens from firstDepth to maxDepth; the caller resets the stop flag and starts the table's new search.
+	SearchInfo run(Position p, int firstDepth, int maxDepth, long millis) {
+		position = p;
+		nodes = 0;
+		stopped = false;
+		startTime = System.currentTimeMillis();
+		if(millis > 0)
+			deadline = startTime + millis;
+		previousPvLength = 0;
+		if(accumulator != null)
+			accumulator.refresh(p);
+		for(int[] k : killers) k[0] = k[1] = Move.NONE;
+		ageHistory();
+
+		SearchInfo best = null;
+		for(int depth = firstDepth; depth <= Math.min(maxDepth, MAX_PLY - 1); ++depth) {
+			followPv = true;
+			long timer = Metrics.start(), nodesBefore = nodes;
+			Metrics.SearchIterationEvent event = new Metrics.SearchIterationEvent();
+			event.begin();
+			int score = negamax(depth, -INFINITY, INFINITY, 0);
+			long elapsed = System.currentTimeMillis() - startTime;
+			if(stopped) {
+				if(best == null && pvLength[0] > 0)
+					best = new SearchInfo(depth, score, nodes, elapsed, pvTable[0], pvLength[0], table.hashfull());
+				break;
+			}
+			best = new SearchInfo(depth, score, nodes, elapsed, pvTable[0], pvLength[0], table.hashfull());
+			Metrics.SEARCH_ITERATION.stop(timer);
+			if(timer != 0)
+				Metrics.searchNodes.add(nodes - nodesBefore);
+			event.end();
+			if(event.shouldCommit()) {
+				event.depth = depth;
+				event.score = score;
+				event.nodes = nodes - nodesBefore;
+				event.commit();
+			}
+			previousPvLength = pvLength[0];
+			System.arraycopy(pvTable[0], 0, previousPv, 0, previousPvLength);
+			if(listener != null)
+				listener.accept(best);
+			// A mate found now is the shortest one; an iteration past half the budget would not finish.
+			if(best.isMateScore() || pvLength[0] == 0 || (deadline != Long.MAX_VALUE && elapsed * 2 > deadline - startTime))
+				break;
+		}
+		return best;
+	}
+
+	// Halves the history scores so that old games count less than the current one.
+	private void ageHistory() {
+		for(int[][] side : history) {
+			for(int[] from : side) {
+				for(int i = 0; i < 64; ++i) from[i] >>= 1;
+			}
+		}
+	}
+
+	// Raises the stop flag on request or, polling the clock every thousand nodes, when time is up.
+	private void checkTime() {
+		if(stopRequested || ((nodes & CLOCK_INTERVAL) == 0 && System.currentTimeMillis() >= deadline))
+			stopped = true;
+	}
+
+	// Scores the position to the given depth within the (alpha, beta) window.
+	private int negamax(int depth, int alpha, int beta, int ply) {
+		pvLength[ply] = 0;
+		++nodes;
+		checkTime();
+		if(stopped)
+			return 0;
+		if(ply > 0 && (position.getHalfmoveClock() >= 100 || position.isRepetition()))
+			return 0;
+		if(ply >= MAX_PLY - 1)
+			return evaluate();
+
+		boolean inCheck = position.getCheckers() != 0;
+		if(inCheck)
+			++depth;
+		if(depth <= 0) {
+			--nodes;
+			return quiesce(alpha, beta, ply);
+		}
+
+		long key = position.getKey();
+		long entry = table.probe(key);
+		int hashMove = TranspositionTable.move(entry);
+		if(ply > 0 && entry != 0 && TranspositionTable.depth(entry) >= depth) {
+			int score = fromTable(TranspositionTable.score(entry), ply);
+			int bound = TranspositionTable.bound(entry);
+			if(bound == TranspositionTable.EXACT
+					|| (bound == TranspositionTable.LOWER && score >= beta)
+					|| (bound == TranspositionTable.UPPER && score <= alpha))
+				return score;
+		}
+		if(ply > 0) {
+			int value = tablebases.probe(position);
+			if(value >= 0)
+				return Tablebases.score(value, ply);
+		}
+
+		MoveList moves = moveLists[ply];
+		moves.clear();
+		position.legalMoves(moves);
+		if(moves.isEmpty())
+			return inCheck ? -MATE + ply : 0;
+
+		int pvMove = (followPv && ply < previousPvLength) ? previousPv[ply] : Move.NONE;
+		if(pvMove == Move.NONE)
+			followPv = false;
+		scoreMoves(moves, ply, pvMove, hashMove);
+
+		int originalAlpha = alpha;
+		int best = -INFINITY;
+		int bestMove = Move.NONE;
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = pickNext(moves, ply, i);
+			makeMove(m);
+			int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+			unmakeMove(m);
+			followPv = false;
+			if(stopped)
+				return 0;
+			if(score > best) {
+				best = score;
+				if(score > alpha) {
+					alpha = score;
+					bestMove = m;
+					updatePv(ply, m);
+					if(alpha >= beta) {
+						if(!isTactical(m))
+							rememberQuiet(m, ply, depth);
+						break;
+					}
+				}
+			}
+		}
+		int bound = (best >= beta) ? TranspositionTable.LOWER
+				: (best > originalAlpha) ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+		table.store(key, bestMove, toTable(best, ply), depth, bound);
+		return best;
+	}
+
+	// Resolves captures until the position is quiet, so that leaf scores do not stop halfway through an exchange.
+	private int quiesce(int alpha, int beta, int ply) {
+		pvLength[ply] = 0;
+		++nodes;
+		checkTime();
+		if(stopped)
+			return 0;
+		if(ply >= MAX_PLY - 1)
+			return evaluate();
+
+		boolean inCheck = position.getCheckers() != 0;
+		MoveList moves = moveLists[ply];
+		moves.clear();
+		int best;
+		if(inCheck) {
+			position.legalMoves(moves);
+			if(moves.isEmpty())
+				return -MATE + ply;
+			best = -INFINITY;
+		}
+		else {
+			best = evaluate();
+			if(best >= beta)
+				return best;
+			if(best > alpha)
+				alpha = best;
+			position.legalCaptures(moves);
+		}
+		scoreMoves(moves, ply, Move.NONE, Move.NONE);
+
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = pickNext(moves, ply, i);
+			makeMove(m);
+			int score = -quiesce(-beta, -alpha, ply + 1);
+			unmakeMove(m);
+			if(stopped)
+				return 0;
+			if(score > best) {
+				best = score;
+				if(score > alpha) {
+					alpha = score;
+					updatePv(ply, m);
+					if(alpha >= beta)
+						break;
+				}
+			}
+		}
+		return best;
+	}
+
+	// Scores the position for the side to move, from the accumulator if there is a network.
+	private int evaluate() {
+		return (accumulator != null) ? accumulator.evaluate(position.getTurn()) : Evaluation.evaluate(position);
+	}
+
+	// Plays a move of the line being searched, updating the accumulator first.
+	private void makeMove(int m) {
+		if(accumulator != null)
+			accumulator.push(position, m);
+		position.makeMove(m);
+	}
+
+	// Takes back a move of the line being searched.
+	private void unmakeMove(int m) {
+		position.unmakeMove(m);
+		if(accumulator != null)
+			accumulator.pop();
+	}
+
+	// Converts a mate score from "mate in n plies from the root" to "from this node" for storing,
+	// so it stays right when the position is reached again at another ply.
+	private static int toTable(int score, int ply) {
+		if(score >= MATE - MAX_PLY) return score + ply;
+		if(score <= -MATE + MAX_PLY) return score - ply;
+		return score;
+	}
+
+	// Converts a stored mate score back to the distance from the root.
+	private static int fromTable(int score, int ply) {
+		if(score >= MATE - MAX_PLY) return score - ply;
+		if(score <= -MATE + MAX_PLY) return score + ply;
+		return score;
+	}
+
+	// Determines if a move captures or promotes.
+	private boolean isTactical(int m) {
+		return position.capturedBy(m) != PieceType.none || Move.isPromotion(m);
+	}
+
+	// Gives every move an ordering score.
+	private void scoreMoves(MoveList moves, int ply, int pvMove, int hashMove) {
+		int[] scores = moveScores[ply];
+		if(scores.length < moves.size())
+			scores = moveScores[ply] = new int[moves.size()];
+		int side = position.getTurn().ordinal();
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = moves.get(i);
+			int from = Move.from(m), to = Move.to(m);
+			if(m == pvMove)
+				scores[i] = PV_SCORE;
+			else if(m == hashMove)
+				scores[i] = HASH_SCORE;
+			else if(isTactical(m))
+				scores[i] = CAPTURE_SCORE + Evaluation.VALUE[position.capturedBy(m).ordinal()] * 10
+						+ Evaluation.VALUE[Move.promotion(m).ordinal()]
+						- Evaluation.VALUE[position.typeAt(from).ordinal()] / 10;
+			else if(m == killers[ply][0])
+				scores[i] = KILLER_SCORE;
+			else if(m == killers[ply][1])
+				scores[i] = KILLER_SCORE - 1;
+			else
+				scores[i] = history[side][from][to];
+		}
+	}
+
+	// Moves the best scored of the remaining moves to index i and returns it.
+	private int pickNext(MoveList moves, int ply, int i) {
+		int[] scores = moveScores[ply];
+		int bestIndex = i;
+		for(int j = i + 1; j < moves.size(); ++j) {
+			if(scores[j] > scores[bestIndex])
+				bestIndex = j;
+		}
+		if(bestIndex != i) {
+			int m = moves.get(i);
+			moves.set(i, moves.get(bestIndex));
+			moves.set(bestIndex, m);
+			int s = scores[i];
+			scores[i] = scores[bestIndex];
+			scores[bestIndex] = s;
+		}
+		return moves.get(i);
+	}
+
+	// Records a move that raised alpha as the head of this ply's principal variation.
+	private void updatePv(int ply, int m) {
+		pvTable[ply][0] = m;
+		int childLength = (ply + 1 < MAX_PLY) ? pvLength[ply + 1] : 0;
+		System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, childLength);
+		pvLength[ply] = childLength + 1;
+	}
+
+	// Remembers a quiet move that caused a cutoff as a killer for its ply and in the history table.
+	private void rememberQuiet(int m, int ply, int depth) {
+		if(killers[ply][0] != m) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = m;
+		}
+		int[] row = history[position.getTurn().ordinal()][Move.from(m)];
+		row[Move.to(m)] += depth * depth;
+		if(row[Move.to(m)] > HISTORY_LIMIT)
+			ageHistory();
+	}
+
+	// Usage: Search [millis] [fen]; prints a report per iteration and the chosen move.
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		String fen = args.length > 1 ? String.join(" ", Arrays.copyOfRange(args, 1, args.length)) : Position.START_FEN;
+		Search search = new Search();
+		search.setListener(info -> System.out.println(info));
+		SearchInfo result = search.search(Position.fromFen(fen), MAX_PLY, millis);
+		TranspositionTable table = search.getTable();
+		System.out.printf("hash hits %.1f%% of %d probes, %d permille full%n",
+				table.hitRate() * 100, table.getProbes(), table.hashfull());
+		System.out.println("bestmove " + (result == null ? "(none)" : Move.toString(result.bestMove())));
+	}
+}
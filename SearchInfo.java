@@ -0,0 +1,67 @@
+package chess;
+
+import java.util.Arrays;
+
+// SearchInfo is the report of one completed iteration of a search.
+public final class SearchInfo {
+	public final int depth;
+	public final int score;
+	public final long nodes;
+	public final long millis;
+	// Permille of the transposition table filled by this search.
+	public final int hashfull;
+	private final int[] pv;
+
+	// Creates a report; the principal variation array is copied.
+	SearchInfo(int depth, int score, long nodes, long millis, int[] pv, int pvLength, int hashfull) {
+		this.depth = depth;
+		this.score = score;
+		this.nodes = nodes;
+		this.millis = millis;
+		this.hashfull = hashfull;
+		this.pv = Arrays.copyOf(pv, pvLength);
+	}
+
+	// Returns the nodes searched per second.
+	public long nodesPerSecond() {
+		return nodes * 1000 / Math.max(millis, 1);
+	}
+
+	// Returns the principal variation, best move first.
+	public int[] getPv() {
+		return pv.clone();
+	}
+
+	// Returns the best move found, or Move.NONE.
+	public int bestMove() {
+		return pv.length > 0 ? pv[0] : Move.NONE;
+	}
+
+	// Determines if the score announces a forced mate.
+	public boolean isMateScore() {
+		return Math.abs(score) >= Search.MATE - Search.MAX_PLY;
+	}
+
+	// Returns the principal variation in coordinate notation.
+	public String pvString() {
+		StringBuilder sb = new StringBuilder();
+		for(int m : pv) {
+			if(sb.length() > 0) sb.append(' ');
+			sb.append(Move.toString(m));
+		}
+		return sb.toString();
+	}
+
+	// Formats the report as "depth 6 score cp 35 nodes 120000 nps 900000 hashfull 12 time 133 pv e2e4 e7e5 ...".
+	@Override
+	public String toString() {
+		String scoreText;
+		if(isMateScore()) {
+			int plies = Search.MATE - Math.abs(score);
+			scoreText = "mate " + ((score > 0) ? (plies + 1) / 2 : -(plies + 1) / 2);
+		}
+		else scoreText = "cp " + score;
+		return "depth " + depth + " score " + scoreText + " nodes " + nodes + " nps " + nodesPerSecond()
+				+ " hashfull " + hashfull + " time " + millis + " pv " + pvString();
+	}
+}
@@ -0,0 +1,116 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// SessionLoad drives a SessionServer with many simultaneous games of random legal moves and reports
+// the moves per second, the round-trip latency of a move as the clients see it, and the server's own
+// p99 move-validation time. Without a port it starts a server in the same JVM.
+public class SessionLoad {
+	// Plies after which a client starts a new game, so games do not drag on in endless shuffling.
+	private static final int MAX_PLIES = 300;
+
+	private final int port;
+	private final long deadline;
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder games = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	// Creates a load run against a port that ends at a System.nanoTime() deadline.
+	SessionLoad(int port, long deadline) {
+		this.port = port;
+		this.deadline = deadline;
+	}
+
+	// Plays random games on one connection until the deadline.
+	void client() {
+		try(Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			s.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = s.getOutputStream();
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			// The client follows the game on its own board, so it only talks to the server to move.
+			Position position = Position.fromFen(Position.START_FEN);
+			MoveList legal = new MoveList();
+			int plies = 0;
+			while(System.nanoTime() < deadline) {
+				legal.clear();
+				position.legalMoves(legal);
+				if(legal.isEmpty() || plies >= MAX_PLIES) {
+					request(in, out, "new");
+					position = Position.fromFen(Position.START_FEN);
+					games.increment();
+					plies = 0;
+					continue;
+				}
+				int move = legal.get(random.nextInt(legal.size()));
+				long start = System.nanoTime();
+				String reply = request(in, out, "move " + Move.toString(move));
+				roundTrip.record(System.nanoTime() - start);
+				if(!reply.startsWith("ok")) {
+					failures.increment();
+					continue;
+				}
+				position.makeMove(move);
+				moves.increment();
+				++plies;
+			}
+			request(in, out, "quit");
+		} catch(IOException e) {
+			failures.increment();
+		}
+	}
+
+	// Sends a command and waits for its one-line answer.
+	private static String request(BufferedReader in, OutputStream out, String command) throws IOException {
+		out.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		String reply = in.readLine();
+		if(reply == null)
+			throw new IOException("Server closed the connection");
+		return reply;
+	}
+
+	// Usage: SessionLoad [games] [seconds] [port]; plays that many concurrent games for that long.
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		SessionServer local = (args.length > 2) ? null : new SessionServer(0);
+		int port = (local != null) ? local.getPort() : Integer.parseInt(args[2]);
+
+		long start = System.nanoTime();
+		SessionLoad load = new SessionLoad(port, start + TimeUnit.SECONDS.toNanos(seconds));
+		List<Future<?>> running = new ArrayList<>();
+		try {
+			ExecutorService pool = SessionServer.newThreadPerTaskExecutor();
+			for(int i = 0; i < clients; ++i)
+				running.add(pool.submit(load::client));
+			for(Future<?> f : running)
+				f.get();
+			pool.shutdown();
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d games on %s threads for %.1f s: %d moves, %.0f moves/s, %d new games, %d failures%n",
+					clients, SessionServer.hasVirtualThreads() ? "virtual" : "platform", elapsed,
+					load.moves.sum(), load.moves.sum() / elapsed, load.games.sum(), load.failures.sum());
+			System.out.println("round trip  " + load.roundTrip.summary());
+			if(local != null)
+				System.out.println("validation  " + local.getValidationLatency().summary());
+		} finally {
+			if(local != null)
+				local.close();
+		}
+	}
+}
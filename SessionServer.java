@@ -0,0 +1,130 @@
+package chess;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// SessionServer hosts many games at once without Swing: every connection to a local socket is one
+// GameSession, served by its own thread (see GameSession for the line protocol).
+// On Java 21 and later each session runs on a virtual thread, so tens of thousands of mostly idle games
+// cost little more than their positions; on older runtimes it falls back to a cached pool of platform threads.
+public class SessionServer implements AutoCloseable {
+	static final int DEFAULT_PORT = 7878;
+
+	private final ServerSocket listener;
+	private final ExecutorService sessions = newThreadPerTaskExecutor();
+	private final Thread acceptor;
+	private final AtomicInteger active = new AtomicInteger();
+	private final LongAdder totalSessions = new LongAdder();
+	private final LongAdder movesPlayed = new LongAdder();
+	private final LongAdder movesRejected = new LongAdder();
+	private final LatencyHistogram validation = new LatencyHistogram();
+
+	// Starts listening on a loopback port; port 0 picks a free one.
+	public SessionServer(int port) throws IOException {
+		listener = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		acceptor = new Thread(this::acceptLoop, "session-acceptor");
+		acceptor.start();
+	}
+
+	// Returns an executor that starts a virtual thread per task where the runtime has them (Java 21+),
+	// and otherwise a platform thread per task. Looked up by reflection so the code still builds for 17.
+	static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	// Determines if sessions run on virtual threads.
+	static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	// Returns the port the server listens on.
+	public int getPort() {
+		return listener.getLocalPort();
+	}
+
+	// Hands every accepted connection to a new session.
+	private void acceptLoop() {
+		try {
+			while(!listener.isClosed()) {
+				Socket s = listener.accept();
+				s.setTcpNoDelay(true);
+				sessions.execute(new GameSession(s, this));
+			}
+		} catch(SocketException e) {
+			// The listener was closed.
+		} catch(IOException e) {
+			System.err.println("Session server stopped: " + e);
+		}
+	}
+
+	// Counts a session that has started.
+	void sessionStarted() {
+		active.incrementAndGet();
+		totalSessions.increment();
+	}
+
+	// Counts a session that has ended.
+	void sessionEnded() {
+		active.decrementAndGet();
+	}
+
+	// Records the time spent validating and playing one move.
+	void moveValidated(long nanos, boolean legal) {
+		validation.record(nanos);
+		if(legal) movesPlayed.increment();
+		else movesRejected.increment();
+	}
+
+	// Returns the number of connected sessions.
+	public int getActiveSessions() {
+		return active.get();
+	}
+
+	// Returns the number of moves played on all sessions.
+	public long getMovesPlayed() {
+		return movesPlayed.sum();
+	}
+
+	// Returns the histogram of move validation times.
+	LatencyHistogram getValidationLatency() {
+		return validation;
+	}
+
+	// Formats the counters as a protocol line.
+	String stats() {
+		return "stats active " + active.get() + " sessions " + totalSessions.sum() + " moves " + movesPlayed.sum()
+				+ " rejected " + movesRejected.sum() + " p50 " + validation.percentile(0.5)
+				+ " p99 " + validation.percentile(0.99) + " ns";
+	}
+
+	// Stops accepting connections and closes the sessions' threads.
+	@Override
+	public void close() throws IOException {
+		listener.close();
+		sessions.shutdownNow();
+	}
+
+	// Usage: SessionServer [port]; serves games on a loopback port until killed.
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		SessionServer server = new SessionServer(port);
+		System.out.println("Serving games on 127.0.0.1:" + server.getPort()
+				+ (hasVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+	}
+}
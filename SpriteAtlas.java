@@ -0,0 +1,193 @@
+package chess;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+// SpriteAtlas packs the twelve piece images, already scaled to one square size, into a single image:
+// one row per color (PlayerColor.ordinal()) and one column per piece (PieceType.ordinal()).
+// Each atlas is cached on disk as raw ARGB pixels, keyed by its size in device pixels, so a launch at a
+// size seen before reads one file with no PNG decoding or scaling. The cache lives in
+// ~/.chess-game/sprites unless the chess.cacheDir system property points elsewhere.
+final class SpriteAtlas {
+	private static final String[] NAMES = {"king", "queen", "bishop", "knight", "rook", "pawn"};
+	private static final int MAGIC = 0x43484153; // "CHAS"
+	// Atlases kept in the cache; resizing the window would otherwise leave one file per size behind.
+	private static final int CACHE_LIMIT = 8;
+
+	private final BufferedImage image;
+	private final int size;
+	private final Image[][] pieces = new Image[2][6];
+
+	// Wraps an atlas image whose cells are size x size pixels.
+	private SpriteAtlas(BufferedImage image, int size) {
+		this.image = image;
+		this.size = size;
+		for(int c = 0; c < 2; ++c) {
+			for(int t = 0; t < 6; ++t) pieces[c][t] = image.getSubimage(t * size, c * size, size, size);
+		}
+	}
+
+	// Returns the edge length of one piece in pixels.
+	int getSquareSize() {
+		return size;
+	}
+
+	// Returns the image of a piece.
+	Image piece(PlayerColor pc, PieceType type) {
+		return pieces[pc.ordinal()][type.ordinal()];
+	}
+
+	// Returns the atlas for a square size in device pixels, from the disk cache when it is up to date
+	// and otherwise built from the PNGs in imageDir and written to the cache.
+	static SpriteAtlas load(String imageDir, int size) {
+		Path cache = cacheDir().resolve("pieces-" + size + ".atlas");
+		long sourcesModified = newestSource(imageDir);
+		try {
+			if(Files.isRegularFile(cache) && Files.getLastModifiedTime(cache).toMillis() >= sourcesModified)
+				return read(cache);
+		} catch(IOException e) {
+			// A damaged cache entry is rebuilt below.
+		}
+		SpriteAtlas atlas = build(imageDir, size);
+		try {
+			write(atlas, cache);
+			prune(cache.getParent());
+		} catch(IOException e) {
+			// Not being able to cache only costs the next launch some time.
+		}
+		return atlas;
+	}
+
+	// Returns the cache directory.
+	static Path cacheDir() {
+		String dir = System.getProperty("chess.cacheDir");
+		return (dir != null) ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".chess-game", "sprites");
+	}
+
+	// Returns the last modification time of the newest piece PNG.
+	private static long newestSource(String imageDir) {
+		long newest = 0;
+		for(String name : NAMES) {
+			newest = Math.max(newest, new File(imageDir, name + "_b.png").lastModified());
+			newest = Math.max(newest, new File(imageDir, name + "_w.png").lastModified());
+		}
+		return newest;
+	}
+
+	// Decodes and scales the piece PNGs into a new atlas; missing images leave their cell empty.
+	static SpriteAtlas build(String imageDir, int size) {
+		BufferedImage atlas = new BufferedImage(6 * size, 2 * size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = atlas.createGraphics();
+		for(int t = 0; t < NAMES.length; ++t) {
+			for(int c = 0; c < 2; ++c) {
+				String suffix = (c == PlayerColor.black.ordinal()) ? "_b.png" : "_w.png";
+				try {
+					BufferedImage source = ImageIO.read(new File(imageDir, NAMES[t] + suffix));
+					if(source != null)
+						g.drawImage(BoardView.scale(source, size), t * size, c * size, null);
+				} catch(IOException e) {
+					// Drawn as an empty cell, like a missing ImageIcon file.
+				}
+			}
+		}
+		g.dispose();
+		return new SpriteAtlas(atlas, size);
+	}
+
+	// Reads a cached atlas: a header of magic, size, width and height, then the ARGB pixels.
+	private static SpriteAtlas read(Path file) throws IOException {
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate((int) ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while(buf.hasRemaining() && ch.read(buf) >= 0) {}
+			buf.flip();
+			if(buf.remaining() < 16 || buf.getInt() != MAGIC)
+				throw new IOException("Not a sprite atlas: " + file);
+			int size = buf.getInt(), w = buf.getInt(), h = buf.getInt();
+			if(w != 6 * size || h != 2 * size || buf.remaining() != 4L * w * h)
+				throw new IOException("Truncated sprite atlas: " + file);
+			BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			buf.asIntBuffer().get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+			return new SpriteAtlas(image, size);
+		}
+	}
+
+	// Writes an atlas to the cache through a temporary file, so readers never see half a file.
+	private static void write(SpriteAtlas atlas, Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		BufferedImage image = atlas.image;
+		int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		ByteBuffer buf = ByteBuffer.allocate(16 + 4 * pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(atlas.size).putInt(image.getWidth()).putInt(image.getHeight());
+		buf.asIntBuffer().put(pixels);
+		buf.rewind();
+		Path tmp = Files.createTempFile(file.getParent(), "pieces", ".tmp");
+		try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			while(buf.hasRemaining()) ch.write(buf);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Deletes all but the most recently written atlases.
+	private static void prune(Path dir) throws IOException {
+		List<Path> atlases;
+		try(Stream<Path> files = Files.list(dir)) {
+			atlases = files.filter(p -> p.getFileName().toString().endsWith(".atlas"))
+					.sorted(Comparator.comparingLong((Path p) -> p.toFile().lastModified()).reversed())
+					.collect(Collectors.toList());
+		}
+		for(int i = CACHE_LIMIT; i < atlases.size(); ++i)
+			Files.deleteIfExists(atlases.get(i));
+	}
+
+	// Usage: SpriteAtlas [size] [imageDir]; compares the old per-image SCALE_SMOOTH loading with
+	// building an atlas and with reading it back from the cache.
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		String dir = args.length > 1 ? args[1] : ChessBoard.IMAGE_DIR;
+
+		long start = System.nanoTime();
+		for(String name : NAMES) {
+			for(String suffix : new String[] {"_b.png", "_w.png"})
+				new ImageIcon(new ImageIcon(new File(dir, name + suffix).getPath()).getImage().getScaledInstance(size, size, Image.SCALE_SMOOTH));
+		}
+		report("ImageIcon + SCALE_SMOOTH", start);
+
+		start = System.nanoTime();
+		SpriteAtlas built = build(dir, size);
+		report("atlas build", start);
+
+		try {
+			Path file = Files.createTempFile("pieces", ".atlas");
+			write(built, file);
+			start = System.nanoTime();
+			read(file);
+			report("atlas from cache", start);
+			Files.delete(file);
+		} catch(IOException e) {
+			System.out.println("cache test failed: " + e);
+		}
+	}
+
+	// Prints the time since a start mark.
+	private static void report(String label, long start) {
+		System.out.printf("%-26s %8.2f ms%n", label, (System.nanoTime() - start) / 1e6);
+	}
+}
@@ -0,0 +1,614 @@
+package chess;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tablebase holds the exact outcome of every position of one material set, such as KRvK, for either
+// side to move: one byte per position, 0 for a draw, 255 for an impossible placement, and otherwise
+// 1 + the number of plies to mate with best play. An even number of plies means the side to move is
+// mated, an odd number that it mates. Castling rights are not part of the tables, and neither is a
+// pending en passant capture: a position just after a double push is stored as if the capture were not
+// there, and Tablebases.probe adds the capture's outcome. The generator does take it into account
+// wherever a double push leads, so every stored value is exact.
+// A position is indexed by the white king's square, folded by symmetry into one quadrant of the board
+// (into the a-d files when there are pawns), followed by the square of every other piece: the black
+// king, the other white pieces and the other black pieces in "KQBNRP" order.
+final class Tablebase {
+	static final int MAGIC = 0x43485442; // "CHTB"
+	static final int HEADER = 16;
+	static final int DRAW = 0;
+	static final int ILLEGAL = 255;
+	// Longest distance to mate a byte can hold.
+	static final int MAX_PLIES = 253;
+	// Piece letters in table order, which is PieceType ordinal order.
+	static final String ORDER = "KQBNRP";
+
+	final String name;
+	final int men;
+	final boolean pawns;
+	// Positions per side to move.
+	final int size;
+	final PieceType[] types;
+	final PlayerColor[] colors;
+	// Values by PlayerColor.ordinal() of the side to move; heap buffers while generating, mapped once written.
+	private final ByteBuffer[] values = new ByteBuffer[2];
+
+	// Describes the table of a material set written as white's pieces, "v", black's pieces, for example "KBNvK".
+	Tablebase(String name) {
+		String[] sides = name.split("v");
+		if(sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K"))
+			throw new IllegalArgumentException("Bad material: " + name);
+		String white = sort(sides[0].substring(1)), black = sort(sides[1].substring(1));
+		this.name = "K" + white + "vK" + black;
+		men = 2 + white.length() + black.length();
+		if(men > 5)
+			throw new IllegalArgumentException("Tables go up to five pieces: " + name);
+		pawns = this.name.indexOf('P') >= 0;
+		size = (pawns ? 32 : 16) << (6 * (men - 1));
+		types = new PieceType[men];
+		colors = new PlayerColor[men];
+		types[0] = types[1] = PieceType.king;
+		colors[0] = PlayerColor.white;
+		colors[1] = PlayerColor.black;
+		int k = 2;
+		for(char c : white.toCharArray()) {
+			types[k] = Position.pieceType(c);
+			colors[k++] = PlayerColor.white;
+		}
+		for(char c : black.toCharArray()) {
+			types[k] = Position.pieceType(c);
+			colors[k++] = PlayerColor.black;
+		}
+	}
+
+	// Sorts piece letters into table order.
+	static String sort(String letters) {
+		char[] c = letters.toUpperCase().toCharArray();
+		for(int i = 1; i < c.length; ++i) {
+			for(int j = i; j > 0 && ORDER.indexOf(c[j - 1]) > ORDER.indexOf(c[j]); --j) {
+				char t = c[j]; c[j] = c[j - 1]; c[j - 1] = t;
+			}
+		}
+		for(char x : c) {
+			if(ORDER.indexOf(x) <= 0)
+				throw new IllegalArgumentException("Bad piece letter: " + x);
+		}
+		return new String(c);
+	}
+
+	// Returns the name of a material set with the side that has more material as white, which is
+	// the orientation tables are built in; colors swap by mirroring the board top to bottom.
+	static String canonicalName(String white, String black) {
+		white = sort(white);
+		black = sort(black);
+		int w = strength(white), b = strength(black);
+		boolean swap = w < b || (w == b && white.compareTo(black) < 0);
+		return swap ? "K" + black + "vK" + white : "K" + white + "vK" + black;
+	}
+
+	// Sums the material values of piece letters.
+	private static int strength(String letters) {
+		int total = 0;
+		for(char c : letters.toCharArray())
+			total += Evaluation.VALUE[ORDER.indexOf(c)];
+		return total;
+	}
+
+	// Returns the tables a capture or promotion in this one leads to, bare kings excluded.
+	List<String> childNames() {
+		List<String> children = new ArrayList<>();
+		String[] sides = name.substring(1).split("vK", -1);
+		for(int side = 0; side < 2; ++side) {
+			String own = sides[side], other = sides[1 - side];
+			for(int i = 0; i < own.length(); ++i) {
+				String rest = own.substring(0, i) + own.substring(i + 1);
+				add(children, side == 0 ? rest : other, side == 0 ? other : rest);
+				if(own.charAt(i) == 'P') {
+					for(char promotion : "QRBN".toCharArray())
+						add(children, side == 0 ? rest + promotion : other, side == 0 ? other : rest + promotion);
+				}
+			}
+		}
+		return children;
+	}
+
+	// Adds a child material set unless it is already listed or only kings are left.
+	private static void add(List<String> children, String white, String black) {
+		if(white.isEmpty() && black.isEmpty())
+			return;
+		String child = canonicalName(white, black);
+		if(!children.contains(child))
+			children.add(child);
+	}
+
+	// Returns the value of a position by side to move and index.
+	int get(PlayerColor turn, int index) {
+		return values[turn.ordinal()].get(index) & 0xFF;
+	}
+
+	// Folds piece squares by symmetry so the white king lands in the indexed part of the board.
+	static void canonical(int[] sq, int men, boolean pawns) {
+		if((sq[0] & 7) >= 4) {
+			for(int k = 0; k < men; ++k) sq[k] ^= 7;
+		}
+		if(!pawns && (sq[0] >> 3) < 4) {
+			for(int k = 0; k < men; ++k) sq[k] ^= 56;
+		}
+	}
+
+	// Returns the index of a canonical placement.
+	int index(int[] sq) {
+		int wk = sq[0];
+		int index = pawns ? (wk >> 3) * 4 + (wk & 7) : ((wk >> 3) - 4) * 4 + (wk & 7);
+		for(int k = 1; k < men; ++k)
+			index = (index << 6) | sq[k];
+		return index;
+	}
+
+	// Fills in the piece squares of an index.
+	void squares(int index, int[] sq) {
+		for(int k = men - 1; k > 0; --k) {
+			sq[k] = index & 63;
+			index >>>= 6;
+		}
+		sq[0] = pawns ? (index >> 2) * 8 + (index & 3) : ((index >> 2) + 4) * 8 + (index & 3);
+	}
+
+	// Writes the table to <dir>/<name>.tb through a temporary file: a header of MAGIC, men and size,
+	// then the values with black to move and with white to move.
+	void write(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		Path tmp = dir.resolve(name + ".tb.tmp");
+		try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(men).putInt(size).putInt(0).flip();
+			while(header.hasRemaining()) ch.write(header);
+			for(ByteBuffer v : values) {
+				ByteBuffer all = v.duplicate().clear();
+				while(all.hasRemaining()) ch.write(all);
+			}
+		}
+		Files.move(tmp, dir.resolve(name + ".tb"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Maps a table file for probing.
+	static Tablebase load(Path file) throws IOException {
+		String fileName = file.getFileName().toString();
+		Tablebase t = new Tablebase(fileName.substring(0, fileName.length() - 3));
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			if(header.getInt() != MAGIC || header.getInt() != t.men || header.getInt() != t.size
+					|| ch.size() != HEADER + 2L * t.size)
+				throw new IOException("Not a " + t.name + " tablebase: " + file);
+			t.values[0] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER, t.size);
+			t.values[1] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + (long) t.size, t.size);
+		}
+		return t;
+	}
+
+	// Summarizes the table with white to move: wins, draws, losses and the longest mate.
+	String stats() {
+		long[] count = new long[3];
+		int longest = 0;
+		ByteBuffer v = values[PlayerColor.white.ordinal()];
+		for(int i = 0; i < size; ++i) {
+			int value = v.get(i) & 0xFF;
+			if(value == ILLEGAL) continue;
+			if(value == DRAW) ++count[1];
+			else {
+				++count[(value - 1) % 2 == 1 ? 0 : 2];
+				longest = Math.max(longest, value - 1);
+			}
+		}
+		return String.format("%s: white to move %d wins, %d draws, %d losses, longest mate %d plies",
+				name, count[0], count[1], count[2], longest);
+	}
+
+	// Builds a table by retrograde analysis. Every legal position first gets the number of its moves
+	// that stay in the table, and the outcome of its captures and promotions from the smaller tables.
+	// Then, one ply at a time from the checkmates outward, the positions decided at that ply are
+	// unmoved: a predecessor of a lost position is won one ply later, and a predecessor of a won
+	// position loses one move; once it has none left that draws or wins, it is lost. Each ply is
+	// processed in parallel, with atomic updates of the byte arrays.
+	// A double push that allows an en passant reply leads to the stored position plus that capture,
+	// whose outcome comes from a smaller table. The move is worth the better of the two for the side
+	// replying, so its effect on the pusher is held back or dropped when unmoving the stored position,
+	// and events queued for a later ply apply the capture's outcome when it decides first.
+	static final class Generator {
+		private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+		private static final int CHUNK = 1 << 15;
+		// Event kinds: the double push loses by the en passant reply, unless the stored position already
+		// lost it sooner; it wins because the stored position is lost and so is the capture; it wins
+		// because the capture loses and the stored position has no other move.
+		private static final int LOSE_BY_CAPTURE = 0;
+		private static final int WIN = 1;
+		private static final int WIN_IF_STALEMATE = 2;
+
+		private final Tablebase t;
+		private final Tablebases children;
+		private final ExecutorService pool;
+		private final byte[][] value = new byte[2][];
+		// Moves left that might avoid a loss, and the longest mate against the side to move through a capture or promotion.
+		private final byte[][] count = new byte[2][];
+		private final byte[][] exitLoss = new byte[2][];
+		private final AtomicInteger maxPly = new AtomicInteger();
+		// Events by the ply they take effect at: kind << 34 | pushing pawn << 31 | side << 30 | index.
+		private final Events[] events = new Events[MAX_PLIES + 1];
+
+		// Creates a generator for a table whose smaller tables are already in children.
+		Generator(Tablebase t, Tablebases children, ExecutorService pool) {
+			this.t = t;
+			this.children = children;
+			this.pool = pool;
+		}
+
+		// Runs the analysis and hands the values to the table.
+		void run() throws InterruptedException {
+			for(int s = 0; s < 2; ++s) {
+				value[s] = new byte[t.size];
+				count[s] = new byte[t.size];
+				exitLoss[s] = new byte[t.size];
+			}
+			parallel(-1);
+			for(int ply = 0; ply <= maxPly.get(); ++ply)
+				parallel(ply);
+			for(int s = 0; s < 2; ++s)
+				t.values[s] = ByteBuffer.wrap(value[s]);
+		}
+
+		// Runs the initial pass (ply -1) or one ply of the analysis over both sides, in chunks.
+		private void parallel(int ply) throws InterruptedException {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for(int s = 0; s < 2; ++s) {
+				for(int start = 0; start < t.size; start += CHUNK) {
+					final int side = s, from = start, to = Math.min(t.size, start + CHUNK);
+					tasks.add(() -> {
+						int[] sq = new int[t.men], work = new int[t.men], spare = new int[t.men];
+						for(int i = from; i < to; ++i) {
+							if(ply < 0) init(side, i, sq, work, spare);
+							else if((value[side][i] & 0xFF) == ply + 1) unmove(side, i, ply, sq, work, spare);
+						}
+						return null;
+					});
+				}
+			}
+			Events due = (ply >= 0) ? events[ply] : null;
+			for(int start = 0; due != null && start < due.size; start += CHUNK) {
+				final int from = start, to = Math.min(due.size, start + CHUNK);
+				tasks.add(() -> {
+					int[] sq = new int[t.men];
+					for(int i = from; i < to; ++i)
+						apply(due.items[i], ply, sq);
+					return null;
+				});
+			}
+			try {
+				for(Future<Void> f : pool.invokeAll(tasks))
+					f.get();
+			} catch(ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		// Records that a position is decided ply plies from mate.
+		private void noteDecided(int ply) {
+			if(ply > MAX_PLIES)
+				throw new IllegalStateException(t.name + " has mates longer than " + MAX_PLIES + " plies");
+			maxPly.accumulateAndGet(ply, Math::max);
+		}
+
+		// Sets up the counters and outcomes of one position for side s to move.
+		private void init(int s, int index, int[] sq, int[] work, int[] spare) {
+			t.squares(index, sq);
+			PlayerColor side = SIDES[s], enemy = Position.opponent(side);
+			if(!isValid(sq, side)) {
+				value[s][index] = (byte) ILLEGAL;
+				return;
+			}
+			long occ = 0, own = 0;
+			for(int k = 0; k < t.men; ++k) {
+				occ |= Position.bit(sq[k]);
+				if(t.colors[k] == side) own |= Position.bit(sq[k]);
+			}
+			int king = (side == PlayerColor.white) ? 0 : 1;
+			int inTable = 0, legal = 0, bestWin = Integer.MAX_VALUE, worstLoss = 0;
+			boolean draw = false;
+			for(int k = 0; k < t.men; ++k) {
+				if(t.colors[k] != side)
+					continue;
+				int from = sq[k];
+				long targets = (t.types[k] == PieceType.pawn) ? pawnTargets(from, side, occ, own) : attacks(t.types[k], side, from, occ) & ~own;
+				for(; targets != 0; targets &= targets - 1) {
+					int to = Long.numberOfTrailingZeros(targets);
+					int captured = pieceOn(sq, to);
+					System.arraycopy(sq, 0, work, 0, t.men);
+					work[k] = to;
+					long after = (occ & ~Position.bit(from)) | Position.bit(to);
+					if(attacked(work[king], enemy, work, captured, after))
+						continue;
+					++legal;
+					boolean promotes = t.types[k] == PieceType.pawn && ((to >> 3) == 0 || (to >> 3) == 7);
+					if(captured < 0 && !promotes) {
+						++inTable;
+						if(t.types[k] == PieceType.pawn && Math.abs(to - from) == 16) {
+							// The stored position decides this move at its own ply unless the capture wins
+							// sooner, or loses when it is the only move.
+							int capture = enPassantValue(work, k, after, spare);
+							if(capture > 0)
+								schedule((capture - 1) % 2 == 1 ? LOSE_BY_CAPTURE : WIN_IF_STALEMATE, capture - 1, k, s, index);
+						}
+						continue;
+					}
+					for(PieceType promotion : promotes ? PROMOTIONS : NO_PROMOTION) {
+						int v = children.lookup(t.types, t.colors, work, t.men, captured, k, promotion, enemy);
+						if(v < 0 || v == ILLEGAL)
+							throw new IllegalStateException("No value for a capture or promotion out of " + t.name);
+						if(v == DRAW) draw = true;
+						else if((v - 1) % 2 == 0) bestWin = Math.min(bestWin, v);
+						else worstLoss = Math.max(worstLoss, v - 1);
+					}
+				}
+			}
+			if(legal == 0) {
+				if(attacked(sq[king], enemy, sq, -1, occ)) {
+					value[s][index] = 1;
+					noteDecided(0);
+				}
+				return;
+			}
+			int moves = inTable + (draw ? 1 : 0);
+			count[s][index] = (byte) moves;
+			exitLoss[s][index] = (byte) worstLoss;
+			if(bestWin != Integer.MAX_VALUE) {
+				value[s][index] = (byte) (bestWin + 1);
+				noteDecided(bestWin);
+			}
+			else if(moves == 0) {
+				value[s][index] = (byte) (worstLoss + 2);
+				noteDecided(worstLoss + 1);
+			}
+		}
+
+		// Unmoves a position decided at ply with side s to move, updating its predecessors.
+		private void unmove(int s, int index, int ply, int[] sq, int[] work, int[] spare) {
+			t.squares(index, sq);
+			PlayerColor mover = Position.opponent(SIDES[s]);
+			int m = mover.ordinal();
+			long occ = 0;
+			for(int k = 0; k < t.men; ++k)
+				occ |= Position.bit(sq[k]);
+			for(int k = 0; k < t.men; ++k) {
+				if(t.colors[k] != mover)
+					continue;
+				long origins = (t.types[k] == PieceType.pawn) ? pawnOrigins(sq[k], mover, occ) : attacks(t.types[k], mover, sq[k], occ) & ~occ;
+				for(; origins != 0; origins &= origins - 1) {
+					int origin = Long.numberOfTrailingZeros(origins);
+					// After a double push the side to move may also take en passant.
+					int capture = (t.types[k] == PieceType.pawn && Math.abs(origin - sq[k]) == 16) ? enPassantValue(sq, k, occ, spare) : -1;
+					System.arraycopy(sq, 0, work, 0, t.men);
+					work[k] = origin;
+					canonical(work, t.men, t.pawns);
+					int q = t.index(work);
+					if((value[m][q] & 0xFF) == ILLEGAL)
+						continue;
+					if(capture < 0) {
+						if(ply % 2 == 0) setWin(m, q, ply + 1);
+						else loseMove(m, q, ply);
+					}
+					else if(ply % 2 == 0) {
+						// Lost here, so the push wins only if the capture loses too, as late as either.
+						if(capture == DRAW || (capture - 1) % 2 == 1) continue;
+						if(capture - 1 <= ply) setWin(m, q, ply + 1);
+						else schedule(WIN, capture - 1, k, m, q);
+					}
+					else if(capture == DRAW || (capture - 1) % 2 == 0 || capture - 1 > ply) {
+						// Won here, unless the capture's event has already taken the move away.
+						loseMove(m, q, ply);
+					}
+				}
+			}
+		}
+
+		// Marks a position won in ply plies, unless it is already won as fast.
+		private void setWin(int m, int q, int ply) {
+			while(true) {
+				int current = (byte) BYTES.getVolatile(value[m], q) & 0xFF;
+				if(current != DRAW && current - 1 <= ply)
+					return;
+				if(BYTES.compareAndSet(value[m], q, (byte) current, (byte) (ply + 1))) {
+					noteDecided(ply);
+					return;
+				}
+			}
+		}
+
+		// Takes one move that avoids the loss away from a position; with none left it is lost.
+		private void loseMove(int m, int q, int ply) {
+			// A compare-and-set loop rather than getAndAdd, whose compiled form returns wrong values for byte arrays.
+			int left;
+			do {
+				left = (byte) BYTES.getVolatile(count[m], q);
+			} while(!BYTES.compareAndSet(count[m], q, (byte) left, (byte) (left - 1)));
+			if(left != 1 || (value[m][q] & 0xFF) != DRAW)
+				return;
+			int lost = Math.max(ply, exitLoss[m][q] & 0xFF) + 1;
+			if(BYTES.compareAndSet(value[m], q, (byte) DRAW, (byte) (lost + 1)))
+				noteDecided(lost);
+		}
+
+		// Returns the best outcome of taking en passant the pawn k that has just moved two squares to
+		// sq[k], as a value for the capturing side (1 + plies to mate, or DRAW), or -1 if no capture is legal.
+		private int enPassantValue(int[] sq, int k, long occ, int[] work) {
+			PlayerColor pusher = t.colors[k], taker = Position.opponent(pusher);
+			int target = sq[k] + ((pusher == PlayerColor.white) ? 8 : -8);
+			int king = (taker == PlayerColor.white) ? 0 : 1;
+			int best = -1;
+			for(int j = 0; j < t.men; ++j) {
+				if(t.colors[j] != taker || t.types[j] != PieceType.pawn
+						|| (Bitboards.PAWN_ATTACKS[taker.ordinal()][sq[j]] & Position.bit(target)) == 0)
+					continue;
+				System.arraycopy(sq, 0, work, 0, t.men);
+				work[j] = target;
+				long after = (occ & ~Position.bit(sq[j]) & ~Position.bit(sq[k])) | Position.bit(target);
+				if(attacked(work[king], pusher, work, k, after))
+					continue;
+				int v = children.lookup(t.types, t.colors, work, t.men, k, -1, PieceType.none, pusher);
+				if(v < 0 || v == ILLEGAL)
+					throw new IllegalStateException("No value for an en passant capture out of " + t.name);
+				best = better(best, (v == DRAW) ? DRAW : v + 1);
+			}
+			return best;
+		}
+
+		// Queues an event for a ply; the ply also counts as decided, so the analysis runs up to it.
+		private void schedule(int kind, int ply, int k, int side, int index) {
+			noteDecided(ply);
+			Events e;
+			synchronized(events) {
+				if(events[ply] == null)
+					events[ply] = new Events();
+				e = events[ply];
+			}
+			e.add((long) kind << 34 | (long) k << 31 | (long) side << 30 | index);
+		}
+
+		// Applies an event queued for ply to the position that double pushed.
+		private void apply(long event, int ply, int[] sq) {
+			int kind = (int) (event >>> 34), k = (int) (event >>> 31) & 7, m = (int) (event >>> 30) & 1;
+			int q = (int) event & ((1 << 30) - 1);
+			if(kind == WIN) {
+				setWin(m, q, ply + 1);
+				return;
+			}
+			// Find the stored position the push leads to.
+			t.squares(q, sq);
+			sq[k] += (t.colors[k] == PlayerColor.white) ? -16 : 16;
+			canonical(sq, t.men, t.pawns);
+			int o = 1 - m, p = t.index(sq);
+			int v = (byte) BYTES.getVolatile(value[o], p) & 0xFF;
+			if(kind == LOSE_BY_CAPTURE) {
+				if(v == DRAW || (v - 1) % 2 == 0 || v - 1 >= ply)
+					loseMove(m, q, ply);
+			}
+			else if(v == DRAW && count[o][p] == 0) {
+				setWin(m, q, ply + 1);
+			}
+		}
+
+		// Determines if a placement is a legal position with side to move.
+		private boolean isValid(int[] sq, PlayerColor side) {
+			long occ = 0;
+			for(int k = 0; k < t.men; ++k) {
+				long b = Position.bit(sq[k]);
+				if((occ & b) != 0)
+					return false;
+				occ |= b;
+				if(t.types[k] == PieceType.pawn && ((sq[k] >> 3) == 0 || (sq[k] >> 3) == 7))
+					return false;
+			}
+			if((Bitboards.KING_ATTACKS[sq[0]] & Position.bit(sq[1])) != 0)
+				return false;
+			int enemyKing = (side == PlayerColor.white) ? 1 : 0;
+			return !attacked(sq[enemyKing], side, sq, -1, occ);
+		}
+
+		// Determines if a square is attacked by a color's pieces, leaving out one captured piece.
+		private boolean attacked(int target, PlayerColor by, int[] sq, int skip, long occ) {
+			for(int k = 0; k < t.men; ++k) {
+				if(t.colors[k] == by && k != skip && (attacks(t.types[k], by, sq[k], occ) & Position.bit(target)) != 0)
+					return true;
+			}
+			return false;
+		}
+
+		// Returns the index of the piece on a square, or -1.
+		private int pieceOn(int[] sq, int target) {
+			for(int k = 0; k < t.men; ++k) {
+				if(sq[k] == target)
+					return k;
+			}
+			return -1;
+		}
+
+		// Returns the squares a pawn can move to: pushes to empty squares and captures of enemy pieces.
+		private static long pawnTargets(int from, PlayerColor pc, long occ, long own) {
+			int step = (pc == PlayerColor.white) ? -8 : 8;
+			long targets = 0;
+			if((occ & Position.bit(from + step)) == 0) {
+				targets |= Position.bit(from + step);
+				int startRow = (pc == PlayerColor.white) ? 6 : 1;
+				if((from >> 3) == startRow && (occ & Position.bit(from + 2 * step)) == 0)
+					targets |= Position.bit(from + 2 * step);
+			}
+			return targets | (Bitboards.PAWN_ATTACKS[pc.ordinal()][from] & occ & ~own);
+		}
+
+		// Returns the squares a pawn now on a square could have been pushed from.
+		private static long pawnOrigins(int at, PlayerColor pc, long occ) {
+			int step = (pc == PlayerColor.white) ? 8 : -8;
+			int before = at + step;
+			if((before >> 3) == 0 || (before >> 3) == 7 || (occ & Position.bit(before)) != 0)
+				return 0;
+			long origins = Position.bit(before);
+			int doubleRow = (pc == PlayerColor.white) ? 4 : 3;
+			if((at >> 3) == doubleRow && (occ & Position.bit(before + step)) == 0)
+				origins |= Position.bit(before + step);
+			return origins;
+		}
+	}
+
+	// Returns the better of two values for the side to move: the fastest win, then a draw, then the
+	// slowest loss; -1 stands for no move.
+	static int better(int a, int b) {
+		if(a < 0) return b;
+		if(b < 0) return a;
+		boolean aWins = a != DRAW && (a - 1) % 2 == 1, bWins = b != DRAW && (b - 1) % 2 == 1;
+		if(aWins != bWins) return aWins ? a : b;
+		if(aWins) return Math.min(a, b);
+		if(a == DRAW || b == DRAW) return DRAW;
+		return Math.max(a, b);
+	}
+
+	// A growable list of events, appended to from many threads.
+	private static final class Events {
+		long[] items = new long[64];
+		int size;
+
+		synchronized void add(long event) {
+			if(size == items.length)
+				items = Arrays.copyOf(items, size * 2);
+			items[size++] = event;
+		}
+	}
+
+	// Side to move by value array, which is the PlayerColor ordinal.
+	private static final PlayerColor[] SIDES = {PlayerColor.black, PlayerColor.white};
+	private static final PieceType[] PROMOTIONS = {PieceType.queen, PieceType.rook, PieceType.bishop, PieceType.knight};
+	private static final PieceType[] NO_PROMOTION = {PieceType.none};
+
+	// Returns the squares a piece attacks from a square.
+	static long attacks(PieceType type, PlayerColor pc, int from, long occ) {
+		switch(type) {
+			case king: return Bitboards.KING_ATTACKS[from];
+			case queen: return Bitboards.queenAttacks(from, occ);
+			case bishop: return Bitboards.bishopAttacks(from, occ);
+			case knight: return Bitboards.KNIGHT_ATTACKS[from];
+			case rook: return Bitboards.rookAttacks(from, occ);
+			default: return Bitboards.PAWN_ATTACKS[pc.ordinal()][from];
+		}
+	}
+}
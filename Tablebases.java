@@ -0,0 +1,272 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Tablebases is the set of endgame tables in a directory, looked up by material. A probe answers
+// for any position whose material has a table, in either color orientation, as long as no castling
+// right is left; an en passant capture is probed in the smaller table it leads to. Tables are generated
+// here on request, each after the smaller tables its captures and promotions lead to.
+public final class Tablebases {
+	// Tables by material, as counted by material().
+	private final Map<Long, Tablebase> tables = new ConcurrentHashMap<>();
+	private volatile int maxMen;
+	private static Tablebases defaultTables;
+
+	// Returns the tables of the chess.tablebases system property's directory, or of tb in ~/.chess-game,
+	// loaded on first use; an empty set if there are none.
+	static synchronized Tablebases getDefault() {
+		if(defaultTables == null) {
+			defaultTables = new Tablebases();
+			String path = System.getProperty("chess.tablebases");
+			Path dir = (path != null) ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".chess-game", "tb");
+			try {
+				defaultTables.loadDirectory(dir);
+			} catch(IOException e) {
+				System.err.println("Could not load the tablebases: " + e);
+			}
+		}
+		return defaultTables;
+	}
+
+	// Maps every table file in a directory; returns the number found.
+	public int loadDirectory(Path dir) throws IOException {
+		if(!Files.isDirectory(dir))
+			return 0;
+		int found = 0;
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.tb")) {
+			for(Path file : files) {
+				add(Tablebase.load(file));
+				++found;
+			}
+		}
+		return found;
+	}
+
+	// Adds a table to the set.
+	private void add(Tablebase t) {
+		long material = 0;
+		for(int k = 0; k < t.men; ++k)
+			material += material(t.types[k], t.colors[k]);
+		tables.put(material, t);
+		if(t.men > maxMen)
+			maxMen = t.men;
+	}
+
+	// Returns the number of tables.
+	public int size() {
+		return tables.size();
+	}
+
+	// Counts a piece into a material key: four bits per color and type, kings left out.
+	private static long material(PieceType type, PlayerColor pc) {
+		if(type == PieceType.king)
+			return 0;
+		return 1L << (4 * ((pc == PlayerColor.white ? 0 : 5) + type.ordinal() - 1));
+	}
+
+	// Returns the material key with the colors swapped.
+	private static long swapColors(long material) {
+		return (material >>> 20) | ((material & 0xFFFFF) << 20);
+	}
+
+	// Returns the table value of a position (see Tablebase), or -1 if there is no table for it.
+	public int probe(Position p) {
+		long occ = p.occupied();
+		int n = Long.bitCount(occ);
+		if(n > maxMen && n > 2)
+			return -1;
+		PlayerColor turn = p.getTurn();
+		int ep = p.getEnPassant();
+		if(p.getCastling() != 0)
+			return -1;
+		if(ep >= 0 && (Bitboards.PAWN_ATTACKS[Position.opponent(turn).ordinal()][ep] & p.pieces(turn, PieceType.pawn)) != 0)
+			return probeEnPassant(p);
+		return probeStored(p);
+	}
+
+	// Probes a position where en passant is possible. The table holds it without the capture, so each
+	// capture is made and probed on its own, and the side to move gets the better outcome.
+	private int probeEnPassant(Position p) {
+		MoveList moves = new MoveList();
+		p.legalMoves(moves);
+		int best = -1;
+		boolean others = false;
+		for(int i = 0; i < moves.size(); ++i) {
+			int m = moves.get(i);
+			if(!Move.isEnPassant(m)) {
+				others = true;
+				continue;
+			}
+			p.makeMove(m);
+			int v = probe(p);
+			p.unmakeMove(m);
+			if(v < 0)
+				return -1;
+			best = Tablebase.better(best, (v == Tablebase.DRAW) ? v : v + 1);
+		}
+		// With no move but the capture, a stored mate or stalemate does not apply.
+		if(others || best < 0) {
+			int stored = probeStored(p);
+			if(stored < 0)
+				return -1;
+			best = Tablebase.better(best, stored);
+		}
+		return best;
+	}
+
+	// Returns the stored table value of a position, leaving any en passant capture out.
+	private int probeStored(Position p) {
+		long occ = p.occupied();
+		int n = Long.bitCount(occ);
+		PieceType[] types = new PieceType[n];
+		PlayerColor[] colors = new PlayerColor[n];
+		int[] sq = new int[n];
+		for(int k = 0; occ != 0; occ &= occ - 1, ++k) {
+			sq[k] = Long.numberOfTrailingZeros(occ);
+			types[k] = p.typeAt(sq[k]);
+			colors[k] = p.colorAt(sq[k] >> 3, sq[k] & 7);
+		}
+		return lookup(types, colors, sq, n, -1, -1, PieceType.none, p.getTurn());
+	}
+
+	// Returns the table value of a set of pieces with turn to move, leaving out piece skip and with piece
+	// promoted turned into promotion (none for no change), or -1 if there is no table for it.
+	int lookup(PieceType[] types, PlayerColor[] colors, int[] sq, int n, int skip, int promoted, PieceType promotion, PlayerColor turn) {
+		long material = 0;
+		int men = 0;
+		for(int k = 0; k < n; ++k) {
+			if(k == skip) continue;
+			++men;
+			material += material(k == promoted && promotion != PieceType.none ? promotion : types[k], colors[k]);
+		}
+		if(men == 2)
+			return Tablebase.DRAW;
+		boolean swap = false;
+		Tablebase t = tables.get(material);
+		if(t == null) {
+			t = tables.get(swapColors(material));
+			swap = true;
+			if(t == null)
+				return -1;
+		}
+		// Places each piece in the first free slot of its type and color.
+		int[] placed = new int[t.men];
+		int filled = 0;
+		for(int k = 0; k < n; ++k) {
+			if(k == skip) continue;
+			PieceType type = (k == promoted && promotion != PieceType.none) ? promotion : types[k];
+			PlayerColor pc = swap ? Position.opponent(colors[k]) : colors[k];
+			for(int j = 0; j < t.men; ++j) {
+				if((filled & (1 << j)) == 0 && t.types[j] == type && t.colors[j] == pc) {
+					placed[j] = swap ? sq[k] ^ 56 : sq[k];
+					filled |= 1 << j;
+					break;
+				}
+			}
+		}
+		Tablebase.canonical(placed, t.men, t.pawns);
+		return t.get(swap ? Position.opponent(turn) : turn, t.index(placed));
+	}
+
+	// Converts a table value into a search score for the side to move at ply.
+	static int score(int value, int ply) {
+		if(value == Tablebase.DRAW)
+			return 0;
+		int plies = value - 1;
+		return (plies % 2 == 1) ? Search.MATE - (ply + plies) : -(Search.MATE - (ply + plies));
+	}
+
+	// Describes the outcome of a position for the status line, or returns null without a table.
+	String verdict(Position p) {
+		int value = probe(p);
+		if(value < 0)
+			return null;
+		if(value == Tablebase.DRAW)
+			return "tablebase draw";
+		int plies = value - 1;
+		PlayerColor winner = (plies % 2 == 1) ? p.getTurn() : Position.opponent(p.getTurn());
+		return winner + " mates in " + (plies + 1) / 2;
+	}
+
+	// Generates the table of a material set and the smaller tables it needs, keeping those already in dir.
+	Tablebase generate(String name, Path dir, ExecutorService pool) throws IOException, InterruptedException {
+		String[] sides = name.toUpperCase().split("V");
+		if(sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K"))
+			throw new IllegalArgumentException("Bad material: " + name);
+		Tablebase t = new Tablebase(Tablebase.canonicalName(sides[0].substring(1), sides[1].substring(1)));
+		long material = 0;
+		for(int k = 0; k < t.men; ++k)
+			material += material(t.types[k], t.colors[k]);
+		Tablebase known = tables.get(material);
+		if(known != null)
+			return known;
+		Path file = dir.resolve(t.name + ".tb");
+		if(!Files.isRegularFile(file)) {
+			for(String child : t.childNames())
+				generate(child, dir, pool);
+			long start = System.nanoTime();
+			new Tablebase.Generator(t, this, pool).run();
+			t.write(dir);
+			System.out.printf("%s in %.1f s%n", t.stats(), (System.nanoTime() - start) / 1e9);
+		}
+		Tablebase loaded = Tablebase.load(file);
+		add(loaded);
+		return loaded;
+	}
+
+	// Usage: Tablebases generate <dir> [--threads n] <material>... | probe <dir> <fen>; builds tables
+	// such as KQvK, KRvK, KPvK and KBNvK, or shows a position's value and the values of its moves.
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length >= 3 && args[0].equals("generate")) {
+			Path dir = Paths.get(args[1]);
+			int threads = Runtime.getRuntime().availableProcessors();
+			List<String> names = new ArrayList<>();
+			for(int i = 2; i < args.length; ++i) {
+				if(args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+				else names.add(args[i]);
+			}
+			Tablebases set = new Tablebases();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				for(String name : names)
+					set.generate(name, dir, pool);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		else if(args.length >= 3 && args[0].equals("probe")) {
+			Tablebases set = new Tablebases();
+			System.out.println(set.loadDirectory(Paths.get(args[1])) + " tables");
+			Position p = Position.fromFen(String.join(" ", Arrays.asList(args).subList(2, args.length)));
+			long start = System.nanoTime();
+			int value = 0;
+			for(int i = 0; i < 100000; ++i)
+				value = set.probe(p);
+			System.out.printf("value %d: %s, %.2f us per probe%n", value, value < 0 ? "no table" : set.verdict(p), (System.nanoTime() - start) / 1e8);
+			MoveList moves = new MoveList(), buffer = new MoveList();
+			p.legalMoves(moves);
+			for(int i = 0; i < moves.size(); ++i) {
+				int m = moves.get(i);
+				String san = San.toString(p, m, buffer);
+				p.makeMove(m);
+				String v = set.verdict(p);
+				p.unmakeMove(m);
+				System.out.printf("%-8s %s%n", san, v != null ? v : "no table");
+			}
+		}
+		else {
+			System.out.println("Usage: Tablebases generate <dir> [--threads n] <material>... | probe <dir> <fen>");
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tournament plays a match between two engine setups, A (the candidate) and B (the baseline), over an
+// opening suite: every opening is played twice with colors swapped, and many games run at once, one per
+// thread, each thread with its own pair of searches. Games are adjudicated with the rules the board uses
+// (MoveSnapshot: checkmate, stalemate, threefold repetition and the fifty-move rule), or drawn after a
+// ply limit. As results come in it reports games per second, the time per move, A's Elo difference over
+// B with its 95% interval, and a sequential probability ratio test of whether A is at least elo1 better
+// (H1) or at most elo0 (H0); the match stops once the test decides. Every finished game is appended to
+// a game archive for replay. Without an opening suite every pair of games starts from its own random
+// opening, since searches limited by depth alone would otherwise play the same game every time.
+public class Tournament {
+	// Plies after which a game is drawn, so shuffling endgames do not hold up the match.
+	private static final int MAX_PLIES = 400;
+	// Random moves from the start position in the openings made when no suite is given.
+	private static final int RANDOM_OPENING_PLIES = 4;
+	private static final String[] TERMINATIONS = {"checkmate", "stalemate", "repetition", "fifty moves", "ply limit"};
+
+	private final Engine a, b;
+	private final List<String> openings;
+	private final int threads;
+	private final GameArchive archive;
+	private final double elo0, elo1, alpha, beta;
+	// Results from A's point of view.
+	private int wins, draws, losses;
+	private final int[] terminations = new int[TERMINATIONS.length];
+	private final LatencyHistogram moveTime = new LatencyHistogram();
+	private final LongAdder moveNanos = new LongAdder();
+	private final LongAdder moves = new LongAdder();
+	private volatile boolean stopping;
+	private final ThreadLocal<Search[]> searches;
+
+	// One side of the match: a name and how its searches are set up.
+	static final class Engine {
+		final String name;
+		// Evaluation network, or null for Evaluation.
+		final Network network;
+		final int hashMegabytes;
+		final long millis;
+		final int depth;
+
+		// Reads a setup such as "name=nnue,nnue=eval.nnue,millis=100,hash=16,depth=6"; nnue=none
+		// evaluates with Evaluation, and an unset nnue uses the default network if there is one.
+		Engine(String spec, String defaultName, long defaultMillis, int defaultDepth) throws IOException {
+			String name = defaultName, nnue = null;
+			int hash = 16, depth = defaultDepth;
+			long millis = defaultMillis;
+			for(String option : spec.isEmpty() ? new String[0] : spec.split(",")) {
+				int eq = option.indexOf('=');
+				if(eq < 0)
+					throw new IllegalArgumentException("Expected key=value: " + option);
+				String value = option.substring(eq + 1);
+				switch(option.substring(0, eq)) {
+					case "name": name = value; break;
+					case "nnue": nnue = value; break;
+					case "hash": hash = Integer.parseInt(value); break;
+					case "millis": millis = Long.parseLong(value); break;
+					case "depth": depth = Integer.parseInt(value); break;
+					default: throw new IllegalArgumentException("Unknown engine option: " + option);
+				}
+			}
+			this.name = name;
+			network = (nnue == null) ? Network.getDefault() : nnue.equals("none") ? null : Network.load(Paths.get(nnue));
+			hashMegabytes = hash;
+			this.millis = millis;
+			this.depth = depth;
+		}
+
+		// Creates a search with this setup and its own transposition table.
+		Search newSearch() {
+			return new Search(new TranspositionTable(hashMegabytes), network);
+		}
+	}
+
+	// Creates a match between two setups.
+	Tournament(Engine a, Engine b, List<String> openings, int threads, GameArchive archive, double elo0, double elo1, double alpha, double beta) {
+		this.a = a;
+		this.b = b;
+		this.openings = openings;
+		this.threads = threads;
+		this.archive = archive;
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.alpha = alpha;
+		this.beta = beta;
+		searches = ThreadLocal.withInitial(() -> new Search[] {a.newSearch(), b.newSearch()});
+	}
+
+	// Plays up to the given number of games, fewer if the test decides first; returns the games played.
+	int run(int games) throws InterruptedException, IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<PgnGame> done = new ExecutorCompletionService<>(pool);
+		long start = System.nanoTime();
+		int played = 0, reportEvery = Math.max(1, Math.min(100, games / 20));
+		try {
+			for(int i = 0; i < games; ++i) {
+				final String opening = openings.get((i / 2) % openings.size());
+				final boolean aWhite = (i & 1) == 0;
+				final int round = i + 1;
+				done.submit(() -> play(opening, aWhite, round));
+			}
+			for(int i = 0; i < games; ++i) {
+				PgnGame g;
+				try {
+					g = done.take().get();
+				} catch(ExecutionException e) {
+					if(e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IllegalStateException(e.getCause());
+				}
+				if(g == null)
+					continue;
+				++played;
+				if(played % reportEvery == 0)
+					System.out.println(progress(played, System.nanoTime() - start));
+				if(!stopping && verdict() != 0) {
+					// The remaining games are dropped unfinished; their results would not change the decision.
+					stopping = true;
+				}
+			}
+		} finally {
+			stopping = true;
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		return played;
+	}
+
+	// Plays one game from an opening; returns it, or null if the match stopped first.
+	PgnGame play(String opening, boolean aWhite, int round) throws IOException {
+		Search[] pair = searches.get();
+		Search white = aWhite ? pair[0] : pair[1], black = aWhite ? pair[1] : pair[0];
+		Engine whiteEngine = aWhite ? a : b, blackEngine = aWhite ? b : a;
+		white.getTable().clear();
+		black.getTable().clear();
+		Position p = Position.fromFen(opening);
+		PgnGame game = new PgnGame();
+		game.setTag("Event", "Tournament " + a.name + " vs " + b.name);
+		game.setTag("Round", Integer.toString(round));
+		game.setTag("Date", GameArchive.today());
+		game.setTag("White", whiteEngine.name);
+		game.setTag("Black", blackEngine.name);
+		if(!opening.equals(Position.START_FEN)) {
+			game.setTag("SetUp", "1");
+			game.setTag("FEN", opening);
+		}
+		MoveList legal = new MoveList();
+		int termination;
+		String result;
+		for(int ply = 0; ; ++ply) {
+			if(stopping)
+				return null;
+			MoveSnapshot s = MoveSnapshot.of(p);
+			if(s.isOver()) {
+				termination = s.mate ? 0 : s.stalemate ? 1 : s.repetition ? 2 : 3;
+				result = s.result();
+				break;
+			}
+			if(ply == MAX_PLIES) {
+				termination = 4;
+				result = "1/2-1/2";
+				break;
+			}
+			boolean whiteToMove = p.getTurn() == PlayerColor.white;
+			Engine engine = whiteToMove ? whiteEngine : blackEngine;
+			long begin = System.nanoTime();
+			SearchInfo info = (whiteToMove ? white : black).search(p, engine.depth, engine.millis);
+			long nanos = System.nanoTime() - begin;
+			moveTime.record(nanos);
+			moveNanos.add(nanos);
+			moves.increment();
+			int m = (info != null) ? info.bestMove() : Move.NONE;
+			if(m == Move.NONE) {
+				legal.clear();
+				p.legalMoves(legal);
+				m = legal.get(0);
+			}
+			p.makeMove(m);
+			game.addMove(m);
+		}
+		game.setResult(result);
+		archive.append(game);
+		record(result, aWhite, termination);
+		return game;
+	}
+
+	// Counts a result from A's point of view.
+	private synchronized void record(String result, boolean aWhite, int termination) {
+		++terminations[termination];
+		if(result.equals("1/2-1/2"))
+			++draws;
+		else if(result.equals("1-0") == aWhite)
+			++wins;
+		else
+			++losses;
+	}
+
+	// Returns 1 if the test accepts H1 (A is at least elo1 better), -1 if it accepts H0, 0 to go on.
+	synchronized int verdict() {
+		double llr = llr(wins, draws, losses, elo0, elo1);
+		if(llr >= Math.log((1 - beta) / alpha))
+			return 1;
+		if(llr <= Math.log(beta / (1 - alpha)))
+			return -1;
+		return 0;
+	}
+
+	// Formats the standing after some games.
+	synchronized String progress(int played, long nanos) {
+		int n = wins + draws + losses;
+		double seconds = nanos / 1e9;
+		return String.format("%d games  +%d -%d =%d  elo %s  LLR %.2f (%.2f, %.2f)  %.2f games/s",
+				played, wins, losses, draws, eloText(wins, draws, losses), llr(wins, draws, losses, elo0, elo1),
+				Math.log(beta / (1 - alpha)), Math.log((1 - beta) / alpha), n / seconds);
+	}
+
+	// Formats the Elo difference with its 95% interval.
+	static String eloText(int w, int d, int l) {
+		int n = w + d + l;
+		if(n == 0)
+			return "n/a";
+		double s = (w + d / 2.0) / n;
+		if(s <= 0 || s >= 1)
+			return (s <= 0) ? "-inf" : "+inf";
+		double variance = (w * (1 - s) * (1 - s) + d * (0.5 - s) * (0.5 - s) + l * s * s) / n;
+		double margin = 1.96 * Math.sqrt(variance / n);
+		double low = elo(Math.max(s - margin, 1e-6)), high = elo(Math.min(s + margin, 1 - 1e-6));
+		return String.format("%+.1f +/- %.1f", elo(s), (high - low) / 2);
+	}
+
+	// Converts an expected score to an Elo difference.
+	static double elo(double score) {
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	// Converts an Elo difference to an expected score.
+	static double score(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	// Returns the log-likelihood ratio of elo1 against elo0 for a result count, in the usual normal
+	// approximation of the trinomial test: n (s1 - s0)(2s - s0 - s1) / (2 variance).
+	static double llr(int w, int d, int l, double elo0, double elo1) {
+		int n = w + d + l;
+		if(n == 0)
+			return 0;
+		double s = (w + d / 2.0) / n;
+		double variance = (w * (1 - s) * (1 - s) + d * (0.5 - s) * (0.5 - s) + l * s * s) / n;
+		// A run of one result only has no spread; a floor lets the test still decide on it.
+		variance = Math.max(variance, 0.25 / n);
+		double s0 = score(elo0), s1 = score(elo1);
+		return n * (s1 - s0) * (2 * s - s0 - s1) / (2 * variance);
+	}
+
+	// Reads the positions of a FEN or EPD file, one per line.
+	static List<String> readOpenings(Path file) throws IOException {
+		List<String> openings = new ArrayList<>();
+		try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for(String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] fields = line.trim().split("\\s+");
+				if(fields[0].isEmpty() || fields[0].startsWith("#"))
+					continue;
+				boolean fen = fields.length >= 6 && fields[4].matches("\\d+") && fields[5].matches("\\d+");
+				String opening = String.join(" ", Arrays.copyOf(fields, Math.min(fen ? 6 : 4, fields.length)));
+				Position.fromFen(opening);
+				openings.add(opening);
+			}
+		}
+		if(openings.isEmpty())
+			throw new IOException("No positions in " + file);
+		return openings;
+	}
+
+	// Plays random legal moves from the start position to make distinct openings, none of them already
+	// over; the same seed gives the same openings.
+	static List<String> randomOpenings(int count, int plies, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Set<String> openings = new LinkedHashSet<>();
+		MoveList legal = new MoveList();
+		for(int tries = 0; openings.size() < count && tries < count * 100; ++tries) {
+			Position p = Position.fromFen(Position.START_FEN);
+			for(int ply = 0; ply < plies; ++ply) {
+				legal.clear();
+				p.legalMoves(legal);
+				if(legal.isEmpty())
+					break;
+				p.makeMove(legal.get(random.nextInt(legal.size())));
+			}
+			legal.clear();
+			p.legalMoves(legal);
+			if(!legal.isEmpty())
+				openings.add(p.toFen());
+		}
+		return new ArrayList<>(openings);
+	}
+
+	// Usage: Tournament <games> [--openings file] [--a spec] [--b spec] [--millis ms] [--depth d] [--threads n]
+	// [--archive file] [--elo0 e] [--elo1 e] [--alpha a] [--beta b]; plays A against B and reports the result.
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 1) {
+			System.out.println("Usage: Tournament <games> [--openings file] [--a spec] [--b spec] [--millis ms] [--depth d] [--threads n]"
+					+ " [--archive file] [--elo0 e] [--elo1 e] [--alpha a] [--beta b]");
+			System.out.println("  spec: name=..,nnue=<file>|none,millis=..,depth=..,hash=<mb>");
+			return;
+		}
+		int games = Integer.parseInt(args[0]);
+		String openingFile = null, specA = "", specB = "", archiveFile = "tournament.cga";
+		int threads = Runtime.getRuntime().availableProcessors(), depth = Search.MAX_PLY;
+		long millis = -1;
+		double elo0 = 0, elo1 = 5, alpha = 0.05, beta = 0.05;
+		for(int i = 1; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "--openings": openingFile = args[i + 1]; break;
+				case "--a": specA = args[i + 1]; break;
+				case "--b": specB = args[i + 1]; break;
+				case "--millis": millis = Long.parseLong(args[i + 1]); break;
+				case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+				case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+				case "--archive": archiveFile = args[i + 1]; break;
+				case "--elo0": elo0 = Double.parseDouble(args[i + 1]); break;
+				case "--elo1": elo1 = Double.parseDouble(args[i + 1]); break;
+				case "--alpha": alpha = Double.parseDouble(args[i + 1]); break;
+				case "--beta": beta = Double.parseDouble(args[i + 1]); break;
+				default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		// A depth limit alone means searching without a clock, so results do not depend on machine load.
+		if(millis < 0)
+			millis = (depth != Search.MAX_PLY) ? 0 : 100;
+		List<String> openings;
+		if(openingFile != null) {
+			openings = readOpenings(Paths.get(openingFile));
+		}
+		else {
+			openings = randomOpenings(Math.max(1, (games + 1) / 2), RANDOM_OPENING_PLIES, 1);
+			System.out.printf("No --openings given: playing %d random %d-ply openings%n", openings.size(), RANDOM_OPENING_PLIES);
+		}
+		Engine a = new Engine(specA, "A", millis, depth), b = new Engine(specB, "B", millis, depth);
+		if(openings.size() == 1 && games > 2 && a.millis == 0 && b.millis == 0)
+			System.out.println("Warning: one opening and depth-limited searches repeat the same two games over and over");
+		try(GameArchive archive = new GameArchive(Paths.get(archiveFile))) {
+			Tournament t = new Tournament(a, b, openings, threads, archive, elo0, elo1, alpha, beta);
+			long start = System.nanoTime();
+			int played = t.run(games);
+			long nanos = System.nanoTime() - start;
+			long n = t.moves.sum();
+			System.out.println(t.progress(played, nanos));
+			System.out.printf("%s vs %s: %d games on %d threads in %.1f s, %.2f games/s, %.1f moves/game%n",
+					a.name, b.name, played, threads, nanos / 1e9, played / (nanos / 1e9), played == 0 ? 0.0 : (double) n / played);
+			System.out.printf("move time: mean %.1f ms  %s%n", n == 0 ? 0.0 : t.moveNanos.sum() / 1e6 / n, t.moveTime.summary());
+			StringBuilder ends = new StringBuilder("endings:");
+			for(int i = 0; i < TERMINATIONS.length; ++i)
+				ends.append("  ").append(TERMINATIONS[i]).append(' ').append(t.terminations[i]);
+			System.out.println(ends);
+			int verdict = t.verdict();
+			System.out.printf("SPRT elo0 %.1f elo1 %.1f alpha %.2f beta %.2f: %s%n", elo0, elo1, alpha, beta,
+					verdict > 0 ? "H1 accepted (pass)" : verdict < 0 ? "H0 accepted (fail)" : "inconclusive");
+			System.out.println("Games saved to " + archive.getFile());
+		}
+	}
+}
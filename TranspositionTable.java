@@ -0,0 +1,152 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// TranspositionTable remembers search results by Zobrist key, so a position reached through a
+// different move order is not searched again.
+// Entries live in a flat long[] of two words each: the key XORed with the data, then the data.
+// Threads read and write without locks; a read whose two words come from different writes fails
+// the XOR check and is treated as a miss, so a torn entry can never be mistaken for a hit.
+public final class TranspositionTable {
+	// Bound types: the stored score is exact, a lower bound (fail high) or an upper bound (fail low).
+	public static final int EXACT = 3;
+	public static final int LOWER = 1;
+	public static final int UPPER = 2;
+
+	// Layout of the data word.
+	private static final int SCORE_SHIFT = 18;
+	private static final int DEPTH_SHIFT = 34;
+	private static final int BOUND_SHIFT = 42;
+	private static final int GENERATION_SHIFT = 44;
+	private static final int SAMPLE = 1000;
+
+	private long[] table;
+	private int mask;
+	private int generation;
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+
+	// Creates a table using at most the given number of megabytes.
+	public TranspositionTable(int megabytes) {
+		resize(megabytes);
+	}
+
+	// Reallocates the table to at most the given number of megabytes, rounded down to a power of two
+	// entries; the contents are lost. Must not be called while a search is using the table.
+	public void resize(int megabytes) {
+		long entries = Math.max(1L, (long) megabytes * 1024 * 1024 / 16);
+		int size = (int) Math.min(Long.highestOneBit(entries), 1 << 29);
+		table = new long[size * 2];
+		mask = size - 1;
+		generation = 0;
+		resetStats();
+	}
+
+	// Empties the table.
+	public void clear() {
+		Arrays.fill(table, 0);
+		generation = 0;
+		resetStats();
+	}
+
+	// Starts a new search; entries from earlier searches become the first to be replaced.
+	public void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	// Returns the number of entries.
+	public int capacity() {
+		return mask + 1;
+	}
+
+	// Looks up a position; returns its data word, or 0 when the table has nothing for it.
+	public long probe(long key) {
+		int i = ((int) key & mask) << 1;
+		long data = table[i + 1];
+		probes.increment();
+		if((table[i] ^ data) != key || data == 0)
+			return 0;
+		hits.increment();
+		return data;
+	}
+
+	// Stores a search result. A slot is overwritten when it holds the same position, an entry from an
+	// earlier search, or an entry searched no deeper than this one; otherwise the deeper entry stays.
+	public void store(long key, int move, int score, int depth, int bound) {
+		int i = ((int) key & mask) << 1;
+		long old = table[i + 1];
+		boolean samePosition = (table[i] ^ old) == key;
+		if(old != 0 && !samePosition && generation(old) == generation && depth < depth(old))
+			return;
+		if(move == Move.NONE && samePosition)
+			move = move(old);
+		long data = move
+				| ((long) (score & 0xFFFF) << SCORE_SHIFT)
+				| ((long) Math.max(0, Math.min(depth, 255)) << DEPTH_SHIFT)
+				| ((long) bound << BOUND_SHIFT)
+				| ((long) generation << GENERATION_SHIFT);
+		table[i] = key ^ data;
+		table[i + 1] = data;
+	}
+
+	// Best or refuting move of an entry, or Move.NONE.
+	public static int move(long data) {
+		return (int) data & 0x3FFFF;
+	}
+
+	// Score of an entry.
+	public static int score(long data) {
+		return (short) (data >>> SCORE_SHIFT);
+	}
+
+	// Depth an entry was searched to.
+	public static int depth(long data) {
+		return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+	}
+
+	// Bound type of an entry.
+	public static int bound(long data) {
+		return (int) (data >>> BOUND_SHIFT) & 3;
+	}
+
+	// Search generation an entry was written in.
+	private static int generation(long data) {
+		return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+	}
+
+	// Returns the share of probes that found their position.
+	public double hitRate() {
+		long p = probes.sum();
+		return (p == 0) ? 0 : (double) hits.sum() / p;
+	}
+
+	// Returns the number of probes since the last reset.
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	// Returns the number of probes that hit since the last reset.
+	public long getHits() {
+		return hits.sum();
+	}
+
+	// Zeroes the probe and hit counters.
+	public void resetStats() {
+		probes.reset();
+		hits.reset();
+	}
+
+	// Estimates, in permille, how full the table is with entries of the current search, by sampling
+	// the first thousand slots.
+	public int hashfull() {
+		int n = Math.min(SAMPLE, capacity());
+		int used = 0;
+		for(int i = 0; i < n; ++i) {
+			long data = table[2 * i + 1];
+			if(data != 0 && generation(data) == generation)
+				++used;
+		}
+		return used * 1000 / n;
+	}
+}
@@ -0,0 +1,321 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Uci runs the engine without Swing, speaking the Universal Chess Interface on stdin and stdout.
+// Three threads keep the protocol responsive: the main thread reads and parses commands, one thread
+// searches, and one writes output, so "stop" is handled while a search runs and a slow reader of
+// stdout never holds up the search. Commands that change the engine ("ucinewgame", "setoption")
+// are queued behind the running search instead of racing it.
+public class Uci {
+	static final String NAME = "chess-game";
+	static final int DEFAULT_HASH = 16;
+	static final int MAX_HASH = 4096;
+	static final int MAX_THREADS = 512;
+	// Moves assumed to be left when the GUI sends no movestogo.
+	private static final int MOVES_TO_GO = 30;
+	// Milliseconds kept back from the clock for communication delays.
+	private static final long MOVE_OVERHEAD = 50;
+	private static final String QUIT = "\u0000quit";
+
+	private final TranspositionTable table = new TranspositionTable(DEFAULT_HASH);
+	private final ParallelSearch engine = new ParallelSearch(1, table);
+	private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> new Thread(r, "uci-search"));
+	private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private Position position = Position.fromFen(Position.START_FEN);
+
+	// Guards the ponder/infinite state shared by the input and search threads.
+	private final Object lock = new Object();
+	// Set while the search may not answer "bestmove" yet: during "go infinite" and "go ponder".
+	private boolean holdBestMove;
+	private boolean pondering;
+	// Time to use once a ponder search turns into a real one.
+	private long ponderHitBudget;
+	private volatile boolean searching;
+
+	// Creates an adapter writing to a stream.
+	Uci(PrintStream out) {
+		engine.setListener(info -> send("info " + info));
+		writer = new Thread(() -> {
+			try {
+				for(String line = output.take(); line != QUIT; line = output.take()) {
+					out.println(line);
+					if(output.isEmpty()) out.flush();
+				}
+				out.flush();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "uci-output");
+		writer.start();
+	}
+
+	// Queues a line of output.
+	void send(String line) {
+		output.add(line);
+	}
+
+	// Reads commands until "quit" or the end of input.
+	void run(BufferedReader in) throws IOException {
+		for(String line = in.readLine(); line != null; line = in.readLine()) {
+			try {
+				if(!handle(line.trim()))
+					break;
+			} catch(RuntimeException e) {
+				send("info string cannot handle \"" + line.trim() + "\": " + e.getMessage());
+			}
+		}
+		quit();
+	}
+
+	// Handles one command; returns false for "quit".
+	boolean handle(String line) {
+		String[] words = line.split("\\s+");
+		switch(words[0]) {
+			case "uci":
+				send("id name " + NAME);
+				send("id author chess-game contributors");
+				send("option name Hash type spin default " + DEFAULT_HASH + " min 1 max " + MAX_HASH);
+				send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+				send("option name Ponder type check default false");
+				send("uciok");
+				break;
+			case "isready":
+				// During a search the engine is ready at once; otherwise answer after queued option changes.
+				if(searching) send("readyok");
+				else searcher.execute(() -> send("readyok"));
+				break;
+			case "ucinewgame":
+				searcher.execute(table::clear);
+				break;
+			case "setoption":
+				setOption(words);
+				break;
+			case "position":
+				setPosition(words);
+				break;
+			case "go":
+				go(words);
+				break;
+			case "stop":
+				release(false);
+				engine.stop();
+				break;
+			case "ponderhit":
+				release(true);
+				break;
+			case "quit":
+				return false;
+			default:
+				if(!line.isEmpty()) send("info string unknown command: " + line);
+				break;
+		}
+		return true;
+	}
+
+	// Applies "setoption name <name> value <value>" once no search is running.
+	private void setOption(String[] words) {
+		String name = "", value = "";
+		for(int i = 1; i < words.length; ++i) {
+			if(words[i].equals("name") && i + 1 < words.length) name = words[++i];
+			else if(words[i].equals("value") && i + 1 < words.length) value = words[++i];
+		}
+		try {
+			switch(name.toLowerCase()) {
+				case "hash":
+					int megabytes = clamp(Integer.parseInt(value), 1, MAX_HASH);
+					searcher.execute(() -> table.resize(megabytes));
+					break;
+				case "threads":
+					int threads = clamp(Integer.parseInt(value), 1, MAX_THREADS);
+					searcher.execute(() -> engine.setThreads(threads));
+					break;
+				case "ponder":
+					break;
+				default:
+					send("info string unknown option: " + name);
+					break;
+			}
+		} catch(NumberFormatException e) {
+			send("info string bad value for " + name + ": " + value);
+		}
+	}
+
+	// Handles "position (startpos | fen <fen>) [moves <move>...]".
+	private void setPosition(String[] words) {
+		int i = 1;
+		Position p;
+		if(words.length > 1 && words[1].equals("fen")) {
+			StringBuilder fen = new StringBuilder();
+			for(i = 2; i < words.length && !words[i].equals("moves"); ++i)
+				fen.append(words[i]).append(' ');
+			p = Position.fromFen(fen.toString());
+		}
+		else {
+			p = Position.fromFen(Position.START_FEN);
+			i = 2;
+		}
+		if(i < words.length && words[i].equals("moves")) {
+			for(++i; i < words.length; ++i) {
+				int m = parseMove(p, words[i]);
+				if(m == Move.NONE) {
+					send("info string illegal move: " + words[i]);
+					return;
+				}
+				p.makeMove(m);
+			}
+		}
+		position = p;
+	}
+
+	// Finds the legal move written in coordinate notation such as "e2e4" or "e7e8q", or returns Move.NONE.
+	static int parseMove(Position p, String text) {
+		return parseMove(p, text, new MoveList());
+	}
+
+	// Finds a move in coordinate notation, generating the moving piece's moves into a caller's buffer.
+	static int parseMove(Position p, String text, MoveList buffer) {
+		if(text.length() != 4 && text.length() != 5)
+			return Move.NONE;
+		int from, to;
+		PieceType promotion = PieceType.none;
+		try {
+			from = Position.parseSquare(text.substring(0, 2));
+			to = Position.parseSquare(text.substring(2, 4));
+			if(text.length() == 5) promotion = Position.pieceType(text.charAt(4));
+		} catch(IllegalArgumentException e) {
+			return Move.NONE;
+		}
+		buffer.clear();
+		p.movesOf(from, buffer);
+		for(int i = 0; i < buffer.size(); ++i) {
+			int m = buffer.get(i);
+			if(Move.to(m) == to && Move.promotion(m) == promotion)
+				return m;
+		}
+		return Move.NONE;
+	}
+
+	// Starts a search for "go [depth n] [movetime ms] [wtime ms] [btime ms] [winc ms] [binc ms]
+	// [movestogo n] [infinite] [ponder]".
+	private void go(String[] words) {
+		int depth = Search.MAX_PLY;
+		long moveTime = 0, time = 0, inc = 0;
+		int movesToGo = 0;
+		boolean infinite = false, ponder = false;
+		boolean white = position.getTurn() == PlayerColor.white;
+		for(int i = 1; i < words.length; ++i) {
+			String value = (i + 1 < words.length) ? words[i + 1] : "0";
+			switch(words[i]) {
+				case "depth": depth = clamp(Integer.parseInt(value), 1, Search.MAX_PLY); ++i; break;
+				case "movetime": moveTime = Long.parseLong(value); ++i; break;
+				case "wtime": if(white) time = Long.parseLong(value); ++i; break;
+				case "btime": if(!white) time = Long.parseLong(value); ++i; break;
+				case "winc": if(white) inc = Long.parseLong(value); ++i; break;
+				case "binc": if(!white) inc = Long.parseLong(value); ++i; break;
+				case "movestogo": movesToGo = Integer.parseInt(value); ++i; break;
+				case "infinite": infinite = true; break;
+				case "ponder": ponder = true; break;
+				default: break;
+			}
+		}
+		long budget = (moveTime > 0) ? moveTime : budget(time, inc, movesToGo);
+		final int maxDepth = depth;
+		final long millis = (infinite || ponder) ? 0 : budget;
+		final Position root = new Position(position);
+		synchronized(lock) {
+			holdBestMove = infinite || ponder;
+			pondering = ponder;
+			ponderHitBudget = budget;
+		}
+		engine.resetStop();
+		searching = true;
+		searcher.execute(() -> search(root, maxDepth, millis));
+	}
+
+	// Runs one search on the search thread and answers with the best move.
+	private void search(Position root, int maxDepth, long millis) {
+		SearchInfo info;
+		try {
+			info = engine.runSearch(root, maxDepth, millis);
+		} catch(RuntimeException e) {
+			send("info string search failed: " + e);
+			info = null;
+		}
+		synchronized(lock) {
+			try {
+				while(holdBestMove)
+					lock.wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		searching = false;
+		if(info == null || info.bestMove() == Move.NONE) {
+			send("bestmove 0000");
+			return;
+		}
+		int[] pv = info.getPv();
+		send("bestmove " + Move.toString(pv[0]) + (pv.length > 1 ? " ponder " + Move.toString(pv[1]) : ""));
+	}
+
+	// Lets the search answer: on "stop" at once, on "ponderhit" when its normal time budget runs out.
+	private void release(boolean ponderHit) {
+		long budget = -1;
+		synchronized(lock) {
+			if(ponderHit && pondering) {
+				budget = ponderHitBudget;
+				holdBestMove = false;
+			}
+			else if(!ponderHit) {
+				holdBestMove = false;
+			}
+			pondering = false;
+			lock.notifyAll();
+		}
+		if(budget > 0)
+			engine.setTimeLimit(budget);
+	}
+
+	// Splits the remaining clock time over the moves still to play, plus most of the increment.
+	static long budget(long time, long inc, int movesToGo) {
+		if(time <= 0)
+			return 0;
+		long b = time / (movesToGo > 0 ? movesToGo : MOVES_TO_GO) + inc * 3 / 4;
+		return Math.max(1, Math.min(b, time - Math.min(MOVE_OVERHEAD, time / 2)));
+	}
+
+	// Limits a value to a range.
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	// Stops any search and shuts the threads down after the last output is written.
+	void quit() {
+		release(false);
+		engine.stop();
+		searcher.shutdown();
+		try {
+			searcher.awaitTermination(5, TimeUnit.SECONDS);
+			output.add(QUIT);
+			writer.join(1000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		engine.close();
+	}
+
+	// Usage: Uci; reads UCI commands from standard input.
+	public static void main(String[] args) throws IOException {
+		new Uci(System.out).run(new BufferedReader(new InputStreamReader(System.in)));
+	}
+}
@@ -0,0 +1,46 @@
+package chess;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorKernel runs the network's accumulator updates and output dot products on the JDK Vector API,
+// as many lanes at a time as the CPU's widest vectors hold, finishing any remainder with plain loops.
+// It is only loaded, by Network.bestKernel(), when the jdk.incubator.vector module is present.
+final class VectorKernel implements Network.Kernel {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public void update(int[] src, int srcOff, int[] dst, int dstOff, int[] w, int add, int sub, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+			IntVector v = IntVector.fromArray(SPECIES, src, srcOff + i);
+			if(add >= 0)
+				v = v.add(IntVector.fromArray(SPECIES, w, add + i));
+			if(sub >= 0)
+				v = v.sub(IntVector.fromArray(SPECIES, w, sub + i));
+			v.intoArray(dst, dstOff + i);
+		}
+		for(; i < n; ++i)
+			dst[dstOff + i] = src[srcOff + i] + (add >= 0 ? w[add + i] : 0) - (sub >= 0 ? w[sub + i] : 0);
+	}
+
+	@Override
+	public int dot(int[] acc, int off, int[] w, int wOff, int max, int n) {
+		IntVector sum = IntVector.zero(SPECIES);
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+			IntVector a = IntVector.fromArray(SPECIES, acc, off + i).max(0).min(max);
+			sum = sum.add(a.mul(IntVector.fromArray(SPECIES, w, wOff + i)));
+		}
+		int total = sum.reduceLanes(VectorOperators.ADD);
+		for(; i < n; ++i)
+			total += Math.min(Math.max(acc[off + i], 0), max) * w[wOff + i];
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "vector (" + SPECIES.vectorBitSize() + "-bit)";
+	}
+}
@@ -0,0 +1,32 @@
+package chess;
+
+import java.util.SplittableRandom;
+
+// Zobrist holds the random keys that hash a position into a 64-bit number.
+// A position's key is the XOR of the keys of its pieces, castling rights, en passant file and side
+// to move, so a move updates it with a handful of XORs instead of rehashing the board.
+final class Zobrist {
+	// Keys of each piece by PlayerColor.ordinal(), PieceType.ordinal() and square.
+	static final long[][][] PIECE = new long[2][6][64];
+	// Keys of each combination of castling right bits.
+	static final long[] CASTLING = new long[16];
+	// Keys of each en passant column; only hashed when a pawn can actually take en passant.
+	static final long[] EN_PASSANT = new long[8];
+	// Hashed in when black is to move.
+	static final long BLACK_TO_MOVE;
+
+	static {
+		// A fixed seed keeps keys, and anything stored under them, the same from run to run.
+		SplittableRandom random = new SplittableRandom(0x5EED_C4E55L);
+		for(long[][] color : PIECE) {
+			for(long[] type : color) {
+				for(int sq = 0; sq < 64; ++sq) type[sq] = random.nextLong();
+			}
+		}
+		for(int i = 0; i < CASTLING.length; ++i) CASTLING[i] = random.nextLong();
+		for(int i = 0; i < EN_PASSANT.length; ++i) EN_PASSANT[i] = random.nextLong();
+		BLACK_TO_MOVE = random.nextLong();
+	}
+
+	private Zobrist() {}
+}
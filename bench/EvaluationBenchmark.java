@@ -0,0 +1,131 @@
+package chess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Benchmarks evaluations per second the way the search asks for them: each invocation plays the next
+// legal move of the corpus, scores the position after it and takes the move back. handcrafted is
+// Evaluation, fromScratch sums every piece's feature row of the piece-square network with plain loops,
+// and incremental updates the network's accumulator on the selected kernel.
+// The vector kernel needs the jdk.incubator.vector module, which the forked JVM is given.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EvaluationBenchmark {
+	@Param({"middlegame", "endgame"})
+	String phase;
+
+	private Position[] positions;
+	private int[][] moves;
+	private int next, nextMove;
+	private final Network network = Network.fromTables();
+
+	// The accumulator of the incremental benchmark and the kernel it runs on.
+	@State(Scope.Thread)
+	public static class Incremental {
+		@Param({"scalar", "vector"})
+		String kernel;
+
+		Accumulator accumulator;
+		// Index of the corpus position the accumulator was last refreshed from.
+		int position = -1;
+
+		// Creates the accumulator on the selected kernel.
+		@Setup(Level.Trial)
+		public void create() {
+			Network.Kernel k = kernel.equals("vector") ? Network.bestKernel() : Network.Kernel.SCALAR;
+			if(kernel.equals("vector") && k == Network.Kernel.SCALAR)
+				throw new IllegalStateException("The Vector API is not available");
+			accumulator = new Accumulator(Network.fromTables(), k);
+		}
+	}
+
+	// Loads the corpus lines of the selected phase and their legal moves.
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		List<Position> list = new ArrayList<>();
+		for(String[] entry : RulesBenchmark.readCorpus()) {
+			if(entry[0].equals(phase))
+				list.add(Position.fromFen(entry[1]));
+		}
+		positions = list.toArray(new Position[0]);
+		moves = new int[positions.length][];
+		MoveList buffer = new MoveList();
+		for(int i = 0; i < positions.length; ++i) {
+			buffer.clear();
+			positions[i].legalMoves(buffer);
+			moves[i] = new int[buffer.size()];
+			for(int j = 0; j < buffer.size(); ++j)
+				moves[i][j] = buffer.get(j);
+		}
+	}
+
+	// Moves on to the next move of the corpus, and to the next position when its moves run out.
+	private void advance() {
+		if(++nextMove >= moves[next].length) {
+			nextMove = 0;
+			do {
+				next = (next + 1 == positions.length) ? 0 : next + 1;
+			} while(moves[next].length == 0);
+		}
+	}
+
+	@Benchmark
+	public int handcrafted() {
+		advance();
+		Position p = positions[next];
+		int m = moves[next][nextMove];
+		p.makeMove(m);
+		int score = Evaluation.evaluate(p);
+		p.unmakeMove(m);
+		return score;
+	}
+
+	@Benchmark
+	public int fromScratch() {
+		advance();
+		Position p = positions[next];
+		int m = moves[next][nextMove];
+		p.makeMove(m);
+		int score = network.evaluate(p);
+		p.unmakeMove(m);
+		return score;
+	}
+
+	// Refreshes the accumulator once per corpus position, as the search does once per root position.
+	@Benchmark
+	public int incremental(Incremental state) {
+		advance();
+		Position p = positions[next];
+		int m = moves[next][nextMove];
+		Accumulator accumulator = state.accumulator;
+		if(state.position != next) {
+			accumulator.refresh(p);
+			state.position = next;
+		}
+		accumulator.push(p, m);
+		p.makeMove(m);
+		int score = accumulator.evaluate(p.getTurn());
+		p.unmakeMove(m);
+		accumulator.pop();
+		return score;
+	}
+}
@@ -0,0 +1,127 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Benchmarks the rules hot paths over the saved positions in positions.fen.
+// Each invocation works on the next position of the selected phase, so ns/op is an average over the corpus.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RulesBenchmark {
+	@Param({"middlegame", "endgame"})
+	String phase;
+
+	private Position[] positions;
+	private int next;
+	private final MoveList moves = new MoveList();
+
+	// Loads the corpus lines of the selected phase.
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		List<Position> list = new ArrayList<>();
+		for(String[] entry : readCorpus()) {
+			if(entry[0].equals(phase))
+				list.add(Position.fromFen(entry[1]));
+		}
+		positions = list.toArray(new Position[0]);
+	}
+
+	// Reads "<phase> <fen>" lines from the bundled corpus.
+	static List<String[]> readCorpus() throws IOException {
+		List<String[]> entries = new ArrayList<>();
+		try(InputStream in = RulesBenchmark.class.getResourceAsStream("/positions.fen")) {
+			if(in == null)
+				throw new IOException("positions.fen is missing from the classpath");
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			for(String line; (line = reader.readLine()) != null; ) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				int space = line.indexOf(' ');
+				entries.add(new String[] {line.substring(0, space), line.substring(space + 1)});
+			}
+		}
+		return entries;
+	}
+
+	// Returns the next position of the corpus, wrapping around.
+	private Position nextPosition() {
+		Position p = positions[next];
+		next = (next + 1 == positions.length) ? 0 : next + 1;
+		return p;
+	}
+
+	@Benchmark
+	public int findKing() {
+		Position p = nextPosition();
+		return p.findKing(p.getTurn());
+	}
+
+	@Benchmark
+	public boolean isCheck() {
+		Position p = nextPosition();
+		return p.isCheck(p.getTurn());
+	}
+
+	@Benchmark
+	public boolean isCheckMate() {
+		Position p = nextPosition();
+		return p.isCheckMate(p.getTurn());
+	}
+
+	// The pseudo-legal generators for every piece of the side to move (the old mark* family).
+	@Benchmark
+	public void pseudoMoves(Blackhole bh) {
+		Position p = nextPosition();
+		moves.clear();
+		for(int sq = 0; sq < 64; ++sq) {
+			if(p.colorAt(sq >> 3, sq & 7) == p.getTurn())
+				p.addMoves(sq >> 3, sq & 7, moves);
+		}
+		bh.consume(moves.size());
+	}
+
+	@Benchmark
+	public int legalMoves() {
+		moves.clear();
+		nextPosition().legalMoves(moves);
+		return moves.size();
+	}
+
+	// Plays and takes back every legal move of the position.
+	@Benchmark
+	public void makeUnmake(Blackhole bh) {
+		Position p = nextPosition();
+		moves.clear();
+		p.legalMoves(moves);
+		for(int i = 0; i < moves.size(); ++i) {
+			p.makeMove(moves.get(i));
+			bh.consume(p.getCheckers());
+			p.unmakeMove(moves.get(i));
+		}
+	}
+}